@@ -0,0 +1,50 @@
+package io.roastedroot.pglite4j.benchmarks;
+
+import io.roastedroot.pglite4j.core.PGLite;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to a usable instance. Each fork's first iteration is a truly cold start (class loading,
+ * Chicory module parsing, pgdata extraction); later ones show the steady state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 5)
+@Fork(5)
+public class BootBenchmark {
+    private PGLite pg;
+
+    @Benchmark
+    public PGLite build() {
+        pg = PGLite.builder().build();
+        return pg;
+    }
+
+    @Benchmark
+    public PGLite buildAndConnect() {
+        pg = PGLite.builder().build();
+        Wire.handshake(pg);
+        return pg;
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        if (pg != null) {
+            pg.close();
+            pg = null;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package io.roastedroot.pglite4j.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.postgresql.PGConnection;
+
+/**
+ * End to end through pgjdbc and {@code PgLiteDriver}, on both transports. Row-at-a-time
+ * benchmarks report the time per statement; bulk ones ({@link OperationsPerInvocation}) the time
+ * per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class JdbcBenchmark {
+    static final int BULK_ROWS = 1000;
+    static final int SCAN_ROWS = 100_000;
+
+    @Param({"socket", "inprocess"})
+    public String transport;
+
+    private Connection conn;
+    private PreparedStatement insert;
+    private PreparedStatement select;
+    private String copyData;
+    private int nextId;
+
+    @Setup
+    public void connect() throws SQLException {
+        conn = DriverManager.getConnection("jdbc:pglite:memory://bench?transport=" + transport);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(
+                    "CREATE TABLE IF NOT EXISTS scan AS"
+                            + " SELECT i AS id, md5(i::text) AS payload"
+                            + " FROM generate_series(1, "
+                            + SCAN_ROWS
+                            + ") i");
+            stmt.execute("CREATE TABLE IF NOT EXISTS rows (id INTEGER PRIMARY KEY, payload TEXT)");
+        }
+        insert = conn.prepareStatement("INSERT INTO rows VALUES (?, ?)");
+        select = conn.prepareStatement("SELECT payload FROM rows WHERE id = ?");
+
+        StringBuilder copy = new StringBuilder();
+        for (int i = 0; i < BULK_ROWS; i++) {
+            copy.append(i).append('\t').append("payload-").append(i).append('\n');
+        }
+        copyData = copy.toString();
+    }
+
+    @Setup(Level.Iteration)
+    public void truncate() throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("TRUNCATE rows");
+            stmt.execute("INSERT INTO rows VALUES (0, 'payload-0')");
+        }
+        nextId = 1;
+    }
+
+    @TearDown
+    public void close() throws SQLException {
+        conn.close();
+    }
+
+    @Benchmark
+    public int insertRow() throws SQLException {
+        insert.setInt(1, nextId++);
+        insert.setString(2, "payload");
+        return insert.executeUpdate();
+    }
+
+    @Benchmark
+    public String selectRow() throws SQLException {
+        select.setInt(1, 0);
+        try (ResultSet rs = select.executeQuery()) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BULK_ROWS)
+    public int[] executeBatch() throws SQLException {
+        // the same ids every time: rolled back so the table does not grow
+        conn.setAutoCommit(false);
+        try {
+            for (int i = 1; i <= BULK_ROWS; i++) {
+                insert.setInt(1, -i);
+                insert.setString(2, "payload");
+                insert.addBatch();
+            }
+            return insert.executeBatch();
+        } finally {
+            conn.rollback();
+            conn.setAutoCommit(true);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BULK_ROWS)
+    public long copyIn() throws SQLException, IOException {
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TEMP TABLE copied (id INTEGER, payload TEXT) ON COMMIT DROP");
+            return conn.unwrap(PGConnection.class)
+                    .getCopyAPI()
+                    .copyIn("COPY copied FROM STDIN", new StringReader(copyData));
+        } finally {
+            conn.rollback();
+            conn.setAutoCommit(true);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SCAN_ROWS)
+    public void scan(Blackhole bh) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT id, payload FROM scan")) {
+            while (rs.next()) {
+                bh.consume(rs.getInt(1));
+                bh.consume(rs.getString(2));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SCAN_ROWS)
+    public void scanWithFetchSize(Blackhole bh) throws SQLException {
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.setFetchSize(1000);
+            try (ResultSet rs = stmt.executeQuery("SELECT id, payload FROM scan")) {
+                while (rs.next()) {
+                    bh.consume(rs.getInt(1));
+                    bh.consume(rs.getString(2));
+                }
+            }
+        } finally {
+            conn.commit();
+            conn.setAutoCommit(true);
+        }
+    }
+}
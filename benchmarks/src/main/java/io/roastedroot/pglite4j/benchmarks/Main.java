@@ -0,0 +1,33 @@
+package io.roastedroot.pglite4j.benchmarks;
+
+import java.io.IOException;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of {@code benchmarks.jar}: the regular JMH command line, with the GC profiler always
+ * on so every result comes with its allocation rate ({@code gc.alloc.rate.norm}).
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar                 # everything
+ * java -jar benchmarks/target/benchmarks.jar RoundTrip -rf json
+ * </pre>
+ */
+public final class Main {
+
+    private Main() {}
+
+    public static void main(String[] args)
+            throws CommandLineOptionException, IOException, RunnerException {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if (cli.shouldHelp() || cli.shouldList() || cli.shouldListProfilers()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        new Runner(new OptionsBuilder().parent(cli).addProfiler(GCProfiler.class).build()).run();
+    }
+}
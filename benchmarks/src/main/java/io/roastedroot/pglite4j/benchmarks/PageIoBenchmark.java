@@ -0,0 +1,110 @@
+package io.roastedroot.pglite4j.benchmarks;
+
+import io.roastedroot.zerofs.Configuration;
+import io.roastedroot.zerofs.ZeroFs;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 8 KiB page reads and writes at random offsets of a 64 MiB relation file, the way WASI {@code
+ * fd_pread}/{@code fd_pwrite} issue them for the backend: a fresh array per call, then a
+ * positional channel read or write. Once on ZeroFS configured as PGLite does, once on a plain array
+ * of pages, the floor a purpose-built filesystem could reach.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PageIoBenchmark {
+    private static final int PAGE = 8192;
+    private static final int PAGES = 8192;
+
+    private FileSystem fs;
+    private FileChannel file;
+    private byte[][] pages;
+    private final int[] order = new int[4096];
+    private int next;
+    private final byte[] source = new byte[PAGE];
+
+    @Setup
+    public void setUp() throws IOException {
+        fs =
+                ZeroFs.newFileSystem(
+                        Configuration.unix().toBuilder().setAttributeViews("unix").build());
+        Path relation = fs.getPath("/pgdata/base/1/16384");
+        Files.createDirectories(relation.getParent());
+        file =
+                FileChannel.open(
+                        relation,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+        pages = new byte[PAGES][PAGE];
+        SplittableRandom random = new SplittableRandom(42);
+        random.nextBytes(source);
+        for (int i = 0; i < PAGES; i++) {
+            file.write(ByteBuffer.wrap(source), (long) i * PAGE);
+            System.arraycopy(source, 0, pages[i], 0, PAGE);
+        }
+        for (int i = 0; i < order.length; i++) {
+            order[i] = random.nextInt(PAGES);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        file.close();
+        fs.close();
+    }
+
+    private int nextPage() {
+        return order[next++ & (order.length - 1)];
+    }
+
+    @Benchmark
+    public byte[] zeroFsRead() throws IOException {
+        byte[] data = new byte[PAGE];
+        file.read(ByteBuffer.wrap(data), (long) nextPage() * PAGE);
+        return data;
+    }
+
+    @Benchmark
+    public int zeroFsWrite() throws IOException {
+        byte[] data = source.clone();
+        return file.write(ByteBuffer.wrap(data), (long) nextPage() * PAGE);
+    }
+
+    @Benchmark
+    public byte[] pageArrayRead() {
+        byte[] data = new byte[PAGE];
+        System.arraycopy(pages[nextPage()], 0, data, 0, PAGE);
+        return data;
+    }
+
+    @Benchmark
+    public int pageArrayWrite() {
+        byte[] data = source.clone();
+        System.arraycopy(data, 0, pages[nextPage()], 0, PAGE);
+        return data.length;
+    }
+}
@@ -0,0 +1,56 @@
+package io.roastedroot.pglite4j.benchmarks;
+
+import io.roastedroot.pglite4j.core.PGLite;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** {@code SELECT 1} through the core API: the fixed cost of one wire protocol exchange. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class RoundTripBenchmark {
+    private static final byte[] SELECT_1 = Wire.query("SELECT 1");
+
+    private PGLite pg;
+    private final ByteBuffer request = ByteBuffer.allocateDirect(SELECT_1.length);
+    private final ByteBuffer reply = ByteBuffer.allocateDirect(4096);
+
+    @Setup
+    public void boot() {
+        pg = PGLite.builder().build();
+        Wire.handshake(pg);
+        request.put(SELECT_1).flip();
+    }
+
+    @TearDown
+    public void close() {
+        pg.close();
+    }
+
+    @Benchmark
+    public byte[] selectOneBytes() {
+        return pg.execProtocolRaw(SELECT_1);
+    }
+
+    @Benchmark
+    public int selectOneBuffers() {
+        request.rewind();
+        reply.clear();
+        pg.execProtocol(request, reply);
+        return reply.position();
+    }
+}
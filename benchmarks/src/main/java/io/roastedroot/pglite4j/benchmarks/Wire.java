@@ -0,0 +1,72 @@
+package io.roastedroot.pglite4j.benchmarks;
+
+import io.roastedroot.pglite4j.core.PGLite;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** Just enough of the frontend protocol to drive {@link PGLite} without pgjdbc. */
+final class Wire {
+    static final String USER = "postgres";
+    static final String PASSWORD = "password";
+
+    private Wire() {}
+
+    static byte[] query(String sql) {
+        byte[] text = sql.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = ByteBuffer.allocate(text.length + 6);
+        b.put((byte) 'Q').putInt(text.length + 5).put(text).put((byte) 0);
+        return b.array();
+    }
+
+    /** Runs the startup handshake, answering a cleartext or MD5 password request. */
+    static void handshake(PGLite pg) {
+        byte[] params =
+                ("user\0" + USER + "\0database\0template1\0\0").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer startup = ByteBuffer.allocate(params.length + 8);
+        startup.putInt(params.length + 8).putInt(3 << 16).put(params);
+        ByteBuffer reply = ByteBuffer.wrap(pg.execProtocolRaw(startup.array()));
+        if (reply.remaining() < 9 || reply.get(0) != 'R') {
+            throw new IllegalStateException("Unexpected startup reply");
+        }
+        int auth = reply.getInt(5);
+        String password;
+        if (auth == 0) {
+            return;
+        } else if (auth == 3) {
+            password = PASSWORD;
+        } else if (auth == 5) {
+            byte[] salt = new byte[4];
+            reply.position(9);
+            reply.get(salt);
+            password =
+                    "md5" + md5Hex(md5Hex(PASSWORD + USER).getBytes(StandardCharsets.UTF_8), salt);
+        } else {
+            throw new IllegalStateException("Unsupported authentication request: " + auth);
+        }
+        byte[] pw = password.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer msg = ByteBuffer.allocate(pw.length + 6);
+        msg.put((byte) 'p').putInt(pw.length + 5).put(pw).put((byte) 0);
+        pg.execProtocolRaw(msg.array());
+    }
+
+    private static String md5Hex(String s) {
+        return md5Hex(s.getBytes(StandardCharsets.UTF_8), new byte[0]);
+    }
+
+    private static String md5Hex(byte[] a, byte[] b) {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            md5.update(a);
+            md5.update(b);
+            StringBuilder hex = new StringBuilder();
+            for (byte x : md5.digest()) {
+                hex.append(String.format("%02x", x & 0xFF));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package io.roastedroot.pglite4j.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A batch of rows exported by {@link PGLite#copyOut}, stored column by column in primitive arrays:
+ *
+ * <ul>
+ *   <li>bool, int2 and int4 columns in {@link #ints} (bool as 0 or 1),
+ *   <li>int8 and oid columns in {@link #longs},
+ *   <li>float4 and float8 columns in {@link #doubles},
+ *   <li>every other type in {@link #bytes}, value {@code i} spanning {@code offsets[i]} to {@code
+ *       offsets[i + 1]}: UTF-8 for text, varchar, bpchar and name, the raw content for bytea, the
+ *       binary send format of the type otherwise.
+ * </ul>
+ *
+ * <p>Only the first {@link #size()} entries of each array are valid. SQL NULL is 0 or an empty
+ * value, check {@link #isNull}. The arrays are reused for the next batch once the consumer
+ * returns: copy what has to outlive the call.
+ */
+public final class ColumnBatch {
+    static final int DEFAULT_SIZE = 4096;
+
+    private static final int INTS = 0;
+    private static final int LONGS = 1;
+    private static final int DOUBLES = 2;
+    private static final int BYTES = 3;
+
+    private final String[] names;
+    private final int[] types;
+    private final int[] kinds;
+    private final int capacity;
+    // per column, only the array of its kind is allocated
+    private final int[][] ints;
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final byte[][] bytes;
+    private final int[][] offsets;
+    private final boolean[][] nulls;
+    private int size;
+
+    ColumnBatch(String[] names, int[] types, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + capacity);
+        }
+        this.names = names;
+        this.types = types;
+        this.capacity = capacity;
+        int n = names.length;
+        this.kinds = new int[n];
+        this.ints = new int[n][];
+        this.longs = new long[n][];
+        this.doubles = new double[n][];
+        this.bytes = new byte[n][];
+        this.offsets = new int[n][];
+        this.nulls = new boolean[n][capacity];
+        for (int c = 0; c < n; c++) {
+            kinds[c] = kind(types[c]);
+            switch (kinds[c]) {
+                case INTS:
+                    ints[c] = new int[capacity];
+                    break;
+                case LONGS:
+                    longs[c] = new long[capacity];
+                    break;
+                case DOUBLES:
+                    doubles[c] = new double[capacity];
+                    break;
+                default:
+                    bytes[c] = new byte[Math.min(capacity * 16, 1 << 20)];
+                    offsets[c] = new int[capacity + 1];
+                    break;
+            }
+        }
+    }
+
+    private static int kind(int oid) {
+        switch (oid) {
+            case QueryResult.BOOL:
+            case QueryResult.INT2:
+            case QueryResult.INT4:
+                return INTS;
+            case QueryResult.INT8:
+            case QueryResult.OID:
+                return LONGS;
+            case QueryResult.FLOAT4:
+            case QueryResult.FLOAT8:
+                return DOUBLES;
+            default:
+                return BYTES;
+        }
+    }
+
+    // === Metadata ===
+
+    /** Number of rows in this batch. */
+    public int size() {
+        return size;
+    }
+
+    public int columnCount() {
+        return names.length;
+    }
+
+    public String columnName(int column) {
+        return names[column];
+    }
+
+    /** Type OID of the column, as in {@code pg_type.oid}. */
+    public int columnType(int column) {
+        return types[column];
+    }
+
+    // === Vectors ===
+
+    public int[] ints(int column) {
+        return vector(ints, column, "ints");
+    }
+
+    public long[] longs(int column) {
+        return vector(longs, column, "longs");
+    }
+
+    public double[] doubles(int column) {
+        return vector(doubles, column, "doubles");
+    }
+
+    /** Values of the column, back to back; see {@link #offsets}. */
+    public byte[] bytes(int column) {
+        return vector(bytes, column, "bytes");
+    }
+
+    /** Start of each value in {@link #bytes}, plus the end of the last one at {@code size()}. */
+    public int[] offsets(int column) {
+        return vector(offsets, column, "bytes");
+    }
+
+    public boolean isNull(int column, int row) {
+        return nulls[column][row];
+    }
+
+    /** Text of one value, null for SQL NULL; meant for text columns and debugging. */
+    public String getString(int column, int row) {
+        if (nulls[column][row]) {
+            return null;
+        }
+        switch (kinds[column]) {
+            case INTS:
+                return types[column] == QueryResult.BOOL
+                        ? (ints[column][row] != 0 ? "t" : "f")
+                        : Integer.toString(ints[column][row]);
+            case LONGS:
+                return Long.toString(longs[column][row]);
+            case DOUBLES:
+                return Double.toString(doubles[column][row]);
+            default:
+                int start = offsets[column][row];
+                return new String(
+                        bytes[column],
+                        start,
+                        offsets[column][row + 1] - start,
+                        StandardCharsets.UTF_8);
+        }
+    }
+
+    private <T> T vector(T[] vectors, int column, String accessor) {
+        T vector = vectors[column];
+        if (vector == null) {
+            throw new IllegalArgumentException(
+                    "Column "
+                            + names[column]
+                            + " (type "
+                            + types[column]
+                            + ") is not read with "
+                            + accessor
+                            + "()");
+        }
+        return vector;
+    }
+
+    // === Decoding ===
+
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /** Appends the tuple whose first field length is at {@code off}; it must be complete. */
+    void readRow(byte[] b, int off) {
+        int row = size;
+        int p = off;
+        for (int c = 0; c < kinds.length; c++) {
+            int len = readInt(b, p);
+            p += 4;
+            boolean isNull = len < 0;
+            nulls[c][row] = isNull;
+            switch (kinds[c]) {
+                case INTS:
+                    ints[c][row] = isNull ? 0 : readSmall(c, b, p, len);
+                    break;
+                case LONGS:
+                    if (isNull) {
+                        longs[c][row] = 0;
+                    } else if (types[c] == QueryResult.OID) {
+                        longs[c][row] = readInt(b, p, len, 4, c) & 0xFFFFFFFFL;
+                    } else {
+                        longs[c][row] = readLong(b, p, len, c);
+                    }
+                    break;
+                case DOUBLES:
+                    if (isNull) {
+                        doubles[c][row] = 0;
+                    } else if (types[c] == QueryResult.FLOAT4) {
+                        doubles[c][row] = Float.intBitsToFloat(readInt(b, p, len, 4, c));
+                    } else {
+                        doubles[c][row] = Double.longBitsToDouble(readLong(b, p, len, c));
+                    }
+                    break;
+                default:
+                    int start = offsets[c][row];
+                    if (len > 0) {
+                        if (start + len > bytes[c].length) {
+                            bytes[c] =
+                                    Arrays.copyOf(
+                                            bytes[c], Math.max(bytes[c].length * 2, start + len));
+                        }
+                        System.arraycopy(b, p, bytes[c], start, len);
+                    }
+                    offsets[c][row + 1] = start + Math.max(len, 0);
+                    break;
+            }
+            p += Math.max(len, 0);
+        }
+        size++;
+    }
+
+    private int readSmall(int c, byte[] b, int p, int len) {
+        switch (types[c]) {
+            case QueryResult.BOOL:
+                checkLength(c, len, 1);
+                return b[p];
+            case QueryResult.INT2:
+                checkLength(c, len, 2);
+                return (short) (((b[p] & 0xFF) << 8) | (b[p + 1] & 0xFF));
+            default:
+                return readInt(b, p, len, 4, c);
+        }
+    }
+
+    private int readInt(byte[] b, int p, int len, int expected, int c) {
+        checkLength(c, len, expected);
+        return readInt(b, p);
+    }
+
+    private long readLong(byte[] b, int p, int len, int c) {
+        checkLength(c, len, 8);
+        return ((long) readInt(b, p) << 32) | (readInt(b, p + 4) & 0xFFFFFFFFL);
+    }
+
+    private void checkLength(int c, int len, int expected) {
+        if (len != expected) {
+            throw new IllegalStateException(
+                    "Unexpected " + len + " byte value in COPY data for column " + names[c]);
+        }
+    }
+
+    static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24)
+                | ((b[off + 1] & 0xFF) << 16)
+                | ((b[off + 2] & 0xFF) << 8)
+                | (b[off + 3] & 0xFF);
+    }
+}
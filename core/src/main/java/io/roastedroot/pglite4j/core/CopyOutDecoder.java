@@ -0,0 +1,208 @@
+package io.roastedroot.pglite4j.core;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Decodes the reply to a {@code COPY ... TO STDOUT (FORMAT binary)} as the backend produces it:
+ * CopyData payloads are unframed, split into tuples wherever the chunk and message boundaries
+ * fall, and appended to a {@link ColumnBatch} that goes to the consumer each time it fills up.
+ *
+ * <p>A failure while decoding or in the consumer stops decoding but not reading: the rest of the
+ * reply is drained so that the backend ends up idle, and {@link #finish()} rethrows it.
+ */
+final class CopyOutDecoder implements WritableByteChannel {
+    private static final byte[] SIGNATURE = {
+        'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0
+    };
+    // signature, flags, header extension length
+    private static final int HEADER = SIGNATURE.length + 8;
+
+    private final ColumnBatch batch;
+    private final Consumer<ColumnBatch> consumer;
+    // wire messages received but not complete yet
+    private byte[] wire = new byte[8192];
+    private int wireLen;
+    // COPY data not decoded yet: data[dataStart, dataEnd)
+    private byte[] data = new byte[8192];
+    private int dataStart;
+    private int dataEnd;
+    private boolean header;
+    private boolean trailer;
+    private long rows;
+    private long bytes;
+    private String commandTag;
+    private PGLiteException error;
+    private RuntimeException failure;
+
+    CopyOutDecoder(ColumnBatch batch, Consumer<ColumnBatch> consumer) {
+        this.batch = batch;
+        this.consumer = consumer;
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    /** COPY data bytes received, excluding message framing. */
+    long bytes() {
+        return bytes;
+    }
+
+    String commandTag() {
+        return commandTag;
+    }
+
+    /** Hands the last, partial batch to the consumer and throws whatever went wrong. */
+    void finish() {
+        if (error != null) {
+            throw error;
+        }
+        if (failure == null && !trailer) {
+            failure = new IllegalStateException("COPY data ended without its trailer");
+        }
+        if (failure == null && batch.size() > 0) {
+            flush();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // === Wire messages ===
+
+    @Override
+    public int write(ByteBuffer src) {
+        int n = src.remaining();
+        if (wireLen + n > wire.length) {
+            wire = Arrays.copyOf(wire, Math.max(wire.length * 2, wireLen + n));
+        }
+        src.get(wire, wireLen, n);
+        wireLen += n;
+        int pos = 0;
+        while (wireLen - pos >= 5) {
+            int end = pos + 1 + ColumnBatch.readInt(wire, pos + 1);
+            if (end > wireLen) {
+                break;
+            }
+            message(pos, end);
+            pos = end;
+        }
+        System.arraycopy(wire, pos, wire, 0, wireLen - pos);
+        wireLen -= pos;
+        return n;
+    }
+
+    private void message(int pos, int end) {
+        int body = pos + 5;
+        switch (wire[pos]) {
+            case 'd': // CopyData
+                bytes += end - body;
+                if (failure == null) {
+                    append(body, end - body);
+                    try {
+                        decode();
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+                break;
+            case 'C': // CommandComplete
+                commandTag = new String(wire, body, end - body - 1, StandardCharsets.UTF_8);
+                break;
+            case 'E':
+                if (error == null) {
+                    error = QuerySession.error(wire, pos);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {}
+
+    // === COPY data ===
+
+    private void append(int off, int len) {
+        if (dataStart > 0) {
+            System.arraycopy(data, dataStart, data, 0, dataEnd - dataStart);
+            dataEnd -= dataStart;
+            dataStart = 0;
+        }
+        if (dataEnd + len > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, dataEnd + len));
+        }
+        System.arraycopy(wire, off, data, dataEnd, len);
+        dataEnd += len;
+    }
+
+    private void decode() {
+        int p = dataStart;
+        if (!header) {
+            if (dataEnd - p < HEADER) {
+                return;
+            }
+            for (int i = 0; i < SIGNATURE.length; i++) {
+                if (data[p + i] != SIGNATURE[i]) {
+                    throw new IllegalStateException("Not binary COPY data");
+                }
+            }
+            int extension = ColumnBatch.readInt(data, p + HEADER - 4);
+            if (dataEnd - p < HEADER + extension) {
+                return;
+            }
+            p += HEADER + extension;
+            header = true;
+        }
+        int columns = batch.columnCount();
+        while (!trailer && dataEnd - p >= 2) {
+            short fields = (short) (((data[p] & 0xFF) << 8) | (data[p + 1] & 0xFF));
+            if (fields == -1) {
+                trailer = true;
+                p += 2;
+                break;
+            }
+            if (fields != columns) {
+                throw new IllegalStateException(
+                        "Expected " + columns + " fields per COPY tuple, got " + fields);
+            }
+            // the whole tuple must be there before any of it is decoded
+            int end = p + 2;
+            for (int i = 0; i < columns && end >= 0; i++) {
+                if (dataEnd - end < 4) {
+                    end = -1;
+                } else {
+                    end += 4 + Math.max(ColumnBatch.readInt(data, end), 0);
+                    if (end > dataEnd) {
+                        end = -1;
+                    }
+                }
+            }
+            if (end < 0) {
+                break;
+            }
+            batch.readRow(data, p + 2);
+            p = end;
+            if (batch.isFull()) {
+                flush();
+            }
+        }
+        dataStart = p;
+    }
+
+    private void flush() {
+        rows += batch.size();
+        consumer.accept(batch);
+        batch.clear();
+    }
+}
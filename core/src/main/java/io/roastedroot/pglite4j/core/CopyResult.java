@@ -0,0 +1,42 @@
+package io.roastedroot.pglite4j.core;
+
+/**
+ * Outcome of a {@link PGLite#copyIn copyIn} or {@link PGLite#copyOut copyOut}: rows and bytes
+ * transferred, and how long it took.
+ */
+public final class CopyResult {
+    private final long rows;
+    private final long bytes;
+    private final long nanos;
+
+    CopyResult(long rows, long bytes, long nanos) {
+        this.rows = rows;
+        this.bytes = bytes;
+        this.nanos = nanos;
+    }
+
+    /** Rows copied, as reported by the backend. */
+    public long rows() {
+        return rows;
+    }
+
+    /** COPY data bytes transferred, excluding message framing. */
+    public long bytes() {
+        return bytes;
+    }
+
+    public long nanos() {
+        return nanos;
+    }
+
+    public double rowsPerSecond() {
+        return nanos == 0 ? 0 : rows * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%d rows, %d bytes in %.1f ms (%.0f rows/s)",
+                rows, bytes, nanos / 1e6, rowsPerSecond());
+    }
+}
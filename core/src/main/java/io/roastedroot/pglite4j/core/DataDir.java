@@ -0,0 +1,167 @@
+package io.roastedroot.pglite4j.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+/**
+ * Host directory holding a persistent PGDATA, preopened as {@code /pgdata}.
+ *
+ * <p>PostgreSQL writes its files straight to the directory; what only lives in WASM memory (shared
+ * buffers, caches, the running backend) is saved as a {@link MemoryImage} on close and resumed on
+ * the next open. A lock file keeps a second instance out and records whether the last session
+ * ended cleanly, and with which WASM module: without a matching memory image the files alone cannot
+ * be resumed.
+ *
+ * <p>For the same reason fsync is a no-op while the backend runs: the files are flushed once, by
+ * {@link #save}, before the session is marked closed.
+ */
+final class DataDir implements AutoCloseable {
+    private static final String LOCK_FILE = ".pglite.lock";
+    private static final String IMAGE_FILE = "pglite.image";
+    private static final String OPEN = "open";
+    private static final String CLOSED = "closed ";
+
+    private final Path dir;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    // digest of the module that saved the image, null unless the last session ended cleanly
+    private final String closedBy;
+
+    private DataDir(Path dir, FileChannel lockChannel, FileLock lock, String closedBy) {
+        this.dir = dir;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+        this.closedBy = closedBy;
+    }
+
+    /**
+     * Locks {@code dir}. The recorded state is left alone until {@link #markOpen}, so an instance
+     * that fails to start does not spoil a directory that was closed cleanly.
+     */
+    static DataDir open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        FileChannel ch =
+                FileChannel.open(
+                        dir.resolve(LOCK_FILE),
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+        try {
+            FileLock lock;
+            try {
+                lock = ch.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // held by this JVM
+                lock = null;
+            }
+            if (lock == null) {
+                throw new IOException("PGLite data directory is in use: " + dir);
+            }
+            ByteBuffer state = ByteBuffer.allocate(256);
+            ch.read(state, 0);
+            String recorded =
+                    new String(state.array(), 0, state.position(), StandardCharsets.UTF_8);
+            String closedBy =
+                    recorded.startsWith(CLOSED) ? recorded.substring(CLOSED.length()) : null;
+            return new DataDir(dir, ch, lock, closedBy);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    Path path() {
+        return dir;
+    }
+
+    /**
+     * Returns the memory image to resume from, or null when the directory holds no database yet
+     * and pristine pgdata must be extracted into it. The image must have been saved by the module
+     * with {@code moduleDigest}.
+     */
+    MemoryImage resume(String moduleDigest) throws IOException {
+        if (!Files.exists(dir.resolve("PG_VERSION"))) {
+            try (Stream<Path> entries = Files.list(dir)) {
+                if (entries.anyMatch(p -> !p.getFileName().toString().equals(LOCK_FILE))) {
+                    throw new IOException("Not a PGLite data directory: " + dir);
+                }
+            }
+            return null;
+        }
+        Path image = dir.resolve(IMAGE_FILE);
+        if (closedBy == null || !Files.exists(image)) {
+            throw new IOException(
+                    "PGLite data directory was not closed cleanly and cannot be resumed"
+                            + " (see \"Persistent databases\" in the README to recover it): "
+                            + dir);
+        }
+        if (!closedBy.equals(moduleDigest)) {
+            throw new IOException(
+                    "PGLite data directory was saved by another PGLite build ("
+                            + closedBy
+                            + ", this is "
+                            + moduleDigest
+                            + ") and cannot be resumed: "
+                            + dir);
+        }
+        return MemoryImage.read(image);
+    }
+
+    /** Records that a session runs on the directory, once its instance is up. */
+    void markOpen() throws IOException {
+        writeState(OPEN);
+    }
+
+    void save(
+            PagedMemory memory,
+            long[] globals,
+            int bufferAddr,
+            int pendingWireLen,
+            String moduleDigest)
+            throws IOException {
+        syncFiles();
+        MemoryImage.write(dir.resolve(IMAGE_FILE), memory, globals, bufferAddr, pendingWireLen);
+        writeState(CLOSED + moduleDigest);
+    }
+
+    private void syncFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isRegularFile(file) && !file.getFileName().toString().equals(LOCK_FILE)) {
+                    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        ch.force(true);
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeState(String state) throws IOException {
+        lockChannel.truncate(0);
+        lockChannel.write(ByteBuffer.wrap(state.getBytes(StandardCharsets.UTF_8)), 0);
+        lockChannel.force(true);
+    }
+
+    @Override
+    public void close() {
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    @Override
+    public String toString() {
+        return dir.toString();
+    }
+}
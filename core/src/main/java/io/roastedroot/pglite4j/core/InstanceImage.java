@@ -0,0 +1,128 @@
+package io.roastedroot.pglite4j.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * A whole in-memory instance saved to one file by {@link PGLite#saveImage}: its {@link MemoryImage}
+ * followed by its pgdata files.
+ *
+ * <p>Layout: the memory image, the pgdata files as a gzipped {@link PgdataArchive}, the digest of
+ * the WASM module that wrote it, then a fixed footer (offset of the files, offset of the digest,
+ * version, magic). The memory pages stay uncompressed so that they can be mapped; the files, read
+ * once into the in-memory filesystem, are compressed.
+ */
+final class InstanceImage {
+    private static final int MAGIC = 0x50474c46; // "PGLF"
+    private static final int VERSION = 1;
+    private static final int FOOTER = 24;
+
+    final MemoryImage memory;
+    final Map<String, byte[]> files;
+
+    private InstanceImage(MemoryImage memory, Map<String, byte[]> files) {
+        this.memory = memory;
+        this.files = files;
+    }
+
+    static void write(
+            Path path,
+            PagedMemory memory,
+            long[] globals,
+            int bufferAddr,
+            int pendingWireLen,
+            Path pgdata,
+            String moduleDigest)
+            throws IOException {
+        // Written aside and moved in place: readers never see a partial image, and processes
+        // saving the same image at once don't write over each other.
+        Path dir = path.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            MemoryImage.write(ch, memory, globals, bufferAddr, pendingWireLen);
+            long filesOffset = ch.position();
+            // not closed: closing the stream would close the channel
+            OutputStream out = Channels.newOutputStream(ch);
+            PgdataArchive.write(pgdata, out, true);
+            out.flush();
+            long digestOffset = ch.position();
+            ByteBuffer digest = ByteBuffer.wrap(moduleDigest.getBytes(StandardCharsets.UTF_8));
+            writeFully(ch, digest);
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER);
+            footer.putLong(filesOffset).putLong(digestOffset).putInt(VERSION).putInt(MAGIC);
+            writeFully(ch, footer.flip());
+            ch.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Reads an image written by the module with {@code moduleDigest}; its pages are mapped. */
+    static InstanceImage read(Path path, String moduleDigest) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < FOOTER) {
+                throw new IOException("Not a PGLite image: " + path);
+            }
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER);
+            while (footer.hasRemaining()) {
+                if (ch.read(footer, size - FOOTER + footer.position()) < 0) {
+                    throw new IOException("Truncated PGLite image: " + path);
+                }
+            }
+            footer.flip();
+            long filesOffset = footer.getLong();
+            long digestOffset = footer.getLong();
+            int version = footer.getInt();
+            if (footer.getInt() != MAGIC) {
+                throw new IOException("Not a PGLite image: " + path);
+            }
+            if (version != VERSION) {
+                throw new IOException("Unsupported PGLite image version " + version + ": " + path);
+            }
+            if (filesOffset < 0
+                    || filesOffset > digestOffset
+                    || size - FOOTER - digestOffset > 4096
+                    || digestOffset > size - FOOTER) {
+                throw new IOException("Corrupt PGLite image: " + path);
+            }
+            ByteBuffer digest = ByteBuffer.allocate((int) (size - FOOTER - digestOffset));
+            while (digest.hasRemaining()) {
+                if (ch.read(digest, digestOffset + digest.position()) < 0) {
+                    throw new IOException("Truncated PGLite image: " + path);
+                }
+            }
+            String writtenBy = new String(digest.array(), StandardCharsets.UTF_8);
+            if (!writtenBy.equals(moduleDigest)) {
+                throw new IOException(
+                        "PGLite image was written by another PGLite build ("
+                                + writtenBy
+                                + ", this is "
+                                + moduleDigest
+                                + "): "
+                                + path);
+            }
+            MemoryImage memory = MemoryImage.read(ch, filesOffset, path);
+            ch.position(filesOffset);
+            Map<String, byte[]> files = PgdataArchive.read(Channels.newInputStream(ch));
+            return new InstanceImage(memory, files);
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+}
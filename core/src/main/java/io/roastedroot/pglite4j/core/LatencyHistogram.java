@@ -0,0 +1,69 @@
+package io.roastedroot.pglite4j.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power-of-two buckets: bucket 0 counts zero durations, bucket
+ * {@code i} those in {@code [2^(i-1), 2^i)} nanoseconds. Recording is a handful of atomic adds, cheap enough for
+ * every request; percentiles are accurate to within a factor of two.
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long n = Math.max(nanos, 0);
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(n));
+        count.incrementAndGet();
+        totalNanos.addAndGet(n);
+        if (n > maxNanos.get()) {
+            maxNanos.accumulateAndGet(n, Math::max);
+        }
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long totalNanos() {
+        return totalNanos.get();
+    }
+
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Upper bound of the bucket holding the {@code p}-th percentile ({@code 0 < p <= 100}), capped
+     * at the maximum recorded; 0 when nothing was recorded.
+     */
+    public long percentileNanos(double p) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * p / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(i == 0 ? 0 : (1L << i) - 1, maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    /** Bucket counts, see the class description for the bucket bounds. */
+    public long[] buckets() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = buckets.get(i);
+        }
+        return copy;
+    }
+}
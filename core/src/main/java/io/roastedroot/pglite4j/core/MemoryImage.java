@@ -0,0 +1,163 @@
+package io.roastedroot.pglite4j.core;
+
+import com.dylibso.chicory.runtime.Memory;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * On-disk copy of an instance's linear memory and globals.
+ *
+ * <p>Layout: a header (magic, version, page count, wire state, globals, indexes of the written
+ * pages) padded to a page boundary, followed by the written pages only. Pages are mapped read-only
+ * on load, so resuming costs an mmap and memory is only copied to the heap when written to.
+ */
+final class MemoryImage {
+    private static final int MAGIC = 0x50474c49; // "PGLI"
+    private static final int VERSION = 1;
+    // Pages per mapping, a MappedByteBuffer cannot exceed 2 GiB
+    private static final int PAGES_PER_REGION = 16384;
+
+    final ByteBuffer[] pages;
+    final long[] globals;
+    final int bufferAddr;
+    final int pendingWireLen;
+
+    private MemoryImage(ByteBuffer[] pages, long[] globals, int bufferAddr, int pendingWireLen) {
+        this.pages = pages;
+        this.globals = globals;
+        this.bufferAddr = bufferAddr;
+        this.pendingWireLen = pendingWireLen;
+    }
+
+    static void write(
+            Path path, PagedMemory memory, long[] globals, int bufferAddr, int pendingWireLen)
+            throws IOException {
+        // Written aside and moved in place: a crash never leaves a torn image behind.
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch =
+                FileChannel.open(
+                        tmp,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE)) {
+            write(ch, memory, globals, bufferAddr, pendingWireLen);
+            ch.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Writes the image at the start of {@code ch}, which may go on with other content. */
+    static void write(
+            FileChannel ch, PagedMemory memory, long[] globals, int bufferAddr, int pendingWireLen)
+            throws IOException {
+        int nPages = memory.pages();
+        int[] written = new int[nPages];
+        int count = 0;
+        for (int i = 0; i < nPages; i++) {
+            if (memory.page(i) != null) {
+                written[count++] = i;
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(headerSize(globals.length, count));
+        header.putInt(MAGIC).putInt(VERSION).putInt(nPages);
+        header.putInt(bufferAddr).putInt(pendingWireLen);
+        header.putInt(globals.length);
+        for (long g : globals) {
+            header.putLong(g);
+        }
+        header.putInt(count);
+        for (int i = 0; i < count; i++) {
+            header.putInt(written[i]);
+        }
+        header.clear();
+
+        writeFully(ch, header);
+        for (int i = 0; i < count; i++) {
+            writeFully(ch, memory.page(written[i]));
+        }
+    }
+
+    static MemoryImage read(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(ch, ch.size(), path);
+        }
+    }
+
+    /**
+     * Reads the image spanning {@code ch} from its start to {@code end}. The pages stay mapped
+     * after {@code ch} is closed.
+     */
+    static MemoryImage read(FileChannel ch, long end, Path path) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(24);
+        readFully(ch, fixed, 0);
+        if (fixed.getInt(0) != MAGIC) {
+            throw new IOException("Not a PGLite memory image: " + path);
+        }
+        if (fixed.getInt(4) != VERSION) {
+            throw new IOException(
+                    "Unsupported PGLite memory image version " + fixed.getInt(4) + ": " + path);
+        }
+        int nPages = fixed.getInt(8);
+        int bufferAddr = fixed.getInt(12);
+        int pendingWireLen = fixed.getInt(16);
+        int nGlobals = fixed.getInt(20);
+
+        ByteBuffer rest = ByteBuffer.allocate(nGlobals * 8 + 4);
+        readFully(ch, rest, 24);
+        long[] globals = new long[nGlobals];
+        for (int i = 0; i < nGlobals; i++) {
+            globals[i] = rest.getLong();
+        }
+        int count = rest.getInt();
+        ByteBuffer indexes = ByteBuffer.allocate(count * 4);
+        readFully(ch, indexes, 24 + nGlobals * 8L + 4);
+
+        long dataOffset = headerSize(nGlobals, count);
+        if (end != dataOffset + (long) count * Memory.PAGE_SIZE) {
+            throw new IOException("Truncated PGLite memory image: " + path);
+        }
+        ByteBuffer[] pages = new ByteBuffer[nPages];
+        for (int first = 0; first < count; first += PAGES_PER_REGION) {
+            int n = Math.min(PAGES_PER_REGION, count - first);
+            MappedByteBuffer region =
+                    ch.map(
+                            FileChannel.MapMode.READ_ONLY,
+                            dataOffset + (long) first * Memory.PAGE_SIZE,
+                            (long) n * Memory.PAGE_SIZE);
+            for (int i = 0; i < n; i++) {
+                int off = i * Memory.PAGE_SIZE;
+                pages[indexes.getInt()] =
+                        region.duplicate().position(off).limit(off + Memory.PAGE_SIZE).slice();
+            }
+        }
+        return new MemoryImage(pages, globals, bufferAddr, pendingWireLen);
+    }
+
+    private static int headerSize(int nGlobals, int count) {
+        int size = 24 + nGlobals * 8 + 4 + count * 4;
+        return (size + Memory.PAGE_SIZE - 1) / Memory.PAGE_SIZE * Memory.PAGE_SIZE;
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position)
+            throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Truncated PGLite memory image");
+            }
+        }
+        buf.flip();
+    }
+}
@@ -1,23 +1,63 @@
 package io.roastedroot.pglite4j.core;
 
 import com.dylibso.chicory.annotations.WasmModuleInterface;
+import com.dylibso.chicory.runtime.GlobalInstance;
+import com.dylibso.chicory.runtime.HostFunction;
 import com.dylibso.chicory.runtime.ImportValues;
 import com.dylibso.chicory.runtime.Instance;
+import com.dylibso.chicory.runtime.Machine;
+import com.dylibso.chicory.runtime.Memory;
+import com.dylibso.chicory.wasi.WasiExitException;
 import com.dylibso.chicory.wasi.WasiOptions;
 import com.dylibso.chicory.wasi.WasiPreview1;
+import com.dylibso.chicory.wasm.ChicoryException;
+import com.dylibso.chicory.wasm.WasmModule;
+import com.dylibso.chicory.wasm.types.Export;
+import com.dylibso.chicory.wasm.types.ExportSection;
+import com.dylibso.chicory.wasm.types.ExternalType;
 import com.dylibso.chicory.wasm.types.MemoryLimits;
+import com.dylibso.chicory.wasm.types.MutabilityType;
+import com.dylibso.chicory.wasm.types.NameCustomSection;
+import com.dylibso.chicory.wasm.types.ValType;
 import io.roastedroot.zerofs.Configuration;
+import io.roastedroot.zerofs.FileTimeSource;
 import io.roastedroot.zerofs.ZeroFs;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 @WasmModuleInterface(WasmResource.absoluteFile)
 public final class PGLite implements AutoCloseable {
@@ -26,105 +66,700 @@ public final class PGLite implements AutoCloseable {
     private static final String PG_DATA = "/pgdata";
     private static final String PG_USER = "postgres";
     private static final String PG_DATABASE = "template1";
+    // Socket emulation files (PGS_* in wasm_common.h), used when a message exceeds the CMA buffer.
+    private static final String PGS_IN = ".s.PGSQL.5432.in";
+    private static final String PGS_ILOCK = ".s.PGSQL.5432.lock.in";
+    private static final String PGS_OUT = ".s.PGSQL.5432.out";
+    private static final String STACK_POINTER = "__stack_pointer";
+    private static final AtomicInteger INSTANCE_COUNT = new AtomicInteger();
+    // Linear memory size the module starts with, as snapshotted by wizer.
+    private static final int INITIAL_PAGES = 2571;
+    // Safety net for a request that expects a reply: give up after this many silent ticks.
+    private static final int MAX_IDLE_TICKS = 1000;
+    // A request trapping more often than this is not going to recover.
+    private static final int MAX_TRAPS_PER_REQUEST = 3;
 
     private final Instance instance;
     private final WasiPreview1 wasi;
     private final PGLite_ModuleExports exports;
     private final FileSystem fs;
+    private final PagedMemory memory;
+    private final DataDir dataDir;
+    private final Path pgdata;
+    // largest input sent through CMA, bigger messages go through the socket files
+    private final int cmaLimit;
     private int bufferAddr;
     private int pendingWireLen;
+    private byte[] chunk = new byte[8192];
+    private final ReplyScanner replies = new ReplyScanner();
+    // index of the __stack_pointer global, see stackPointer()
+    private final int stackPointer;
+    // set when the backend could not be recovered from a trap
+    private ChicoryException broken;
+    private final StreamSink streamSink = new StreamSink();
+    private final BufferSink bufferSink = new BufferSink();
+    private final ChannelSink channelSink = new ChannelSink();
+    private QuerySession session;
 
-    private PGLite() {
-        try {
-            this.fs =
-                    ZeroFs.newFileSystem(
-                            Configuration.unix().toBuilder().setAttributeViews("unix").build());
-
-            // Extract pgdata files into ZeroFS.
-            // (share + lib are embedded in the WASM binary via wasi-vfs)
-            extractDistToZeroFs(fs);
-            Path tmp = fs.getPath("/tmp");
-            Files.createDirectories(tmp);
-            Path pgdata = fs.getPath("/pgdata");
-            Path dev = fs.getPath("/dev");
-            Files.createDirectories(dev);
-            Files.write(dev.resolve("urandom"), new byte[128]);
-
-            this.wasi =
-                    WasiPreview1.builder()
-                            .withOptions(
-                                    WasiOptions.builder()
-                                            // Enable for debugging:
-                                            // .inheritSystem()
-                                            // Preopens must match wizer order: /tmp, /pgdata, /dev
-                                            .withDirectory("/tmp", tmp)
-                                            .withDirectory("/pgdata", pgdata)
-                                            .withDirectory("/dev", dev)
-                                            .withEnvironment("ENVIRONMENT", "wasm32_wasi_preview1")
-                                            .withEnvironment("PREFIX", PG_PREFIX)
-                                            .withEnvironment("PGDATA", PG_DATA)
-                                            .withEnvironment("PGSYSCONFDIR", PG_PREFIX)
-                                            .withEnvironment("PGUSER", PG_USER)
-                                            .withEnvironment("PGDATABASE", PG_DATABASE)
-                                            .withEnvironment("MODE", "REACT")
-                                            .withEnvironment("REPL", "N")
-                                            .withEnvironment("TZ", "UTC")
-                                            .withEnvironment("PGTZ", "UTC")
-                                            .withEnvironment("PATH", PG_PREFIX + "/bin")
-                                            .withArguments(
-                                                    List.of(
-                                                            PG_PREFIX + "/bin/postgres",
-                                                            "--single",
-                                                            PG_USER))
-                                            .build())
-                            .build();
-
-            var imports = ImportValues.builder().addFunction(wasi.toHostFunctions()).build();
-
-            // Skip _start (already executed by wizer at build time).
+    private final String name;
+    private final PGLiteStats stats;
+    private final ObjectName mbeanName;
+    // current round trip, see beginRoundTrip()
+    private int rtTicks;
+    private int rtTraps;
+    private long rtStackPointer;
+    private long rtWasmNanos;
+    private long rtBytesOut;
+    private RoundTripEvent rtEvent;
+
+    private PGLite(Builder builder) {
+        Path dataDirectory = builder.dataDir;
+        MemoryLimits limits = builder.memoryLimits();
+        boolean offHeap = builder.offHeapMemory;
+        DataDir dir = null;
+        ObjectName registered = null;
+        try {
+            this.fs = newFileSystem();
+            createSkeleton(fs);
+
+            // share + lib are embedded in the WASM binary via wasi-vfs, only pgdata is extracted:
+            // into ZeroFS, or into an empty host directory.
+            MemoryImage image = null;
+            Path pgdata;
+            if (builder.image != null) {
+                InstanceImage saved = InstanceImage.read(builder.image, moduleDigest());
+                pgdata = fs.getPath(PG_DATA);
+                writeFiles(saved.files, pgdata);
+                image = saved.memory;
+            } else if (dataDirectory == null) {
+                pgdata = fs.getPath(PG_DATA);
+            } else {
+                dir = DataDir.open(dataDirectory);
+                pgdata = dir.path();
+                image = dir.resume(moduleDigest());
+            }
+            Pristine pristine = image == null ? Pristine.get() : null;
+            if (pristine != null) {
+                pristine.extractTo(pgdata);
+            }
+            this.dataDir = dir;
+            this.pgdata = pgdata;
+
+            this.wasi = newWasi(fs, pgdata);
+            if (pristine != null) {
+                // Start from the booted backend shared by every instance in this class loader.
+                this.instance =
+                        newInstance(
+                                wasi,
+                                limits,
+                                l -> new PagedMemory(l, pristine.memory).offHeap(offHeap));
+                this.memory = (PagedMemory) instance.memory();
+                this.exports = new PGLite_ModuleExports(this.instance);
+                writeGlobals(instance, pristine.globals);
+                this.bufferAddr = pristine.bufferAddr;
+            } else {
+                // Resume the backend saved by close() or saveImage(), pages stay mapped until
+                // written.
+                ByteBuffer[] pages = image.pages;
+                this.instance =
+                        newInstance(wasi, limits, l -> new PagedMemory(l, pages).offHeap(offHeap));
+                this.memory = (PagedMemory) instance.memory();
+                this.exports = new PGLite_ModuleExports(this.instance);
+                writeGlobals(instance, image.globals);
+                this.bufferAddr = image.bufferAddr;
+                this.pendingWireLen = image.pendingWireLen;
+            }
+            int bufferSize = exports.getBufferSize(exports.getChannel()) - 2;
+            this.cmaLimit =
+                    builder.cmaBufferSize > 0
+                            ? Math.min(builder.cmaBufferSize, bufferSize)
+                            : bufferSize;
+            this.stackPointer = stackPointer(instance, memory);
+            this.name = builder.name != null ? builder.name : defaultName();
+            this.stats = new PGLiteStats(memory, pgdata);
+            registered = builder.jmx ? registerMBean(name, stats) : null;
+            this.mbeanName = registered;
+            if (dir != null) {
+                dir.markOpen();
+            }
+        } catch (IOException | RuntimeException e) {
+            // the directory keeps the state it was found in
+            if (registered != null) {
+                unregisterMBean(registered);
+            }
+            if (dir != null) {
+                dir.close();
+            }
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new RuntimeException("Failed to initialize PGLite", e);
+        }
+    }
+
+    private PGLite(PGLite template) {
+        try {
+            this.fs = newFileSystem();
+            copyTree(template.fs.getPath("/"), fs.getPath("/"));
+            this.dataDir = null;
+            this.pgdata = fs.getPath(PG_DATA);
+            this.cmaLimit = template.cmaLimit;
+
+            this.wasi = newWasi(fs, pgdata);
             this.instance =
-                    Instance.builder(PGLiteModule.load())
-                            .withImportValues(imports)
-                            .withMachineFactory(PGLiteModule::create)
-                            .withStart(false)
-                            .withMemoryLimits(new MemoryLimits(2571))
-                            .build();
+                    newInstance(
+                            wasi,
+                            new MemoryLimits(INITIAL_PAGES, template.memory.maximumPages()),
+                            limits -> template.memory.fork());
+            this.memory = (PagedMemory) instance.memory();
             this.exports = new PGLite_ModuleExports(this.instance);
+            writeGlobals(instance, readGlobals(template.instance));
+            this.bufferAddr = template.bufferAddr;
+            this.pendingWireLen = template.pendingWireLen;
+            this.stackPointer = template.stackPointer;
+            this.name = defaultName();
+            this.stats = new PGLiteStats(memory, pgdata);
+            this.mbeanName = template.mbeanName != null ? registerMBean(name, stats) : null;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to fork PGLite", e);
+        }
+    }
+
+    private static String defaultName() {
+        return "pglite-" + INSTANCE_COUNT.incrementAndGet();
+    }
+
+    private static ObjectName registerMBean(String name, PGLiteStats stats) {
+        try {
+            ObjectName objectName =
+                    new ObjectName(
+                            "io.roastedroot.pglite4j:type=PGLite,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new RuntimeException("Failed to register the PGLite MBean for " + name, e);
+        }
+    }
+
+    private static void unregisterMBean(ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            // already gone
+        }
+    }
+
+    private static void createSkeleton(FileSystem fs) throws IOException {
+        Files.createDirectories(fs.getPath("/tmp"));
+        Path dev = fs.getPath("/dev");
+        Files.createDirectories(dev);
+        Files.write(dev.resolve("urandom"), new byte[128]);
+    }
+
+    private static FileSystem newFileSystem() {
+        return ZeroFs.newFileSystem(
+                Configuration.unix().toBuilder()
+                        .setAttributeViews("unix")
+                        .setFileTimeSource(new MonotonicTimeSource())
+                        .build());
+    }
+
+    private static WasiPreview1 newWasi(FileSystem fs, Path pgdata) {
+        return WasiPreview1.builder()
+                .withOptions(
+                        WasiOptions.builder()
+                                // Enable for debugging:
+                                // .inheritSystem()
+                                // Preopens must match wizer order: /tmp, /pgdata, /dev
+                                .withDirectory("/tmp", fs.getPath("/tmp"))
+                                .withDirectory("/pgdata", pgdata)
+                                .withDirectory("/dev", fs.getPath("/dev"))
+                                .withEnvironment("ENVIRONMENT", "wasm32_wasi_preview1")
+                                .withEnvironment("PREFIX", PG_PREFIX)
+                                .withEnvironment("PGDATA", PG_DATA)
+                                .withEnvironment("PGSYSCONFDIR", PG_PREFIX)
+                                .withEnvironment("PGUSER", PG_USER)
+                                .withEnvironment("PGDATABASE", PG_DATABASE)
+                                .withEnvironment("MODE", "REACT")
+                                .withEnvironment("REPL", "N")
+                                .withEnvironment("TZ", "UTC")
+                                .withEnvironment("PGTZ", "UTC")
+                                .withEnvironment("PATH", PG_PREFIX + "/bin")
+                                .withArguments(
+                                        List.of(PG_PREFIX + "/bin/postgres", "--single", PG_USER))
+                                .build())
+                .build();
+    }
+
+    // The database never outlives the process unsaved: acknowledge fsync without forcing anything
+    // (DataDir flushes once when saving). fsync=off is also set in the cluster at build time.
+    private static HostFunction[] withoutSync(HostFunction[] functions) {
+        for (int i = 0; i < functions.length; i++) {
+            HostFunction f = functions[i];
+            if (f.name().equals("fd_sync") || f.name().equals("fd_datasync")) {
+                functions[i] =
+                        new HostFunction(
+                                f.module(),
+                                f.name(),
+                                f.functionType(),
+                                (inst, args) -> new long[] {0}); // ESUCCESS
+            }
+        }
+        return functions;
+    }
+
+    private static Instance newInstance(
+            WasiPreview1 wasi, MemoryLimits limits, Function<MemoryLimits, Memory> memoryFactory) {
+        var imports =
+                ImportValues.builder().addFunction(withoutSync(wasi.toHostFunctions())).build();
 
-            // pgl_initdb + pgl_backend already executed by wizer at build time.
-            // closeAllVfds() was called at end of wizer to prevent stale fd PANICs.
-            exports.interactiveWrite(0);
+        // Skip _start (already executed by wizer at build time).
+        return Instance.builder(Module.MODULE)
+                .withImportValues(imports)
+                .withMachineFactory(Module.MACHINE_FACTORY)
+                .withStart(false)
+                .withMemoryLimits(limits)
+                .withMemoryFactory(memoryFactory)
+                .build();
+    }
+
+    /**
+     * Creates an independent database with the current content of this one.
+     *
+     * <p>The linear memory is shared copy-on-write at 64 KiB page granularity, so the fork only
+     * pays for the pages either side modifies afterwards; the filesystem tree is copied. Must not
+     * be called while another thread is executing a request on this instance.
+     */
+    public PGLite fork() {
+        requireInMemory("fork");
+        // No fd number may be recorded in the shared memory: the fork gets a fresh fd table.
+        exports.pglCloseFds();
+        return new PGLite(this);
+    }
 
-            int channel = exports.getChannel();
-            this.bufferAddr = exports.getBufferAddr(channel);
-            // System.err.println("PGLite: channel=" + channel + " bufferAddr=" + bufferAddr);
+    /**
+     * Saves the whole instance (linear memory, globals and the pgdata files) to {@code path}, for
+     * {@link Builder#fromImage} to start instances from: typically a database once its schema is
+     * migrated and seeded. The memory pages are stored as-is, to be mapped when loaded; the files
+     * are compressed. The image can only be loaded by the same PGLite build. Must not be called
+     * while another thread is executing a request on this instance.
+     */
+    public void saveImage(Path path) {
+        requireInMemory("saveImage");
+        // No fd number may be recorded in the saved memory, as for fork().
+        exports.pglCloseFds();
+        try {
+            InstanceImage.write(
+                    path,
+                    memory,
+                    readGlobals(instance),
+                    bufferAddr,
+                    pendingWireLen,
+                    pgdata,
+                    moduleDigest());
         } catch (IOException e) {
-            throw new RuntimeException("Failed to initialize PGLite", e);
+            throw new RuntimeException("Failed to save PGLite image to " + path, e);
         }
     }
 
+    // Identifies the PGLite build: an image is only meaningful to the module that wrote it.
+    private static String moduleDigest() {
+        return Objects.toString(Module.MODULE.digest(), "");
+    }
+
+    // === Typed queries ===
+
+    /**
+     * Runs {@code sql} with {@code params} bound to {@code $1}, {@code $2}, ... and returns its
+     * rows. Same as {@code prepare(sql).execute(params)}: the statement is parsed once and reused
+     * by later calls with the same text.
+     *
+     * <p>The typed API talks to the backend directly, without pgjdbc or a socket, over a session
+     * opened on first use. Like the raw protocol methods it must not be called concurrently.
+     *
+     * @throws PGLiteException if the backend reports an error
+     */
+    public QueryResult query(String sql, Object... params) {
+        return prepare(sql).execute(params);
+    }
+
+    /**
+     * Returns the prepared statement for {@code sql}, parsing it unless it is among the {@value
+     * QuerySession#MAX_CACHED_STATEMENTS} most recently used ones.
+     *
+     * @throws PGLiteException if the statement does not parse
+     */
+    public PreparedQuery prepare(String sql) {
+        return session().prepare(sql);
+    }
+
+    /**
+     * Runs one or more SQL statements separated by semicolons (DDL, scripts) through the simple
+     * query protocol, discarding any rows.
+     *
+     * @throws PGLiteException on the first statement that fails; later ones are not run
+     */
+    public void execute(String sql) {
+        session().executeScript(sql);
+    }
+
+    /**
+     * Runs {@code copySql}, a {@code COPY ... FROM STDIN} in any format (text, CSV, binary), and
+     * streams {@code in} to it until its end. The input is read and sent one CMA buffer at a time,
+     * never held whole in memory, and is not closed.
+     *
+     * @throws PGLiteException if the backend rejects the statement or the data; nothing is copied
+     * @throws IllegalArgumentException if {@code copySql} is not a COPY FROM STDIN, which is then
+     *     not run
+     */
+    public CopyResult copyIn(String copySql, InputStream in) throws IOException {
+        return copyIn(copySql, Channels.newChannel(in));
+    }
+
+    /** Like {@link #copyIn(String, InputStream)}, reading from a blocking channel. */
+    public CopyResult copyIn(String copySql, ReadableByteChannel in) throws IOException {
+        return session().copyIn(copySql, in);
+    }
+
+    /**
+     * Exports the rows of {@code query} (a SELECT, without parameters) column by column: the rows
+     * come out of the backend as binary COPY data and are decoded as they stream in, in batches of
+     * {@code batchSize} rows handed to {@code consumer}. Numbers land in primitive arrays, other
+     * values in one byte array per column; nothing is allocated per row, and the arrays of a batch
+     * are reused for the next one.
+     *
+     * @throws PGLiteException if the backend reports an error, possibly after some batches
+     */
+    public CopyResult copyOut(String query, int batchSize, Consumer<ColumnBatch> consumer) {
+        return session().copyOut(query, batchSize, consumer);
+    }
+
+    /** Same as {@link #copyOut(String, int, Consumer)}, with batches of 4096 rows. */
+    public CopyResult copyOut(String query, Consumer<ColumnBatch> consumer) {
+        return copyOut(query, ColumnBatch.DEFAULT_SIZE, consumer);
+    }
+
+    private QuerySession session() {
+        if (session == null) {
+            session = new QuerySession(this);
+        }
+        return session;
+    }
+
     /**
      * Forward raw PostgreSQL wire protocol bytes through the WASM instance and collect all
-     * responses. Follows the pglite-oxide forward_wire pattern: processes interaction ticks until no
-     * more data is produced, then returns. This works for both complete queries (which end with
-     * ReadyForQuery) and partial handshake exchanges (e.g. auth challenge).
+     * responses. Ticks the backend until the reply the last message calls for is complete:
+     * ReadyForQuery after a Query or Sync (or the switch to COPY mode), the authentication challenge
+     * or ReadyForQuery after a startup or password message. Requests that expect no particular
+     * reply (e.g. a pipeline ending with Flush, COPY data) return as soon as the backend is idle.
      */
     public byte[] execProtocolRaw(byte[] message) {
-        if (message.length > 0) {
-            wireSendCma(message);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            execProtocolRaw(message, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        List<byte[]> replies = new ArrayList<>();
+        return out.toByteArray();
+    }
 
-        for (int tick = 0; tick < 256; tick++) {
-            boolean producedBefore = collectReply(replies);
-            exports.interactiveOne();
-            boolean producedAfter = collectReply(replies);
-            if (!producedBefore && !producedAfter) {
-                break;
+    /**
+     * Like {@link #execProtocolRaw(byte[])}, but writes each response chunk to {@code out} as soon
+     * as the backend produces it instead of buffering the whole reply. {@code out} is not flushed.
+     */
+    public void execProtocolRaw(byte[] message, OutputStream out) throws IOException {
+        streamSink.out = out;
+        try {
+            exec(message, streamSink);
+        } finally {
+            streamSink.out = null;
+        }
+    }
+
+    /**
+     * Allocation-free variant: sends the remaining bytes of {@code in} and appends the reply to
+     * {@code out}. Bytes move between the buffers and the WASM memory with a single copy.
+     *
+     * @throws BufferOverflowException if the reply does not fit in {@code out}; size it generously
+     *     or use {@link #execProtocol(ByteBuffer, WritableByteChannel)}
+     */
+    public void execProtocol(ByteBuffer in, ByteBuffer out) {
+        bufferSink.out = out;
+        try {
+            exec(in, bufferSink);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            bufferSink.out = null;
+        }
+    }
+
+    /**
+     * Sends the remaining bytes of {@code in} and writes the reply to {@code out} as it is
+     * produced, through a reused direct buffer: one copy out of the WASM memory, no garbage.
+     */
+    public void execProtocol(ByteBuffer in, WritableByteChannel out) throws IOException {
+        channelSink.out = out;
+        try {
+            exec(in, channelSink);
+            channelSink.flush();
+        } finally {
+            channelSink.buffer.clear();
+            channelSink.out = null;
+        }
+    }
+
+    private void exec(ByteBuffer in, Sink sink) throws IOException {
+        requireUsable();
+        long start = beginRoundTrip();
+        int len = in.remaining();
+        try {
+            if (len > cmaLimit) {
+                byte[] message = new byte[len];
+                in.get(message);
+                send(message, sink);
+            } else {
+                int expect = ReplyScanner.expectation(in);
+                if (len > 0) {
+                    exports.useWire(1);
+                    memory.write(bufferAddr, in);
+                    exports.interactiveWrite(len);
+                    pendingWireLen = len;
+                }
+                runInteraction(sink, expect);
+            }
+        } finally {
+            endRoundTrip(start, len);
+        }
+    }
+
+    private void exec(byte[] message, Sink sink) throws IOException {
+        requireUsable();
+        long start = beginRoundTrip();
+        try {
+            send(message, sink);
+        } finally {
+            endRoundTrip(start, message.length);
+        }
+    }
+
+    private void send(byte[] message, Sink sink) throws IOException {
+        if (message.length <= cmaLimit) {
+            if (message.length > 0) {
+                wireSendCma(message, 0, message.length);
+            }
+            runInteraction(sink, ReplyScanner.expectation(ByteBuffer.wrap(message)));
+            return;
+        }
+        // Too big for one CMA transfer: send whole messages in parts that fit, and any single
+        // message that does not fit through the socket file.
+        int off = 0;
+        while (off < message.length) {
+            int len = nextTransfer(message, off);
+            int expect = ReplyScanner.expectation(ByteBuffer.wrap(message, off, len));
+            if (len <= cmaLimit) {
+                wireSendCma(message, off, len);
+                runInteraction(sink, expect);
+            } else {
+                wireSendFile(message, off, len);
+                runInteraction(sink, expect);
+                Files.deleteIfExists(pgdata.resolve(PGS_IN));
             }
+            off += len;
         }
+    }
 
-        return concat(replies);
+    // Ticks the backend until the reply the request calls for is complete (see ReplyScanner), or
+    // until a tick produces nothing when no particular reply is expected: a pipeline without a
+    // sync point, COPY data.
+    private void runInteraction(Sink sink, int expect) throws IOException {
+        replies.reset();
+        int idle = 0;
+        while (true) {
+            long t0 = System.nanoTime();
+            try {
+                exports.interactiveOne();
+            } catch (ChicoryException e) {
+                recoverFromTrap(e);
+            }
+            rtWasmNanos += System.nanoTime() - t0;
+            rtTicks++;
+            if (wireRecv(sink)) {
+                idle = 0;
+                if (replies.complete(expect)) {
+                    return;
+                }
+            } else if (expect == ReplyScanner.EXPECT_IDLE || ++idle >= MAX_IDLE_TICKS) {
+                return;
+            }
+        }
+    }
+
+    // === Error recovery ===
+
+    // Without setjmp/longjmp on WASI an ERROR raised inside the backend unwinds as a trap instead
+    // of returning to the main loop. The WASM stack is gone with it, but the shadow stack pointer
+    // is left wherever the trap hit: put it back, then clear_error() aborts the transaction,
+    // emits the ErrorResponse and asks for a ReadyForQuery, which the next ticks deliver.
+    private void recoverFromTrap(ChicoryException trap) {
+        stats.trap();
+        if (trap instanceof WasiExitException || ++rtTraps > MAX_TRAPS_PER_REQUEST) {
+            markBroken(trap);
+        }
+        instance.global(stackPointer).setValueLow(rtStackPointer);
+        try {
+            exports.clearError();
+        } catch (ChicoryException e) {
+            e.addSuppressed(trap);
+            markBroken(e);
+        }
+        stats.trapRecovered();
+    }
+
+    private void markBroken(ChicoryException cause) {
+        broken = cause;
+        stats.broken();
+        throw new RuntimeException(
+                "Failed to recover PGLite from a trap, the backend is unusable", cause);
+    }
+
+    /**
+     * Whether a trap left the backend unusable. Requests then fail until the instance is rewound to
+     * a checkpoint taken before; otherwise it can only be closed and replaced.
+     */
+    public boolean isBroken() {
+        return broken != null;
+    }
+
+    private void requireUsable() {
+        if (broken != null) {
+            throw new IllegalStateException("PGLite backend is broken: " + name, broken);
+        }
+    }
+
+    private long beginRoundTrip() {
+        rtTicks = 0;
+        rtTraps = 0;
+        rtStackPointer = instance.global(stackPointer).getValueLow();
+        rtWasmNanos = 0;
+        rtBytesOut = 0;
+        if (RoundTripEvent.isTypeEnabled()) {
+            rtEvent = new RoundTripEvent();
+            rtEvent.begin();
+        }
+        return System.nanoTime();
+    }
+
+    // Also runs for a request that failed, or that left the backend broken.
+    private void endRoundTrip(long start, int bytesIn) {
+        stats.record(
+                rtTicks,
+                bytesIn,
+                rtBytesOut,
+                rtWasmNanos,
+                System.nanoTime() - start,
+                replies.takeErrors());
+        RoundTripEvent event = rtEvent;
+        if (event != null) {
+            rtEvent = null;
+            event.instance = name;
+            event.ticks = rtTicks;
+            event.bytesIn = bytesIn;
+            event.bytesOut = rtBytesOut;
+            event.wasmTime = rtWasmNanos;
+            event.broken = broken != null;
+            event.commit();
+        }
+    }
+
+    /** Name the instance is registered under in JMX and reported as in JFR events. */
+    public String name() {
+        return name;
+    }
+
+    /** Counters since the instance was created; also exposed as an MXBean, see the builder. */
+    public PGLiteStats stats() {
+        return stats;
+    }
+
+    // Length of the next run of complete (tagged) messages starting at off that fits cmaLimit, or
+    // of the single message at off when that one alone is bigger.
+    private int nextTransfer(byte[] message, int off) {
+        int remaining = message.length - off;
+        if (remaining <= cmaLimit) {
+            return remaining;
+        }
+        int pos = off;
+        while (message.length - pos >= 5) {
+            int len = 1 + readInt(message, pos + 1);
+            if (len < 5 || len > message.length - pos) {
+                // not a sequence of tagged messages, send the rest as-is
+                return pos == off ? remaining : pos - off;
+            }
+            if (pos + len - off > cmaLimit) {
+                return pos == off ? len : pos - off;
+            }
+            pos += len;
+        }
+        return pos == off ? remaining : pos - off;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24)
+                | ((b[off + 1] & 0xFF) << 16)
+                | ((b[off + 2] & 0xFF) << 8)
+                | (b[off + 3] & 0xFF);
+    }
+
+    /**
+     * Captures the whole instance state: linear memory, globals and the filesystem.
+     *
+     * <p>Memory pages are pinned copy-on-write rather than copied; file contents are read once. The
+     * checkpoint can be rewound to any number of times. Must not be called while another thread is
+     * executing a request on this instance.
+     */
+    public Checkpoint checkpoint() {
+        requireInMemory("checkpoint");
+        exports.pglCloseFds();
+        try {
+            return new Checkpoint(
+                    memory.snapshot(),
+                    readGlobals(instance),
+                    readFiles(fs.getPath("/")),
+                    bufferAddr,
+                    pendingWireLen);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to checkpoint PGLite", e);
+        }
+    }
+
+    /**
+     * Puts this instance back to the state captured by {@code checkpoint}, which must come from
+     * this very instance. Only the memory pages and files changed since then are restored.
+     */
+    public void rewind(Checkpoint checkpoint) {
+        requireInMemory("rewind");
+        try {
+            exports.pglCloseFds();
+        } catch (ChicoryException e) {
+            if (broken == null) {
+                throw e;
+            }
+            // a broken backend may not get through it, the memory is replaced anyway
+        }
+        broken = null;
+        memory.rewind(checkpoint.memory);
+        writeGlobals(instance, checkpoint.globals);
+        try {
+            restoreFiles(fs.getPath("/"), checkpoint.files);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to rewind PGLite", e);
+        }
+        this.bufferAddr = checkpoint.bufferAddr;
+        this.pendingWireLen = checkpoint.pendingWireLen;
+        if (session != null) {
+            session.reset();
+        }
     }
 
     public static Builder builder() {
@@ -134,74 +769,458 @@ public final class PGLite implements AutoCloseable {
     @Override
     public void close() {
         try {
-            exports.pglShutdown();
+            if (dataDir == null) {
+                exports.pglShutdown();
+            } else if (broken == null) {
+                // No shutdown: the running backend is saved as-is and resumed by the next open.
+                exports.pglCloseFds();
+                dataDir.save(
+                        memory, readGlobals(instance), bufferAddr, pendingWireLen, moduleDigest());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to save PGLite state to " + dataDir, e);
         } catch (RuntimeException e) {
             // shutdown may trap
-        }
-        if (wasi != null) {
-            wasi.close();
-        }
-        if (fs != null) {
-            try {
-                fs.close();
-            } catch (IOException e) {
-                // ignore
+        } finally {
+            if (mbeanName != null) {
+                unregisterMBean(mbeanName);
+            }
+            if (dataDir != null) {
+                dataDir.close();
+            }
+            if (wasi != null) {
+                wasi.close();
+            }
+            if (fs != null) {
+                try {
+                    fs.close();
+                } catch (IOException e) {
+                    // ignore
+                }
             }
         }
     }
 
+    private void requireInMemory(String operation) {
+        if (dataDir != null) {
+            throw new UnsupportedOperationException(
+                    operation + " is not supported for a file-backed PGLite: " + dataDir);
+        }
+    }
+
     // === CMA transport ===
 
-    private void wireSendCma(byte[] msg) {
+    // largest request that goes to the backend in one CMA transfer
+    int cmaLimit() {
+        return cmaLimit;
+    }
+
+    private void wireSendCma(byte[] msg, int off, int len) {
         exports.useWire(1);
-        exports.memory().write(bufferAddr, msg);
-        exports.interactiveWrite(msg.length);
-        pendingWireLen = msg.length;
+        memory.write(bufferAddr, msg, off, len);
+        exports.interactiveWrite(len);
+        pendingWireLen = len;
     }
 
-    private byte[] wireRecvCma() {
+    private boolean wireRecv(Sink sink) throws IOException {
+        boolean produced = wireRecvCma(sink);
+        // A reply that outgrew the CMA buffer continues in the socket file (channel < 0).
+        if (exports.getChannel() < 0) {
+            produced |= wireRecvFile(sink);
+        }
+        return produced;
+    }
+
+    private boolean wireRecvCma(Sink sink) throws IOException {
         int len = exports.interactiveRead();
         if (len <= 0) {
-            return null;
+            return false;
+        }
+        int addr = bufferAddr + pendingWireLen + 1;
+        sink.fromMemory(addr, len);
+        rtBytesOut += len;
+        replies.scan(memory, addr, len);
+        exports.interactiveWrite(0);
+        pendingWireLen = 0;
+        return true;
+    }
+
+    /**
+     * Transaction status carried by the ReadyForQuery message that ended the last reply: {@code
+     * 'I'} idle, {@code 'T'} in a transaction block, {@code 'E'} in a failed transaction block; 0
+     * when the last reply did not end with ReadyForQuery (partial handshake, COPY, Flush, ...).
+     */
+    public char readyForQueryStatus() {
+        return replies.readyForQueryStatus();
+    }
+
+    // === File transport ===
+
+    // The backend picks the input up from PGS_IN when no CMA input is pending.
+    private void wireSendFile(byte[] msg, int off, int len) throws IOException {
+        Path lock = pgdata.resolve(PGS_ILOCK);
+        try (OutputStream file = Files.newOutputStream(lock)) {
+            file.write(msg, off, len);
         }
-        byte[] resp = exports.memory().readBytes(bufferAddr + pendingWireLen + 1, len);
+        Files.move(lock, pgdata.resolve(PGS_IN), StandardCopyOption.REPLACE_EXISTING);
+        exports.useWire(1);
         exports.interactiveWrite(0);
         pendingWireLen = 0;
-        return resp;
     }
 
-    private boolean collectReply(List<byte[]> replies) {
-        byte[] resp = wireRecvCma();
-        if (resp != null) {
-            replies.add(resp);
-            return true;
+    private boolean wireRecvFile(Sink sink) throws IOException {
+        Path file = pgdata.resolve(PGS_OUT);
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                sink.write(chunk, 0, n);
+                rtBytesOut += n;
+                replies.scan(chunk, 0, n);
+            }
+        }
+        Files.delete(file);
+        return true;
+    }
+
+    // === Reply sinks ===
+    // One reusable instance per kind: the hot path allocates nothing per request.
+
+    private abstract static class Sink {
+        /** Consumes {@code len} reply bytes at {@code addr} in the linear memory. */
+        abstract void fromMemory(int addr, int len) throws IOException;
+
+        abstract void write(byte[] b, int off, int len) throws IOException;
+    }
+
+    private final class StreamSink extends Sink {
+        private OutputStream out;
+
+        @Override
+        void fromMemory(int addr, int len) throws IOException {
+            if (chunk.length < len) {
+                chunk = new byte[Math.max(len, chunk.length * 2)];
+            }
+            memory.read(addr, chunk, 0, len);
+            out.write(chunk, 0, len);
+        }
+
+        @Override
+        void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+    }
+
+    private final class BufferSink extends Sink {
+        private ByteBuffer out;
+
+        @Override
+        void fromMemory(int addr, int len) {
+            if (len > out.remaining()) {
+                throw new BufferOverflowException();
+            }
+            memory.read(addr, out, len);
+        }
+
+        @Override
+        void write(byte[] b, int off, int len) {
+            out.put(b, off, len);
+        }
+    }
+
+    private final class ChannelSink extends Sink {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+        private WritableByteChannel out;
+
+        @Override
+        void fromMemory(int addr, int len) throws IOException {
+            while (len > 0) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int n = Math.min(len, buffer.remaining());
+                memory.read(addr, buffer, n);
+                addr += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    // === State capture ===
+
+    // Values of the mutable, module-defined globals, two longs each (low, high).
+    private static long[] readGlobals(Instance instance) {
+        int[] indices = mutableGlobals(instance.module());
+        long[] values = new long[indices.length * 2];
+        for (int i = 0; i < indices.length; i++) {
+            GlobalInstance global = instance.global(indices[i]);
+            values[2 * i] = global.getValueLow();
+            values[2 * i + 1] = global.getValueHigh();
+        }
+        return values;
+    }
+
+    private static void writeGlobals(Instance instance, long[] values) {
+        int[] indices = mutableGlobals(instance.module());
+        for (int i = 0; i < indices.length; i++) {
+            GlobalInstance global = instance.global(indices[i]);
+            global.setValueLow(values[2 * i]);
+            global.setValueHigh(values[2 * i + 1]);
+        }
+    }
+
+    // __stack_pointer, found by its export or its name in the name section. Failing both, the
+    // first mutable global, where LLVM puts it, provided it holds an address in the memory.
+    private static int stackPointer(Instance instance, PagedMemory memory) {
+        WasmModule module = instance.module();
+        ExportSection exports = module.exportSection();
+        for (int i = 0; i < exports.exportCount(); i++) {
+            Export export = exports.getExport(i);
+            if (export.exportType() == ExternalType.GLOBAL && export.name().equals(STACK_POINTER)) {
+                return export.index();
+            }
+        }
+        int first = module.importSection().count(ExternalType.GLOBAL);
+        int count = module.globalSection().globalCount();
+        NameCustomSection names = module.nameSection();
+        if (names != null) {
+            for (int i = first; i < first + count; i++) {
+                if (STACK_POINTER.equals(names.nameOfGlobal(i))) {
+                    return i;
+                }
+            }
+        }
+        int[] mutable = mutableGlobals(module);
+        if (mutable.length > 0) {
+            int index = mutable[0];
+            long value = instance.global(index).getValueLow();
+            if (module.globalSection().getGlobal(index - first).valueType().equals(ValType.I32)
+                    && value > 0
+                    && value <= (long) memory.pages() * Memory.PAGE_SIZE) {
+                return index;
+            }
+        }
+        throw new IllegalStateException("PGLite module has no recognizable " + STACK_POINTER);
+    }
+
+    private static int[] mutableGlobals(WasmModule module) {
+        int first = module.importSection().count(ExternalType.GLOBAL);
+        int count = module.globalSection().globalCount();
+        int[] indices = new int[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (module.globalSection().getGlobal(i).mutabilityType() == MutabilityType.Var) {
+                indices[n++] = first + i;
+            }
         }
-        return false;
+        return Arrays.copyOf(indices, n);
     }
 
-    private static byte[] concat(List<byte[]> replies) {
-        int totalLen = 0;
-        for (byte[] r : replies) {
-            totalLen += r.length;
+    // Directories map to null.
+    private static Map<String, SavedFile> readFiles(Path root) throws IOException {
+        Map<String, SavedFile> files = new HashMap<>();
+        Files.walkFileTree(
+                root,
+                new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        files.put(dir.toString(), null);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                            throws IOException {
+                        files.put(
+                                file.toString(),
+                                new SavedFile(Files.readAllBytes(file), attrs.lastModifiedTime()));
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+        return files;
+    }
+
+    // Modification times are unique (MonotonicTimeSource), so an unchanged time means unchanged
+    // content and the file is left alone.
+    private static void restoreFiles(Path root, Map<String, SavedFile> files) throws IOException {
+        Files.walkFileTree(
+                root,
+                new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                            throws IOException {
+                        SavedFile saved = files.get(file.toString());
+                        if (saved == null) {
+                            Files.delete(file);
+                        } else if (!saved.modified.equals(attrs.lastModifiedTime())) {
+                            saved.writeTo(file);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path dir, IOException e)
+                            throws IOException {
+                        if (e != null) {
+                            throw e;
+                        }
+                        if (!files.containsKey(dir.toString())) {
+                            Files.delete(dir);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+        for (Map.Entry<String, SavedFile> entry : files.entrySet()) {
+            Path path = root.resolve(entry.getKey());
+            if (entry.getValue() == null) {
+                Files.createDirectories(path);
+            } else if (!Files.exists(path)) {
+                Files.createDirectories(path.getParent());
+                entry.getValue().writeTo(path);
+            }
         }
-        byte[] result = new byte[totalLen];
-        int pos = 0;
-        for (byte[] r : replies) {
-            System.arraycopy(r, 0, result, pos, r.length);
-            pos += r.length;
+    }
+
+    private static void copyTree(Path source, Path target) throws IOException {
+        Files.walkFileTree(
+                source,
+                new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                            throws IOException {
+                        Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                            throws IOException {
+                        Files.copy(file, target.resolve(source.relativize(file).toString()));
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+    }
+
+    // === Shared pristine state ===
+
+    // Parsed once per class loader, instances only add their own memory pages and files.
+    private static final class Module {
+        static final WasmModule MODULE = PGLiteModule.load();
+        static final Function<Instance, Machine> MACHINE_FACTORY = PGLiteModule::create;
+    }
+
+    /**
+     * The initial pgdata files and the backend as wizer left it, booted once per class loader and
+     * never written to again. New instances start from a copy-on-write view of its memory pages.
+     */
+    private static final class Pristine {
+        private static Pristine shared;
+
+        final Map<String, byte[]> files;
+        final PagedMemory.Snapshot memory;
+        final long[] globals;
+        final int bufferAddr;
+
+        private Pristine(
+                Map<String, byte[]> files,
+                PagedMemory.Snapshot memory,
+                long[] globals,
+                int bufferAddr) {
+            this.files = files;
+            this.memory = memory;
+            this.globals = globals;
+            this.bufferAddr = bufferAddr;
+        }
+
+        static synchronized Pristine get() throws IOException {
+            if (shared == null) {
+                shared = boot();
+            }
+            return shared;
+        }
+
+        private static Pristine boot() throws IOException {
+            Map<String, byte[]> files = readDist();
+            try (FileSystem fs = newFileSystem()) {
+                createSkeleton(fs);
+                Path pgdata = fs.getPath(PG_DATA);
+                writeFiles(files, pgdata);
+                WasiPreview1 wasi = newWasi(fs, pgdata);
+                try {
+                    Instance instance =
+                            newInstance(wasi, new MemoryLimits(INITIAL_PAGES), PagedMemory::new);
+                    PGLite_ModuleExports exports = new PGLite_ModuleExports(instance);
+
+                    // pgl_initdb + pgl_backend already executed by wizer at build time.
+                    // closeAllVfds() was called at end of wizer to prevent stale fd PANICs.
+                    exports.interactiveWrite(0);
+
+                    int channel = exports.getChannel();
+                    int bufferAddr = exports.getBufferAddr(channel);
+                    PagedMemory memory = (PagedMemory) instance.memory();
+                    return new Pristine(
+                            files, memory.snapshot(), readGlobals(instance), bufferAddr);
+                } finally {
+                    wasi.close();
+                }
+            }
+        }
+
+        void extractTo(Path pgdata) throws IOException {
+            writeFiles(files, pgdata);
+        }
+    }
+
+    private static void writeFiles(Map<String, byte[]> files, Path root) throws IOException {
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            Path target = root.resolve(file.getKey());
+            Files.createDirectories(target.getParent());
+            Files.write(target, file.getValue());
         }
-        return result;
     }
 
     // === Resource extraction ===
-    private static void extractDistToZeroFs(FileSystem fs) throws IOException {
+    // The single archive written by `make unpack`, or the older per-file resources listed in
+    // pglite-files.txt, relative to the resources root and all under pgdata/.
+    private static Map<String, byte[]> readDist() throws IOException {
+        InputStream archive = PGLite.class.getResourceAsStream(PgdataArchive.RESOURCE);
+        if (archive != null) {
+            try (archive) {
+                return PgdataArchive.read(archive);
+            }
+        }
         InputStream manifest = PGLite.class.getResourceAsStream("/pglite-files.txt");
         if (manifest == null) {
             throw new RuntimeException(
                     "PGLite distribution not found on classpath."
-                            + " Ensure pglite-files.txt and pgdata/ resources are bundled."
+                            + " Ensure pglite-pgdata.bin (or pglite-files.txt and pgdata/) is"
+                            + " bundled."
                             + " (share/ and lib/ are embedded in the WASM binary via wasi-vfs)");
         }
+        Map<String, byte[]> files = new LinkedHashMap<>();
         try (BufferedReader reader =
                 new BufferedReader(new InputStreamReader(manifest, StandardCharsets.UTF_8))) {
             String line;
@@ -210,22 +1229,164 @@ public final class PGLite implements AutoCloseable {
                 if (line.isEmpty()) {
                     continue;
                 }
-                Path target = fs.getPath("/" + line);
-                Files.createDirectories(target.getParent());
                 try (InputStream in = PGLite.class.getResourceAsStream("/" + line)) {
                     if (in != null) {
-                        Files.copy(in, target);
+                        files.put(line.substring(line.indexOf('/') + 1), in.readAllBytes());
                     }
                 }
             }
         }
+        return files;
+    }
+
+    /** Opaque instance state returned by {@link #checkpoint()}. */
+    public static final class Checkpoint {
+        private final PagedMemory.Snapshot memory;
+        private final long[] globals;
+        private final Map<String, SavedFile> files;
+        private final int bufferAddr;
+        private final int pendingWireLen;
+
+        private Checkpoint(
+                PagedMemory.Snapshot memory,
+                long[] globals,
+                Map<String, SavedFile> files,
+                int bufferAddr,
+                int pendingWireLen) {
+            this.memory = memory;
+            this.globals = globals;
+            this.files = files;
+            this.bufferAddr = bufferAddr;
+            this.pendingWireLen = pendingWireLen;
+        }
+    }
+
+    private static final class SavedFile {
+        private final byte[] data;
+        private final FileTime modified;
+
+        SavedFile(byte[] data, FileTime modified) {
+            this.data = data;
+            this.modified = modified;
+        }
+
+        void writeTo(Path path) throws IOException {
+            Files.write(path, data);
+            Files.setLastModifiedTime(path, modified);
+        }
+    }
+
+    // Hands out strictly increasing times, so that a file written after a checkpoint can never
+    // carry the same modification time as the saved copy, even within one clock tick.
+    private static final class MonotonicTimeSource implements FileTimeSource {
+        private final AtomicLong last = new AtomicLong();
+
+        @Override
+        public FileTime now() {
+            Instant now = Instant.now();
+            long nanos = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+            return FileTime.from(
+                    last.updateAndGet(prev -> Math.max(prev + 1, nanos)), TimeUnit.NANOSECONDS);
+        }
     }
 
     public static final class Builder {
+        private Path dataDir;
+        private Path image;
+        private int cmaBufferSize;
+        private String name;
+        private boolean jmx = true;
+        private boolean offHeapMemory;
+        private int maxMemoryPages;
+
         private Builder() {}
 
+        /**
+         * Keeps the database in {@code dataDir} on the host instead of in memory. An empty
+         * directory is initialized; one left by a previous {@link PGLite#close()} is resumed.
+         */
+        public Builder withDataDir(Path dataDir) {
+            this.dataDir = dataDir;
+            return this;
+        }
+
+        /**
+         * Starts from an image written by {@link PGLite#saveImage} instead of the pristine
+         * database. Its memory pages are mapped from the file and only copied when written to, so
+         * loading costs about an mmap whatever the size of the schema. The instance is in-memory:
+         * the image itself is never modified.
+         */
+        public Builder fromImage(Path image) {
+            this.image = image;
+            return this;
+        }
+
+        /**
+         * Caps the size of the input sent through the CMA shared buffer (default: the whole
+         * buffer compiled into the module). Larger inputs are split at message boundaries, and
+         * single messages above the cap go through the socket file transport.
+         */
+        public Builder withCmaBufferSize(int bytes) {
+            this.cmaBufferSize = bytes;
+            return this;
+        }
+
+        /**
+         * Names the instance in JMX and JFR (default: {@code pglite-<n>}). Names of live instances
+         * must be unique while JMX is enabled.
+         */
+        public Builder withName(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Whether to register the {@link PGLiteStatsMXBean} of the instance on the platform MBean
+         * server (default: true). Forks inherit the setting.
+         */
+        public Builder withJmx(boolean jmx) {
+            this.jmx = jmx;
+            return this;
+        }
+
+        /**
+         * Allocates the WASM linear memory pages the instance writes outside the Java heap
+         * (default: false). The pristine pages shared by all instances stay on the heap, once per
+         * JVM. Off-heap pages count against {@code -XX:MaxDirectMemorySize}. Forks inherit the
+         * setting.
+         */
+        public Builder withOffHeapMemory(boolean offHeapMemory) {
+            this.offHeapMemory = offHeapMemory;
+            return this;
+        }
+
+        /**
+         * Caps the WASM linear memory at {@code pages} 64 KiB pages (default: the runtime limit,
+         * 2 GiB). It cannot be below the 2571 pages the module starts with; past the cap
+         * PostgreSQL fails with out of memory errors. Forks inherit the cap.
+         */
+        public Builder withMaxMemoryPages(int pages) {
+            this.maxMemoryPages = pages;
+            return this;
+        }
+
+        private MemoryLimits memoryLimits() {
+            if (maxMemoryPages == 0) {
+                return new MemoryLimits(INITIAL_PAGES);
+            }
+            if (maxMemoryPages < INITIAL_PAGES) {
+                throw new IllegalArgumentException(
+                        "maxMemoryPages must be at least " + INITIAL_PAGES + ": " + maxMemoryPages);
+            }
+            return new MemoryLimits(INITIAL_PAGES, maxMemoryPages);
+        }
+
         public PGLite build() {
-            return new PGLite();
+            if (image != null && dataDir != null) {
+                throw new IllegalArgumentException(
+                        "PGLite starts from an image or from a data directory, not both");
+            }
+            return new PGLite(this);
         }
     }
 }
@@ -0,0 +1,56 @@
+package io.roastedroot.pglite4j.core;
+
+/**
+ * An ErrorResponse from the backend, raised by the typed query API ({@link PGLite#query}, {@link
+ * PGLite#execute}). The instance stays usable: the failed statement was rolled back, or the open
+ * transaction is aborted until ROLLBACK.
+ */
+public final class PGLiteException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final String sqlState;
+    private final String severity;
+    private final String detail;
+    private final String hint;
+    private final int position;
+
+    PGLiteException(
+            String message,
+            String sqlState,
+            String severity,
+            String detail,
+            String hint,
+            int position) {
+        super(message + (sqlState != null ? " [" + sqlState + "]" : ""));
+        this.sqlState = sqlState;
+        this.severity = severity;
+        this.detail = detail;
+        this.hint = hint;
+        this.position = position;
+    }
+
+    /** Five-character SQLSTATE code, e.g. {@code 23505} for a unique violation. */
+    public String sqlState() {
+        return sqlState;
+    }
+
+    /** {@code ERROR}, {@code FATAL} or {@code PANIC}. */
+    public String severity() {
+        return severity;
+    }
+
+    /** Secondary message, or null. */
+    public String detail() {
+        return detail;
+    }
+
+    /** Suggestion on how to fix the problem, or null. */
+    public String hint() {
+        return hint;
+    }
+
+    /** 1-based character position of the error in the SQL text, 0 if not reported. */
+    public int position() {
+        return position;
+    }
+}
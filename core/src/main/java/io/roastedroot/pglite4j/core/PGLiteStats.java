@@ -0,0 +1,175 @@
+package io.roastedroot.pglite4j.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Counters of one {@link PGLite} instance, see {@link PGLite#stats()}. Updated by the thread
+ * running requests, readable from any thread.
+ */
+public final class PGLiteStats implements PGLiteStatsMXBean {
+    private final PagedMemory memory;
+    private final Path pgdata;
+    private final AtomicLong roundTrips = new AtomicLong();
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong wasmNanos = new AtomicLong();
+    private final AtomicLong errorResponses = new AtomicLong();
+    private final AtomicLong traps = new AtomicLong();
+    private final AtomicLong trapRecoveries = new AtomicLong();
+    private final AtomicLong breakages = new AtomicLong();
+    private final LatencyHistogram roundTripLatency = new LatencyHistogram();
+
+    PGLiteStats(PagedMemory memory, Path pgdata) {
+        this.memory = memory;
+        this.pgdata = pgdata;
+    }
+
+    void record(
+            int ticks,
+            long bytesIn,
+            long bytesOut,
+            long wasmNanos,
+            long elapsedNanos,
+            int errorResponses) {
+        this.roundTrips.incrementAndGet();
+        this.ticks.addAndGet(ticks);
+        this.bytesIn.addAndGet(bytesIn);
+        this.bytesOut.addAndGet(bytesOut);
+        this.wasmNanos.addAndGet(wasmNanos);
+        this.roundTripLatency.record(elapsedNanos);
+        if (errorResponses > 0) {
+            this.errorResponses.addAndGet(errorResponses);
+        }
+    }
+
+    void trap() {
+        traps.incrementAndGet();
+    }
+
+    void trapRecovered() {
+        trapRecoveries.incrementAndGet();
+    }
+
+    void broken() {
+        breakages.incrementAndGet();
+    }
+
+    public LatencyHistogram roundTripLatency() {
+        return roundTripLatency;
+    }
+
+    @Override
+    public long getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    @Override
+    public long getTicks() {
+        return ticks.get();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    @Override
+    public long getWasmTimeMillis() {
+        return wasmNanos.get() / 1_000_000;
+    }
+
+    @Override
+    public long getRoundTripTimeMillis() {
+        return roundTripLatency.totalNanos() / 1_000_000;
+    }
+
+    @Override
+    public long getRoundTripP50Micros() {
+        return roundTripLatency.percentileNanos(50) / 1000;
+    }
+
+    @Override
+    public long getRoundTripP99Micros() {
+        return roundTripLatency.percentileNanos(99) / 1000;
+    }
+
+    @Override
+    public long getRoundTripMaxMicros() {
+        return roundTripLatency.maxNanos() / 1000;
+    }
+
+    @Override
+    public long getErrorResponses() {
+        return errorResponses.get();
+    }
+
+    @Override
+    public long getTraps() {
+        return traps.get();
+    }
+
+    @Override
+    public long getTrapRecoveries() {
+        return trapRecoveries.get();
+    }
+
+    @Override
+    public long getBreakages() {
+        return breakages.get();
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return (long) memory.pages() * PagedMemory.PAGE_SIZE;
+    }
+
+    @Override
+    public long getCommittedMemoryBytes() {
+        return (long) memory.committedPages() * PagedMemory.PAGE_SIZE;
+    }
+
+    @Override
+    public long getPrivateMemoryBytes() {
+        return (long) memory.privatePages() * PagedMemory.PAGE_SIZE;
+    }
+
+    @Override
+    public long getDataBytes() {
+        try (Stream<Path> files = Files.walk(pgdata)) {
+            return files.mapToLong(PGLiteStats::size).sum();
+        } catch (IOException | UncheckedIOException e) {
+            return -1; // a file went away during the walk
+        }
+    }
+
+    private static long size(Path file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            return attrs.isRegularFile() ? attrs.size() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public long getReservedMemoryBytes() {
+        return (long) memory.maximumPages() * PagedMemory.PAGE_SIZE;
+    }
+
+    @Override
+    public boolean isOffHeapMemory() {
+        return memory.isOffHeap();
+    }
+}
@@ -0,0 +1,68 @@
+package io.roastedroot.pglite4j.core;
+
+/**
+ * Management view of a {@link PGLite} instance, registered on the platform MBean server as {@code
+ * io.roastedroot.pglite4j:type=PGLite,name=<name>}.
+ */
+public interface PGLiteStatsMXBean {
+    /** Calls to {@code execProtocol*}. */
+    long getRoundTrips();
+
+    /** {@code interactiveOne} calls, i.e. backend loop iterations. */
+    long getTicks();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    /** Time spent inside {@code interactiveOne}. */
+    long getWasmTimeMillis();
+
+    /** Wall-clock time of whole round trips, WASM and bridge. */
+    long getRoundTripTimeMillis();
+
+    long getRoundTripP50Micros();
+
+    long getRoundTripP99Micros();
+
+    long getRoundTripMaxMicros();
+
+    /** ErrorResponse messages sent back to clients. */
+    long getErrorResponses();
+
+    /** Traps raised by the backend, usually an ERROR thrown while running a statement. */
+    long getTraps();
+
+    /** Traps after which {@code clear_error()} brought the backend back to its main loop. */
+    long getTrapRecoveries();
+
+    /** Traps that left the backend unusable, see {@link PGLite#isBroken()}. */
+    long getBreakages();
+
+    /** Current size of the linear memory. */
+    long getMemoryBytes();
+
+    /**
+     * Memory pages holding data, whether private or shared copy-on-write with other instances (the
+     * rest are still zero and take no space).
+     */
+    long getCommittedMemoryBytes();
+
+    /**
+     * Pages this instance wrote since it was last forked or checkpointed, which no other instance
+     * shares: at least what closing it would free.
+     */
+    long getPrivateMemoryBytes();
+
+    /**
+     * Size of the files in the in-memory data directory, held on the Java heap; -1 if they changed
+     * while being counted.
+     */
+    long getDataBytes();
+
+    /** Size the linear memory may grow to, see {@link PGLite.Builder#withMaxMemoryPages(int)}. */
+    long getReservedMemoryBytes();
+
+    /** Whether pages written by this instance live outside the Java heap. */
+    boolean isOffHeapMemory();
+}
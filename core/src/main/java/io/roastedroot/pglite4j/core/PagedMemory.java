@@ -0,0 +1,663 @@
+package io.roastedroot.pglite4j.core;
+
+import com.dylibso.chicory.runtime.Instance;
+import com.dylibso.chicory.runtime.Memory;
+import com.dylibso.chicory.runtime.WasmRuntimeException;
+import com.dylibso.chicory.wasm.ChicoryException;
+import com.dylibso.chicory.wasm.types.ActiveDataSegment;
+import com.dylibso.chicory.wasm.types.DataSegment;
+import com.dylibso.chicory.wasm.types.Instruction;
+import com.dylibso.chicory.wasm.types.MemoryLimits;
+import com.dylibso.chicory.wasm.types.OpCode;
+import com.dylibso.chicory.wasm.types.PassiveDataSegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * WASM linear memory split into 64 KiB pages that can be shared copy-on-write between instances.
+ *
+ * <p>Pages that were never written point to a single zero page. {@link #fork()} hands out a new
+ * memory referencing the very same pages; whichever side writes to a shared page first gets a
+ * private copy of it, so a fork costs one reference per page plus the pages it actually touches.
+ *
+ * <p>Not thread-safe, like the instance owning it; shared pages are only ever read.
+ */
+final class PagedMemory implements Memory {
+    static final int PAGE_SHIFT = 16;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final ByteBuffer ZERO_PAGE = newPage();
+
+    private final MemoryLimits limits;
+    private ByteBuffer[] pages;
+    // !owned[i]: pages[i] may be referenced elsewhere, copy it before writing
+    private boolean[] owned;
+    private int nPages;
+    private DataSegment[] dataSegments;
+    // set on forks: the content is inherited, active data segments must not be re-applied
+    private boolean prepopulated;
+    // pages this memory writes are direct buffers, outside the Java heap
+    private boolean offHeap;
+
+    PagedMemory(MemoryLimits limits) {
+        this.limits = limits;
+        this.nPages = limits.initialPages();
+        this.pages = new ByteBuffer[Math.max(nPages, 1)];
+        this.owned = new boolean[pages.length];
+        Arrays.fill(pages, ZERO_PAGE);
+    }
+
+    /**
+     * Memory made of the given pages (null for never written ones), used as-is until written: they
+     * can be slices of a mapped file.
+     */
+    PagedMemory(MemoryLimits limits, ByteBuffer[] content) {
+        this.limits = limits;
+        this.nPages = content.length;
+        this.pages = new ByteBuffer[Math.max(nPages, 1)];
+        this.owned = new boolean[pages.length];
+        Arrays.fill(pages, ZERO_PAGE);
+        for (int i = 0; i < nPages; i++) {
+            if (content[i] != null) {
+                pages[i] = content[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        this.prepopulated = true;
+    }
+
+    /** Memory with the content of {@code snapshot}, sharing its pages copy-on-write. */
+    PagedMemory(MemoryLimits limits, Snapshot snapshot) {
+        this.limits = limits;
+        this.nPages = snapshot.pages.length;
+        this.pages = new ByteBuffer[Math.max(nPages, 1)];
+        this.owned = new boolean[pages.length];
+        Arrays.fill(pages, ZERO_PAGE);
+        System.arraycopy(snapshot.pages, 0, pages, 0, nPages);
+        this.prepopulated = true;
+    }
+
+    private PagedMemory(PagedMemory source) {
+        this.limits = source.limits;
+        this.nPages = source.nPages;
+        this.pages = source.pages.clone();
+        this.owned = new boolean[pages.length];
+        this.dataSegments = source.dataSegments;
+        this.prepopulated = true;
+        this.offHeap = source.offHeap;
+    }
+
+    /**
+     * Allocates the pages written from now on off-heap, so that a large memory does not weigh on
+     * the garbage collector. Inherited by forks.
+     */
+    PagedMemory offHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+        return this;
+    }
+
+    boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Returns a memory with the same content, sharing every page copy-on-write with this one.
+     */
+    PagedMemory fork() {
+        Arrays.fill(owned, false);
+        return new PagedMemory(this);
+    }
+
+    /**
+     * Pins the current content. Pages written afterwards are copied first, so the snapshot stays
+     * intact and only the pages dirtied in between differ from it.
+     */
+    Snapshot snapshot() {
+        Arrays.fill(owned, false);
+        return new Snapshot(Arrays.copyOf(pages, nPages));
+    }
+
+    /** Puts back the content of {@code snapshot}, returning how many pages were swapped back. */
+    int rewind(Snapshot snapshot) {
+        ByteBuffer[] saved = snapshot.pages;
+        if (saved.length > pages.length) {
+            pages = Arrays.copyOf(pages, saved.length);
+            owned = new boolean[saved.length];
+        }
+        int restored = 0;
+        for (int i = 0; i < saved.length; i++) {
+            if (pages[i] != saved[i]) {
+                pages[i] = saved[i];
+                restored++;
+            }
+        }
+        Arrays.fill(owned, false);
+        nPages = saved.length;
+        return restored;
+    }
+
+    /**
+     * Number of pages holding data, i.e. not backed by the shared zero page. May be called from
+     * another thread for monitoring; the value is then approximate.
+     */
+    int committedPages() {
+        ByteBuffer[] pages = this.pages;
+        int n = Math.min(nPages, pages.length);
+        int committed = 0;
+        for (int i = 0; i < n; i++) {
+            if (pages[i] != ZERO_PAGE) {
+                committed++;
+            }
+        }
+        return committed;
+    }
+
+    /**
+     * Number of pages written since this memory was last forked or snapshotted, which no other
+     * memory references. Like {@link #committedPages()}, approximate when called from another
+     * thread.
+     */
+    int privatePages() {
+        ByteBuffer[] pages = this.pages;
+        boolean[] owned = this.owned;
+        int n = Math.min(nPages, Math.min(pages.length, owned.length));
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (owned[i] && pages[i] != ZERO_PAGE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Content of page {@code index}, or null when it was never written. */
+    ByteBuffer page(int index) {
+        ByteBuffer page = pages[index];
+        return page == ZERO_PAGE ? null : page.duplicate().clear();
+    }
+
+    /** Immutable view of the pages at the time {@link #snapshot()} was called. */
+    static final class Snapshot {
+        private final ByteBuffer[] pages;
+
+        private Snapshot(ByteBuffer[] pages) {
+            this.pages = pages;
+        }
+    }
+
+    private static ByteBuffer newPage() {
+        return ByteBuffer.allocate(PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private ByteBuffer newWritablePage() {
+        return offHeap
+                ? ByteBuffer.allocateDirect(PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                : newPage();
+    }
+
+    private ByteBuffer copyOf(ByteBuffer page) {
+        ByteBuffer copy = newWritablePage();
+        if (page.hasArray() && copy.hasArray()) {
+            System.arraycopy(page.array(), page.arrayOffset(), copy.array(), 0, PAGE_SIZE);
+        } else {
+            copy.duplicate().put(page.duplicate().clear());
+        }
+        return copy;
+    }
+
+    private ByteBuffer readPage(int addr, int size) {
+        int idx = addr >>> PAGE_SHIFT;
+        if (idx >= nPages) {
+            throw outOfBounds(addr, size);
+        }
+        return pages[idx];
+    }
+
+    private ByteBuffer writePage(int addr, int size) {
+        int idx = addr >>> PAGE_SHIFT;
+        if (idx >= nPages) {
+            throw outOfBounds(addr, size);
+        }
+        if (!owned[idx]) {
+            pages[idx] = pages[idx] == ZERO_PAGE ? newWritablePage() : copyOf(pages[idx]);
+            owned[idx] = true;
+        }
+        return pages[idx];
+    }
+
+    private void checkRange(int addr, int size) {
+        if (size < 0 || Integer.toUnsignedLong(addr) + size > sizeInBytes()) {
+            throw outOfBounds(addr, size);
+        }
+    }
+
+    private long sizeInBytes() {
+        return (long) PAGE_SIZE * nPages;
+    }
+
+    private WasmRuntimeException outOfBounds(int addr, int size) {
+        return new WasmRuntimeException(
+                "out of bounds memory access: attempted to access address: "
+                        + Integer.toUnsignedLong(addr)
+                        + " but limit is: "
+                        + sizeInBytes()
+                        + " and size: "
+                        + size);
+    }
+
+    // Little-endian access for values straddling a page boundary.
+    private long readSpanning(int addr, int size) {
+        checkRange(addr, size);
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            int a = addr + i;
+            value |= (pages[a >>> PAGE_SHIFT].get(a & PAGE_MASK) & 0xFFL) << (8 * i);
+        }
+        return value;
+    }
+
+    private void writeSpanning(int addr, long value, int size) {
+        checkRange(addr, size);
+        for (int i = 0; i < size; i++) {
+            int a = addr + i;
+            writePage(a, 1).put(a & PAGE_MASK, (byte) (value >>> (8 * i)));
+        }
+    }
+
+    // === Memory ===
+
+    @Override
+    public int pages() {
+        return nPages;
+    }
+
+    @Override
+    public int grow(int size) {
+        int prevPages = nPages;
+        int numPages = prevPages + size;
+        if (numPages > maximumPages() || numPages < prevPages) {
+            return -1;
+        }
+        if (numPages > pages.length) {
+            int capacity = Math.min(Math.max(numPages, pages.length * 2), maximumPages());
+            pages = Arrays.copyOf(pages, capacity);
+            owned = Arrays.copyOf(owned, capacity);
+        }
+        Arrays.fill(pages, prevPages, numPages, ZERO_PAGE);
+        Arrays.fill(owned, prevPages, numPages, false);
+        nPages = numPages;
+        return prevPages;
+    }
+
+    @Override
+    public int initialPages() {
+        return limits.initialPages();
+    }
+
+    @Override
+    public int maximumPages() {
+        return Math.min(limits.maximumPages(), RUNTIME_MAX_PAGES);
+    }
+
+    @Override
+    public boolean shared() {
+        return false;
+    }
+
+    @Override
+    public Object lock(int address) {
+        return new Object();
+    }
+
+    @Override
+    public int waitOn(int address, int expected, long timeout) {
+        throw new ChicoryException("Attempt to wait on a non-shared memory, not supported.");
+    }
+
+    @Override
+    public int waitOn(int address, long expected, long timeout) {
+        throw new ChicoryException("Attempt to wait on a non-shared memory, not supported.");
+    }
+
+    @Override
+    public int notify(int address, int maxThreads) {
+        return 0;
+    }
+
+    @Override
+    public void initialize(Instance instance, DataSegment[] dataSegments) {
+        this.dataSegments = dataSegments;
+        if (dataSegments == null || prepopulated) {
+            return;
+        }
+        for (DataSegment s : dataSegments) {
+            if (s instanceof ActiveDataSegment) {
+                ActiveDataSegment segment = (ActiveDataSegment) s;
+                int offset = constantOffset(instance, segment);
+                byte[] data = segment.data();
+                checkRange(offset, data.length);
+                write(offset, data, 0, data.length);
+            } else if (!(s instanceof PassiveDataSegment)) {
+                throw new ChicoryException("Data segment should be active or passive: " + s);
+            }
+        }
+    }
+
+    private static int constantOffset(Instance instance, ActiveDataSegment segment) {
+        if (segment.offsetInstructions().size() == 1) {
+            Instruction insn = segment.offsetInstructions().get(0);
+            if (insn.opcode() == OpCode.I32_CONST) {
+                return (int) insn.operand(0);
+            }
+            if (insn.opcode() == OpCode.GLOBAL_GET) {
+                return (int) instance.global((int) insn.operand(0)).getValue();
+            }
+        }
+        throw new ChicoryException(
+                "Unsupported data segment offset: " + segment.offsetInstructions());
+    }
+
+    @Override
+    public void initPassiveSegment(int segmentId, int dest, int offset, int size) {
+        write(dest, dataSegments[segmentId].data(), offset, size);
+    }
+
+    @Override
+    public void drop(int segment) {
+        dataSegments[segment] = PassiveDataSegment.EMPTY;
+    }
+
+    @Override
+    public void write(int addr, byte[] data, int offset, int size) {
+        checkRange(addr, size);
+        if (offset < 0 || size > data.length - offset) {
+            throw outOfBounds(addr, size);
+        }
+        while (size > 0) {
+            int off = addr & PAGE_MASK;
+            int n = Math.min(size, PAGE_SIZE - off);
+            ByteBuffer page = writePage(addr, n);
+            if (page.hasArray()) {
+                System.arraycopy(data, offset, page.array(), page.arrayOffset() + off, n);
+            } else {
+                page.duplicate().position(off).put(data, offset, n);
+            }
+            addr += n;
+            offset += n;
+            size -= n;
+        }
+    }
+
+    @Override
+    public byte read(int addr) {
+        return readPage(addr, 1).get(addr & PAGE_MASK);
+    }
+
+    @Override
+    public byte[] readBytes(int addr, int len) {
+        byte[] result = new byte[len];
+        read(addr, result, 0, len);
+        return result;
+    }
+
+    /** Copies {@code len} bytes at {@code addr} into {@code dst} without allocating. */
+    void read(int addr, byte[] dst, int offset, int len) {
+        checkRange(addr, len);
+        while (len > 0) {
+            int off = addr & PAGE_MASK;
+            int n = Math.min(len, PAGE_SIZE - off);
+            ByteBuffer page = pages[addr >>> PAGE_SHIFT];
+            if (page.hasArray()) {
+                System.arraycopy(page.array(), page.arrayOffset() + off, dst, offset, n);
+            } else {
+                page.duplicate().position(off).get(dst, offset, n);
+            }
+            addr += n;
+            offset += n;
+            len -= n;
+        }
+    }
+
+    /** Copies {@code len} bytes at {@code addr} into {@code dst}, advancing its position. */
+    void read(int addr, ByteBuffer dst, int len) {
+        checkRange(addr, len);
+        while (len > 0) {
+            int off = addr & PAGE_MASK;
+            int n = Math.min(len, PAGE_SIZE - off);
+            ByteBuffer page = pages[addr >>> PAGE_SHIFT];
+            if (page.hasArray()) {
+                dst.put(page.array(), page.arrayOffset() + off, n);
+            } else {
+                ByteBuffer src = page.duplicate();
+                src.limit(off + n).position(off);
+                dst.put(src);
+            }
+            addr += n;
+            len -= n;
+        }
+    }
+
+    /** Copies the remaining bytes of {@code src} to {@code addr}, advancing its position. */
+    void write(int addr, ByteBuffer src) {
+        int len = src.remaining();
+        checkRange(addr, len);
+        while (len > 0) {
+            int off = addr & PAGE_MASK;
+            int n = Math.min(len, PAGE_SIZE - off);
+            ByteBuffer page = writePage(addr, n);
+            if (page.hasArray()) {
+                src.get(page.array(), page.arrayOffset() + off, n);
+            } else {
+                ByteBuffer part = src.duplicate();
+                part.limit(part.position() + n);
+                page.duplicate().position(off).put(part);
+                src.position(src.position() + n);
+            }
+            addr += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void writeI32(int addr, int data) {
+        int off = addr & PAGE_MASK;
+        if (off <= PAGE_SIZE - 4) {
+            writePage(addr, 4).putInt(off, data);
+        } else {
+            writeSpanning(addr, data, 4);
+        }
+    }
+
+    @Override
+    public int readInt(int addr) {
+        int off = addr & PAGE_MASK;
+        if (off <= PAGE_SIZE - 4) {
+            return readPage(addr, 4).getInt(off);
+        }
+        return (int) readSpanning(addr, 4);
+    }
+
+    @Override
+    public void writeLong(int addr, long data) {
+        int off = addr & PAGE_MASK;
+        if (off <= PAGE_SIZE - 8) {
+            writePage(addr, 8).putLong(off, data);
+        } else {
+            writeSpanning(addr, data, 8);
+        }
+    }
+
+    @Override
+    public long readLong(int addr) {
+        int off = addr & PAGE_MASK;
+        if (off <= PAGE_SIZE - 8) {
+            return readPage(addr, 8).getLong(off);
+        }
+        return readSpanning(addr, 8);
+    }
+
+    @Override
+    public void writeShort(int addr, short data) {
+        int off = addr & PAGE_MASK;
+        if (off <= PAGE_SIZE - 2) {
+            writePage(addr, 2).putShort(off, data);
+        } else {
+            writeSpanning(addr, data, 2);
+        }
+    }
+
+    @Override
+    public short readShort(int addr) {
+        int off = addr & PAGE_MASK;
+        if (off <= PAGE_SIZE - 2) {
+            return readPage(addr, 2).getShort(off);
+        }
+        return (short) readSpanning(addr, 2);
+    }
+
+    @Override
+    public long readU16(int addr) {
+        return readShort(addr) & 0xFFFFL;
+    }
+
+    @Override
+    public void writeByte(int addr, byte data) {
+        writePage(addr, 1).put(addr & PAGE_MASK, data);
+    }
+
+    @Override
+    public void writeF32(int addr, float data) {
+        writeI32(addr, Float.floatToRawIntBits(data));
+    }
+
+    @Override
+    public long readF32(int addr) {
+        return readInt(addr);
+    }
+
+    @Override
+    public float readFloat(int addr) {
+        return Float.intBitsToFloat(readInt(addr));
+    }
+
+    @Override
+    public void writeF64(int addr, double data) {
+        writeLong(addr, Double.doubleToRawLongBits(data));
+    }
+
+    @Override
+    public double readDouble(int addr) {
+        return Double.longBitsToDouble(readLong(addr));
+    }
+
+    @Override
+    public long readF64(int addr) {
+        return readLong(addr);
+    }
+
+    @Override
+    public void zero() {
+        Arrays.fill(pages, 0, nPages, ZERO_PAGE);
+        Arrays.fill(owned, 0, nPages, false);
+    }
+
+    @Override
+    public void fill(byte value, int fromIndex, int toIndex) {
+        int size = toIndex - fromIndex;
+        checkRange(fromIndex, size);
+        int addr = fromIndex;
+        while (size > 0) {
+            int off = addr & PAGE_MASK;
+            int n = Math.min(size, PAGE_SIZE - off);
+            int idx = addr >>> PAGE_SHIFT;
+            if (value == 0 && n == PAGE_SIZE) {
+                pages[idx] = ZERO_PAGE;
+                owned[idx] = false;
+            } else {
+                ByteBuffer page = writePage(addr, n);
+                if (page.hasArray()) {
+                    int base = page.arrayOffset() + off;
+                    Arrays.fill(page.array(), base, base + n, value);
+                } else {
+                    for (int i = off; i < off + n; i++) {
+                        page.put(i, value);
+                    }
+                }
+            }
+            addr += n;
+            size -= n;
+        }
+    }
+
+    @Override
+    public void copy(int dest, int src, int size) {
+        checkRange(src, size);
+        checkRange(dest, size);
+        if (size == 0 || dest == src) {
+            return;
+        }
+        if (Integer.compareUnsigned(dest, src) < 0
+                || Integer.compareUnsigned(dest, src + size) >= 0) {
+            copyForward(dest, src, size);
+        } else {
+            copyBackward(dest, src, size);
+        }
+    }
+
+    private void copyForward(int dest, int src, int size) {
+        while (size > 0) {
+            int n = chunk(dest, src, size);
+            copyChunk(dest, src, n);
+            dest += n;
+            src += n;
+            size -= n;
+        }
+    }
+
+    private void copyBackward(int dest, int src, int size) {
+        int end = size;
+        while (end > 0) {
+            // largest chunk ending at 'end' that stays inside one page on both sides
+            int srcEnd = src + end;
+            int destEnd = dest + end;
+            int n = Math.min(end, Math.min(lowOffset(srcEnd), lowOffset(destEnd)));
+            copyChunk(destEnd - n, srcEnd - n, n);
+            end -= n;
+        }
+    }
+
+    private static int lowOffset(int end) {
+        int off = end & PAGE_MASK;
+        return off == 0 ? PAGE_SIZE : off;
+    }
+
+    private static int chunk(int dest, int src, int size) {
+        return Math.min(
+                size, Math.min(PAGE_SIZE - (dest & PAGE_MASK), PAGE_SIZE - (src & PAGE_MASK)));
+    }
+
+    private void copyChunk(int dest, int src, int n) {
+        ByteBuffer to = writePage(dest, n);
+        ByteBuffer from = pages[src >>> PAGE_SHIFT];
+        int srcOff = src & PAGE_MASK;
+        int destOff = dest & PAGE_MASK;
+        if (from.hasArray() && to.hasArray()) {
+            System.arraycopy(
+                    from.array(),
+                    from.arrayOffset() + srcOff,
+                    to.array(),
+                    to.arrayOffset() + destOff,
+                    n);
+        } else if (to.hasArray()) {
+            from.duplicate().position(srcOff).get(to.array(), to.arrayOffset() + destOff, n);
+        } else if (from != to) {
+            ByteBuffer part = from.duplicate();
+            part.limit(srcOff + n).position(srcOff);
+            to.duplicate().position(destOff).put(part);
+        } else {
+            // overlapping ranges of one direct page
+            byte[] tmp = new byte[n];
+            from.duplicate().position(srcOff).get(tmp);
+            to.duplicate().position(destOff).put(tmp);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package io.roastedroot.pglite4j.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The initial pgdata directory packed into a single resource, read in one pass instead of one
+ * classpath lookup per file.
+ *
+ * <p>A sequential archive, it has no offsets to seek to: the line {@code PGLITE-PGDATA 1}, a flags
+ * byte ({@code 1}: the rest is gzipped), the file count, each relative path and size, then the
+ * file contents in the same order.
+ *
+ * <p>Self-contained so that {@code wasm-build/Makefile} can run it with the single-file source
+ * launcher: {@code java PgdataArchive.java <pgdata dir> <archive> [--gzip]}.
+ */
+final class PgdataArchive {
+    static final String RESOURCE = "/pglite-pgdata.bin";
+    private static final byte[] MAGIC = "PGLITE-PGDATA 1\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int FLAG_GZIP = 1;
+
+    private PgdataArchive() {}
+
+    /** Files of the archive by path relative to pgdata, in archive order. */
+    static Map<String, byte[]> read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 65536));
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a pgdata archive, or an unsupported version");
+        }
+        if ((in.readUnsignedByte() & FLAG_GZIP) != 0) {
+            in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in), 65536));
+        }
+        int count = in.readInt();
+        String[] paths = new String[count];
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            paths[i] = in.readUTF();
+            sizes[i] = in.readInt();
+        }
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            byte[] content = new byte[sizes[i]];
+            in.readFully(content);
+            files.put(paths[i], content);
+        }
+        return files;
+    }
+
+    static void write(Path pgdata, OutputStream stream, boolean gzip) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(pgdata)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        stream.write(MAGIC);
+        stream.write(gzip ? FLAG_GZIP : 0);
+        OutputStream body = gzip ? new GZIPOutputStream(stream, 65536) : stream;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(body, 65536));
+        out.writeInt(files.size());
+        for (Path file : files) {
+            out.writeUTF(pgdata.relativize(file).toString().replace('\\', '/'));
+            out.writeInt(Math.toIntExact(Files.size(file)));
+        }
+        for (Path file : files) {
+            Files.copy(file, out);
+        }
+        out.flush();
+        if (body instanceof GZIPOutputStream) {
+            ((GZIPOutputStream) body).finish();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: PgdataArchive <pgdata dir> <archive> [--gzip]");
+            System.exit(2);
+        }
+        boolean gzip = args.length > 2 && args[2].equals("--gzip");
+        try (OutputStream out = Files.newOutputStream(Path.of(args[1]))) {
+            write(Path.of(args[0]), out, gzip);
+        }
+    }
+}
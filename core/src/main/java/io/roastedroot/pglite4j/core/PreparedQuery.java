@@ -0,0 +1,43 @@
+package io.roastedroot.pglite4j.core;
+
+/**
+ * A statement parsed once by the backend and executed any number of times, see {@link
+ * PGLite#prepare(String)}. Parameters are written {@code $1}, {@code $2}, ... in the SQL text.
+ *
+ * <p>Handles are cached by SQL text and stay valid across a {@link PGLite#rewind rewind} or an
+ * eviction from the cache: a statement the backend no longer knows is parsed again on use.
+ */
+public final class PreparedQuery {
+    private final QuerySession session;
+    private final String sql;
+    final String name;
+    int[] parameterTypes;
+    String[] columnNames;
+    int[] columnTypes;
+    short[] resultFormats;
+
+    PreparedQuery(QuerySession session, String sql, String name) {
+        this.session = session;
+        this.sql = sql;
+        this.name = name;
+    }
+
+    public String sql() {
+        return sql;
+    }
+
+    public int parameterCount() {
+        return parameterTypes.length;
+    }
+
+    /**
+     * Runs the statement with {@code params} bound to its parameters, in one round trip. Values
+     * are sent as text ({@code toString()}, booleans as {@code t}/{@code f}), byte arrays as
+     * binary, null as SQL NULL.
+     *
+     * @throws PGLiteException if the backend reports an error
+     */
+    public QueryResult execute(Object... params) {
+        return session.execute(this, params);
+    }
+}
@@ -0,0 +1,302 @@
+package io.roastedroot.pglite4j.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Rows returned by {@link PGLite#query}, read with a forward cursor: call {@link #next()} before
+ * each row, then the typed getters with a 0-based column index.
+ *
+ * <p>Values of the common scalar types (bool, int2/4/8, oid, float4/8, text, varchar, bpchar, name,
+ * bytea) arrive in binary format and are read straight from the reply without parsing; other types
+ * arrive as text, which {@link #getString} returns as-is and the numeric getters parse. The
+ * primitive getters return 0 or false for SQL NULL, check {@link #isNull} to tell them apart.
+ */
+public final class QueryResult {
+    static final int BOOL = 16;
+    static final int BYTEA = 17;
+    static final int NAME = 19;
+    static final int INT8 = 20;
+    static final int INT2 = 21;
+    static final int INT4 = 23;
+    static final int TEXT = 25;
+    static final int OID = 26;
+    static final int FLOAT4 = 700;
+    static final int FLOAT8 = 701;
+    static final int BPCHAR = 1042;
+    static final int VARCHAR = 1043;
+
+    private final String[] names;
+    private final int[] types;
+    private final short[] formats;
+    private final byte[] data;
+    // per cell, row-major: offset of the value in data, -1 for NULL, and its length
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int rowCount;
+    private final String commandTag;
+    private int row = -1;
+
+    QueryResult(
+            String[] names,
+            int[] types,
+            short[] formats,
+            byte[] data,
+            int[] offsets,
+            int[] lengths,
+            int rowCount,
+            String commandTag) {
+        this.names = names;
+        this.types = types;
+        this.formats = formats;
+        this.data = data;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.rowCount = rowCount;
+        this.commandTag = commandTag;
+    }
+
+    /** Result format to request for a column of type {@code oid}: 1 (binary) if decoded here. */
+    static short formatFor(int oid) {
+        switch (oid) {
+            case BOOL:
+            case BYTEA:
+            case NAME:
+            case INT8:
+            case INT2:
+            case INT4:
+            case TEXT:
+            case OID:
+            case FLOAT4:
+            case FLOAT8:
+            case BPCHAR:
+            case VARCHAR:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    // === Metadata ===
+
+    public int columnCount() {
+        return names.length;
+    }
+
+    public String columnName(int column) {
+        return names[column];
+    }
+
+    /** Type OID of the column, as in {@code pg_type.oid}. */
+    public int columnType(int column) {
+        return types[column];
+    }
+
+    /** Index of the first column named {@code name}. */
+    public int column(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(
+                "No column named " + name + " in " + Arrays.toString(names));
+    }
+
+    public int rowCount() {
+        return rowCount;
+    }
+
+    /** The CommandComplete tag, e.g. {@code INSERT 0 3} or {@code SELECT 2}. */
+    public String commandTag() {
+        return commandTag;
+    }
+
+    /** Rows inserted, updated, deleted, copied or selected, -1 for other commands. */
+    public long rowsAffected() {
+        return rowsAffected(commandTag);
+    }
+
+    static long rowsAffected(String commandTag) {
+        if (commandTag == null) {
+            return -1;
+        }
+        int space = commandTag.lastIndexOf(' ');
+        try {
+            return Long.parseLong(commandTag.substring(space + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // === Cursor ===
+
+    /** Moves to the next row; false once past the last one. */
+    public boolean next() {
+        if (row < rowCount) {
+            row++;
+        }
+        return row < rowCount;
+    }
+
+    public boolean isNull(int column) {
+        return offsets[cell(column)] < 0;
+    }
+
+    public boolean getBoolean(int column) {
+        int cell = cell(column);
+        int off = offsets[cell];
+        if (off < 0) {
+            return false;
+        }
+        if (formats[column] == 1 && types[column] == BOOL) {
+            return data[off] != 0;
+        }
+        String text = text(cell);
+        return text.equals("t") || text.equals("true");
+    }
+
+    public int getInt(int column) {
+        return Math.toIntExact(getLong(column));
+    }
+
+    public long getLong(int column) {
+        int cell = cell(column);
+        int off = offsets[cell];
+        if (off < 0) {
+            return 0;
+        }
+        if (formats[column] == 1) {
+            switch (types[column]) {
+                case INT2:
+                    return (short) readShort(off);
+                case INT4:
+                    return readInt(off);
+                case OID:
+                    return readInt(off) & 0xFFFFFFFFL;
+                case INT8:
+                    return readLong(off);
+                case BOOL:
+                    return data[off];
+                case FLOAT4:
+                case FLOAT8:
+                    throw new NumberFormatException(
+                            "Column " + names[column] + " is floating point, use getDouble");
+                default:
+                    break;
+            }
+        }
+        return Long.parseLong(text(cell));
+    }
+
+    public double getDouble(int column) {
+        int cell = cell(column);
+        int off = offsets[cell];
+        if (off < 0) {
+            return 0;
+        }
+        if (formats[column] == 1) {
+            switch (types[column]) {
+                case FLOAT4:
+                    return Float.intBitsToFloat(readInt(off));
+                case FLOAT8:
+                    return Double.longBitsToDouble(readLong(off));
+                case INT2:
+                case INT4:
+                case INT8:
+                case OID:
+                case BOOL:
+                    return getLong(column);
+                default:
+                    break;
+            }
+        }
+        return Double.parseDouble(text(cell));
+    }
+
+    /** Text of the value (decimal for binary numbers), null for SQL NULL. */
+    public String getString(int column) {
+        int cell = cell(column);
+        if (offsets[cell] < 0) {
+            return null;
+        }
+        if (formats[column] == 1) {
+            switch (types[column]) {
+                case BOOL:
+                    return getBoolean(column) ? "t" : "f";
+                case INT2:
+                case INT4:
+                case INT8:
+                case OID:
+                    return Long.toString(getLong(column));
+                case FLOAT4:
+                    return Float.toString((float) getDouble(column));
+                case FLOAT8:
+                    return Double.toString(getDouble(column));
+                case BYTEA:
+                    return "\\x" + hex(getBytes(column));
+                default:
+                    break;
+            }
+        }
+        return text(cell);
+    }
+
+    /** Raw bytes of the value: the content of a bytea, the UTF-8 text of others. */
+    public byte[] getBytes(int column) {
+        int cell = cell(column);
+        int off = offsets[cell];
+        if (off < 0) {
+            return null;
+        }
+        if (formats[column] == 1 && !isRaw(types[column])) {
+            return getString(column).getBytes(StandardCharsets.UTF_8);
+        }
+        return Arrays.copyOfRange(data, off, off + lengths[cell]);
+    }
+
+    // types whose binary format is the raw content
+    private static boolean isRaw(int oid) {
+        return oid == BYTEA || oid == TEXT || oid == VARCHAR || oid == BPCHAR || oid == NAME;
+    }
+
+    // === Decoding ===
+
+    private int cell(int column) {
+        if (row < 0 || row >= rowCount) {
+            throw new IllegalStateException("No current row, call next() first");
+        }
+        if (column < 0 || column >= names.length) {
+            throw new IndexOutOfBoundsException("Column " + column + " of " + names.length);
+        }
+        return row * names.length + column;
+    }
+
+    private String text(int cell) {
+        return new String(data, offsets[cell], lengths[cell], StandardCharsets.UTF_8);
+    }
+
+    private int readShort(int off) {
+        return ((data[off] & 0xFF) << 8) | (data[off + 1] & 0xFF);
+    }
+
+    private int readInt(int off) {
+        return ((data[off] & 0xFF) << 24)
+                | ((data[off + 1] & 0xFF) << 16)
+                | ((data[off + 2] & 0xFF) << 8)
+                | (data[off + 3] & 0xFF);
+    }
+
+    private long readLong(int off) {
+        return ((long) readInt(off) << 32) | (readInt(off + 4) & 0xFFFFFFFFL);
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
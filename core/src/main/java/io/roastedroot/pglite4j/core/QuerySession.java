@@ -0,0 +1,607 @@
+package io.roastedroot.pglite4j.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Client side of the typed query API: talks the extended protocol to the backend of one {@link
+ * PGLite} through its in-memory transport, no socket involved.
+ *
+ * <p>The session starts (StartupMessage and password) on first use. Statements are prepared under
+ * names of their own and cached by SQL text; executing one is a single Bind, Execute, Sync round
+ * trip whose DataRows are decoded in place by {@link QueryResult}.
+ */
+final class QuerySession {
+    static final int MAX_CACHED_STATEMENTS = 256;
+    private static final String USER = "postgres";
+    private static final String DATABASE = "template1";
+    private static final String PASSWORD = "password";
+    private static final String STATEMENT_PREFIX = "pglite4j_";
+    // invalid_sql_statement_name: the backend lost the statement (rewind, eviction)
+    private static final String UNKNOWN_STATEMENT = "26000";
+    private static final String[] NO_NAMES = new String[0];
+    private static final int[] NO_TYPES = new int[0];
+    private static final short[] NO_FORMATS = new short[0];
+
+    private final PGLite pg;
+    private final WireWriter request = new WireWriter();
+    private final ReplyBuffer reply = new ReplyBuffer();
+    private final List<String> pendingCloses = new ArrayList<>();
+    private final Map<String, PreparedQuery> statements =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedQuery> eldest) {
+                    if (size() > MAX_CACHED_STATEMENTS) {
+                        pendingCloses.add(eldest.getValue().name);
+                        return true;
+                    }
+                    return false;
+                }
+            };
+    private boolean started;
+    private long nextStatement;
+
+    QuerySession(PGLite pg) {
+        this.pg = pg;
+    }
+
+    /** Forgets the backend state, after it was replaced by a rewind. */
+    void reset() {
+        started = false;
+        statements.clear();
+        pendingCloses.clear();
+    }
+
+    // === Statements ===
+
+    PreparedQuery prepare(String sql) {
+        PreparedQuery query = statements.get(sql);
+        if (query == null) {
+            query = new PreparedQuery(this, sql, STATEMENT_PREFIX + nextStatement++);
+            describe(query);
+            statements.put(sql, query);
+        }
+        return query;
+    }
+
+    QueryResult execute(PreparedQuery query, Object[] params) {
+        try {
+            return bindAndExecute(query, params);
+        } catch (PGLiteException e) {
+            if (!UNKNOWN_STATEMENT.equals(e.sqlState())) {
+                throw e;
+            }
+            describe(query);
+            return bindAndExecute(query, params);
+        }
+    }
+
+    /** Runs one or more statements through the simple query protocol, discarding their rows. */
+    void executeScript(String sql) {
+        begin();
+        request.query(sql);
+        send();
+        throwIfError();
+    }
+
+    // === COPY ===
+
+    /**
+     * Runs a {@code COPY ... FROM STDIN} and streams {@code in} to it as CopyData messages, each as
+     * large as one CMA transfer allows: only one such chunk of the input is held at a time.
+     */
+    CopyResult copyIn(String sql, ReadableByteChannel in) throws IOException {
+        // checked before sending: any other statement would already have run
+        if (!isCopyFromStdin(sql)) {
+            throw new IllegalArgumentException("Not a COPY FROM STDIN statement: " + sql);
+        }
+        long start = System.nanoTime();
+        begin();
+        request.query(sql);
+        send();
+        throwIfError();
+        if (!replyContains('G')) {
+            throw new IllegalArgumentException("Not a COPY FROM STDIN statement: " + sql);
+        }
+        int chunk = pg.cmaLimit() - 5;
+        long bytes = 0;
+        while (true) {
+            request.reset();
+            int n;
+            try {
+                n = request.copyData(in, chunk);
+            } catch (IOException e) {
+                // leave COPY mode, the backend rolls the statement back
+                request.reset();
+                request.copyFail("Failed to read the COPY input: " + e.getMessage());
+                send();
+                throw e;
+            }
+            if (n < 0) {
+                break;
+            }
+            send();
+            // a bad row ends COPY mode right away with ErrorResponse and ReadyForQuery
+            throwIfError();
+            bytes += n;
+        }
+        request.reset();
+        request.copyDone();
+        send();
+        throwIfError();
+        return new CopyResult(
+                QueryResult.rowsAffected(commandTag()), bytes, System.nanoTime() - start);
+    }
+
+    /**
+     * Whether {@code sql} is one {@code COPY ... FROM STDIN} statement. Comments, quoted strings
+     * and identifiers, and parenthesized lists are skipped; a second statement fails the check.
+     */
+    static boolean isCopyFromStdin(String sql) {
+        List<String> words = new ArrayList<>();
+        int depth = 0;
+        boolean ended = false;
+        int i = 0;
+        int n = sql.length();
+        while (i < n) {
+            char c = sql.charAt(i);
+            int next;
+            if (Character.isWhitespace(c)) {
+                next = i + 1;
+            } else if (sql.startsWith("--", i)) {
+                int eol = sql.indexOf('\n', i);
+                next = eol < 0 ? n : eol + 1;
+            } else if (sql.startsWith("/*", i)) {
+                next = skipComment(sql, i);
+            } else if (ended) {
+                return false;
+            } else if (c == ';') {
+                ended = true;
+                next = i + 1;
+            } else if (c == '\'' || c == '"') {
+                next = skipQuoted(sql, i, c, false);
+            } else if (c == '$') {
+                next = skipDollarQuoted(sql, i);
+            } else if (Character.isLetter(c) || c == '_') {
+                next = i + 1;
+                while (next < n
+                        && (Character.isLetterOrDigit(sql.charAt(next))
+                                || sql.charAt(next) == '_'
+                                || sql.charAt(next) == '$')) {
+                    next++;
+                }
+                if (next - i == 1
+                        && (c == 'E' || c == 'e')
+                        && next < n
+                        && sql.charAt(next) == '\'') {
+                    // escape string
+                    next = skipQuoted(sql, next, '\'', true);
+                } else if (depth == 0) {
+                    words.add(sql.substring(i, next).toUpperCase(Locale.ROOT));
+                }
+            } else {
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                }
+                next = i + 1;
+            }
+            if (next < 0) {
+                return false; // unterminated
+            }
+            i = next;
+        }
+        if (words.isEmpty() || !words.get(0).equals("COPY")) {
+            return false;
+        }
+        for (int w = 1; w + 1 < words.size(); w++) {
+            if (words.get(w).equals("FROM")) {
+                return words.get(w + 1).equals("STDIN");
+            }
+        }
+        return false;
+    }
+
+    // Index past a nested /* */ comment, or -1 if it is not closed.
+    private static int skipComment(String sql, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < sql.length()) {
+            if (sql.startsWith("/*", i)) {
+                depth++;
+                i += 2;
+            } else if (sql.startsWith("*/", i)) {
+                i += 2;
+                if (--depth == 0) {
+                    return i;
+                }
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    // Index past the string or identifier opening at start, or -1 if it is not closed.
+    private static int skipQuoted(String sql, int start, char quote, boolean backslashes) {
+        int i = start + 1;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (backslashes && c == '\\') {
+                i += 2;
+            } else if (c != quote) {
+                i++;
+            } else if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                i += 2;
+            } else {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    // Index past a $tag$ ... $tag$ string; a parameter ($1) is only skipped.
+    private static int skipDollarQuoted(String sql, int start) {
+        int end = start + 1;
+        while (end < sql.length()
+                && (Character.isLetter(sql.charAt(end)) || sql.charAt(end) == '_')) {
+            end++;
+        }
+        if (end >= sql.length() || sql.charAt(end) != '$') {
+            return start + 1;
+        }
+        String tag = sql.substring(start, end + 1);
+        int close = sql.indexOf(tag, end + 1);
+        return close < 0 ? -1 : close + tag.length();
+    }
+
+    /**
+     * Exports the rows of {@code query} through {@code COPY (query) TO STDOUT (FORMAT binary)},
+     * decoded into column batches as the reply streams out of the backend. The query is described
+     * first for its column types, which binary COPY data does not carry.
+     */
+    CopyResult copyOut(String query, int batchSize, Consumer<ColumnBatch> consumer) {
+        long start = System.nanoTime();
+        PreparedQuery described = prepare(query);
+        if (described.parameterTypes.length > 0) {
+            throw new IllegalArgumentException("COPY cannot bind parameters: " + query);
+        }
+        CopyOutDecoder decoder =
+                new CopyOutDecoder(
+                        new ColumnBatch(described.columnNames, described.columnTypes, batchSize),
+                        consumer);
+        begin();
+        request.query("COPY (" + query + ") TO STDOUT (FORMAT binary)");
+        try {
+            pg.execProtocol(request.buffer(), decoder);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        decoder.finish();
+        return new CopyResult(decoder.rows(), decoder.bytes(), System.nanoTime() - start);
+    }
+
+    // Close (in case a stale statement of that name survived a rewind), Parse, Describe, Sync
+    private void describe(PreparedQuery query) {
+        begin();
+        request.closeStatement(query.name);
+        request.parse(query.name, query.sql());
+        request.describeStatement(query.name);
+        request.sync();
+        send();
+        int[] parameterTypes = NO_TYPES;
+        String[] names = NO_NAMES;
+        int[] types = NO_TYPES;
+        PGLiteException error = null;
+        int pos = 0;
+        while (pos < reply.count) {
+            int body = pos + 5;
+            switch (reply.buf[pos]) {
+                case 't': // ParameterDescription
+                    parameterTypes = new int[readShort(body)];
+                    for (int i = 0; i < parameterTypes.length; i++) {
+                        parameterTypes[i] = readInt(body + 2 + 4 * i);
+                    }
+                    break;
+                case 'T': // RowDescription
+                    int n = readShort(body);
+                    names = new String[n];
+                    types = new int[n];
+                    int p = body + 2;
+                    for (int i = 0; i < n; i++) {
+                        int end = p;
+                        while (reply.buf[end] != 0) {
+                            end++;
+                        }
+                        names[i] = new String(reply.buf, p, end - p, StandardCharsets.UTF_8);
+                        types[i] = readInt(end + 1 + 6);
+                        p = end + 1 + 18;
+                    }
+                    break;
+                case 'E':
+                    if (error == null) {
+                        error = error(pos);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            pos = nextMessage(pos);
+        }
+        if (error != null) {
+            throw error;
+        }
+        short[] formats = types.length == 0 ? NO_FORMATS : new short[types.length];
+        for (int i = 0; i < types.length; i++) {
+            formats[i] = QueryResult.formatFor(types[i]);
+        }
+        query.parameterTypes = parameterTypes;
+        query.columnNames = names;
+        query.columnTypes = types;
+        query.resultFormats = formats;
+    }
+
+    private QueryResult bindAndExecute(PreparedQuery query, Object[] params) {
+        if (params.length != query.parameterTypes.length) {
+            throw new IllegalArgumentException(
+                    "Expected "
+                            + query.parameterTypes.length
+                            + " parameters, got "
+                            + params.length
+                            + ": "
+                            + query.sql());
+        }
+        begin();
+        request.bind(query.name, params, query.resultFormats);
+        request.execute();
+        request.sync();
+        send();
+
+        int columns = query.columnNames.length;
+        // copy the reply: the cells point into it and the buffer is reused by the next request
+        byte[] data = Arrays.copyOf(reply.buf, reply.count);
+        int rows = 0;
+        int[] offsets = new int[columns * 8];
+        int[] lengths = new int[offsets.length];
+        String tag = null;
+        PGLiteException error = null;
+        int pos = 0;
+        while (pos < data.length) {
+            switch (data[pos]) {
+                case 'D': // DataRow
+                    if ((rows + 1) * columns > offsets.length) {
+                        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                        lengths = Arrays.copyOf(lengths, offsets.length);
+                    }
+                    int p = pos + 5 + 2;
+                    for (int i = 0; i < columns; i++) {
+                        int len = readInt(data, p);
+                        int cell = rows * columns + i;
+                        offsets[cell] = len < 0 ? -1 : p + 4;
+                        lengths[cell] = Math.max(len, 0);
+                        p += 4 + Math.max(len, 0);
+                    }
+                    rows++;
+                    break;
+                case 'C': // CommandComplete
+                    tag =
+                            new String(
+                                    data,
+                                    pos + 5,
+                                    readInt(data, pos + 1) - 5,
+                                    StandardCharsets.UTF_8);
+                    break;
+                case 'E':
+                    if (error == null) {
+                        error = error(pos);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            pos = nextMessage(pos);
+        }
+        if (error != null) {
+            throw error;
+        }
+        return new QueryResult(
+                query.columnNames,
+                query.columnTypes,
+                query.resultFormats,
+                data,
+                offsets,
+                lengths,
+                rows,
+                tag);
+    }
+
+    // === Transport ===
+
+    // Starts a request: the session handshake if not done yet, then pending statement closes.
+    private void begin() {
+        if (!started) {
+            startup();
+        }
+        request.reset();
+        for (String name : pendingCloses) {
+            request.closeStatement(name);
+        }
+        pendingCloses.clear();
+    }
+
+    private void startup() {
+        request.reset();
+        request.startup(USER, DATABASE);
+        send();
+        int pos = 0;
+        while (pos < reply.count) {
+            if (reply.buf[pos] == 'E') {
+                throw error(pos);
+            }
+            if (reply.buf[pos] == 'R') {
+                int code = readInt(pos + 5);
+                if (code == 3 || code == 5) {
+                    byte[] salt =
+                            code == 5 ? Arrays.copyOfRange(reply.buf, pos + 9, pos + 13) : null;
+                    request.reset();
+                    request.password(USER, PASSWORD, salt);
+                    send();
+                    throwIfError();
+                    break;
+                }
+            }
+            pos = nextMessage(pos);
+        }
+        started = true;
+    }
+
+    private void send() {
+        reply.count = 0;
+        try {
+            pg.execProtocol(request.buffer(), reply);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // === Reply parsing ===
+
+    private void throwIfError() {
+        for (int pos = 0; pos < reply.count; pos = nextMessage(pos)) {
+            if (reply.buf[pos] == 'E') {
+                throw error(pos);
+            }
+        }
+    }
+
+    private boolean replyContains(char type) {
+        for (int pos = 0; pos < reply.count; pos = nextMessage(pos)) {
+            if (reply.buf[pos] == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // tag of the last CommandComplete in the reply
+    private String commandTag() {
+        String tag = null;
+        for (int pos = 0; pos < reply.count; pos = nextMessage(pos)) {
+            if (reply.buf[pos] == 'C') {
+                tag = new String(reply.buf, pos + 5, readInt(pos + 1) - 5, StandardCharsets.UTF_8);
+            }
+        }
+        return tag;
+    }
+
+    private int nextMessage(int pos) {
+        return pos + 1 + readInt(pos + 1);
+    }
+
+    private PGLiteException error(int pos) {
+        return error(reply.buf, pos);
+    }
+
+    /** Exception for the ErrorResponse at {@code pos} in {@code buf}. */
+    static PGLiteException error(byte[] buf, int pos) {
+        String message = null;
+        String sqlState = null;
+        String severity = null;
+        String detail = null;
+        String hint = null;
+        int position = 0;
+        int p = pos + 5;
+        int end = pos + 1 + readInt(buf, pos + 1);
+        while (p < end && buf[p] != 0) {
+            byte field = buf[p++];
+            int start = p;
+            while (buf[p] != 0) {
+                p++;
+            }
+            String value = new String(buf, start, p - start, StandardCharsets.UTF_8);
+            p++;
+            switch (field) {
+                case 'M':
+                    message = value;
+                    break;
+                case 'C':
+                    sqlState = value;
+                    break;
+                case 'V':
+                    severity = value;
+                    break;
+                case 'S':
+                    if (severity == null) {
+                        severity = value;
+                    }
+                    break;
+                case 'D':
+                    detail = value;
+                    break;
+                case 'H':
+                    hint = value;
+                    break;
+                case 'P':
+                    position = Integer.parseInt(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return new PGLiteException(message, sqlState, severity, detail, hint, position);
+    }
+
+    private int readShort(int off) {
+        return ((reply.buf[off] & 0xFF) << 8) | (reply.buf[off + 1] & 0xFF);
+    }
+
+    private int readInt(int off) {
+        return readInt(reply.buf, off);
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24)
+                | ((b[off + 1] & 0xFF) << 16)
+                | ((b[off + 2] & 0xFF) << 8)
+                | (b[off + 3] & 0xFF);
+    }
+
+    /** Growable reply buffer the backend writes into directly. */
+    static final class ReplyBuffer implements WritableByteChannel {
+        byte[] buf = new byte[8192];
+        int count;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            if (count + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+            }
+            src.get(buf, count, n);
+            count += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {}
+    }
+}
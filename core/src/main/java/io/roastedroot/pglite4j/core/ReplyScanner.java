@@ -0,0 +1,167 @@
+package io.roastedroot.pglite4j.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Follows the message framing of a backend reply as it is produced, so the interaction loop knows
+ * when the backend is done with a request without polling it until it goes quiet.
+ *
+ * <p>Only message headers are looked at (plus the first body bytes of ReadyForQuery and
+ * Authentication); bodies are skipped, wherever the chunk boundaries fall.
+ */
+final class ReplyScanner {
+    /** No particular reply expected: stop as soon as the backend is idle. */
+    static final int EXPECT_IDLE = 0;
+
+    /** The request ends with a sync point: ReadyForQuery, or a switch to COPY mode. */
+    static final int EXPECT_READY = 1;
+
+    /** Startup or password: ReadyForQuery, an authentication challenge or a fatal error. */
+    static final int EXPECT_AUTH = 2;
+
+    private static final int STARTUP_PROTOCOL = 3 << 16;
+
+    // header (type + length) and up to 4 body bytes of the current message
+    private final byte[] head = new byte[9];
+    private int headLen;
+    private int headWanted = 5;
+    private long skip;
+    // last complete message
+    private byte lastType;
+    private int lastValue;
+    // ErrorResponses seen since the last takeErrors()
+    private int errors;
+
+    void reset() {
+        headLen = 0;
+        headWanted = 5;
+        skip = 0;
+        lastType = 0;
+        lastValue = 0;
+    }
+
+    void scan(PagedMemory memory, int addr, int len) {
+        int pos = 0;
+        while (pos < len) {
+            if (skip > 0) {
+                int n = (int) Math.min(skip, len - pos);
+                skip -= n;
+                pos += n;
+            } else {
+                take(memory.read(addr + pos++));
+            }
+        }
+    }
+
+    void scan(byte[] b, int off, int len) {
+        int pos = off;
+        int end = off + len;
+        while (pos < end) {
+            if (skip > 0) {
+                int n = (int) Math.min(skip, end - pos);
+                skip -= n;
+                pos += n;
+            } else {
+                take(b[pos++]);
+            }
+        }
+    }
+
+    private void take(byte b) {
+        head[headLen++] = b;
+        if (headLen == 5) {
+            byte type = head[0];
+            long bodyLen = (readInt(head, 1) & 0xFFFFFFFFL) - 4;
+            headWanted = 5 + (type == 'Z' || type == 'R' ? (int) Math.min(bodyLen, 4) : 0);
+            skip = Math.max(bodyLen - (headWanted - 5), 0);
+        }
+        if (headLen == headWanted) {
+            lastType = head[0];
+            lastValue = headLen == 9 ? readInt(head, 5) : headLen == 6 ? head[5] : 0;
+            if (lastType == 'E') {
+                errors++;
+            }
+            headLen = 0;
+            headWanted = 5;
+        }
+    }
+
+    private boolean atBoundary() {
+        return headLen == 0 && skip == 0 && lastType != 0;
+    }
+
+    /** Whether the reply so far is complete for a request of the given expectation. */
+    boolean complete(int expect) {
+        if (expect == EXPECT_IDLE || !atBoundary()) {
+            return false;
+        }
+        switch (lastType) {
+            case 'Z': // ReadyForQuery
+                return true;
+            case 'G': // CopyInResponse
+            case 'W': // CopyBothResponse
+                return expect == EXPECT_READY;
+            case 'R': // Authentication*, 0 is AuthenticationOk
+                return expect == EXPECT_AUTH && lastValue != 0;
+            case 'E': // ErrorResponse, fatal during startup
+                return expect == EXPECT_AUTH;
+            default:
+                return false;
+        }
+    }
+
+    /** ErrorResponses scanned since the previous call, across resets. */
+    int takeErrors() {
+        int n = errors;
+        errors = 0;
+        return n;
+    }
+
+    /** Status byte of the ReadyForQuery that ended the reply, 0 if it did not end with one. */
+    char readyForQueryStatus() {
+        return atBoundary() && lastType == 'Z' ? (char) lastValue : 0;
+    }
+
+    /** What reply the backend owes for {@code request} (position to limit). */
+    static int expectation(ByteBuffer request) {
+        int pos = request.position();
+        int end = request.limit();
+        if (end - pos < 5) {
+            return EXPECT_IDLE;
+        }
+        if (request.get(pos) == 0) {
+            // untagged: StartupMessage, or SSLRequest & co, which get a single byte back
+            return end - pos >= 8 && request.getInt(pos + 4) == STARTUP_PROTOCOL
+                    ? EXPECT_AUTH
+                    : EXPECT_IDLE;
+        }
+        byte last = 0;
+        while (end - pos >= 5) {
+            int len = request.getInt(pos + 1);
+            if (len < 4) {
+                return EXPECT_IDLE;
+            }
+            last = request.get(pos);
+            pos += 1 + len;
+        }
+        switch (last) {
+            case 'Q': // Query
+            case 'S': // Sync
+            case 'F': // FunctionCall
+            case 'c': // CopyDone
+            case 'f': // CopyFail
+                return EXPECT_READY;
+            case 'p': // PasswordMessage, SASL responses
+                return EXPECT_AUTH;
+            default:
+                return EXPECT_IDLE;
+        }
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24)
+                | ((b[off + 1] & 0xFF) << 16)
+                | ((b[off + 2] & 0xFF) << 8)
+                | (b[off + 3] & 0xFF);
+    }
+}
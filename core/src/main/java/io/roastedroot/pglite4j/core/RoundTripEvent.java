@@ -0,0 +1,47 @@
+package io.roastedroot.pglite4j.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/** One {@code execProtocol*} call; the event duration is the whole round trip. */
+@Name("io.roastedroot.pglite4j.RoundTrip")
+@Label("PGLite Round Trip")
+@Category("PGLite")
+@Description("Wire protocol request forwarded to the WASM backend")
+final class RoundTripEvent extends Event {
+    private static final EventType TYPE = EventType.getEventType(RoundTripEvent.class);
+
+    @Label("Instance")
+    String instance;
+
+    @Label("Ticks")
+    @Description("interactiveOne calls")
+    int ticks;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+
+    @Label("WASM Time")
+    @Timespan
+    long wasmTime;
+
+    @Label("Broken")
+    @Description("a trap left the backend unusable")
+    boolean broken;
+
+    /** Avoids allocating an event per request while no recording asks for it. */
+    static boolean isTypeEnabled() {
+        return TYPE.isEnabled();
+    }
+}
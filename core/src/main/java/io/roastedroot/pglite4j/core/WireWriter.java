@@ -0,0 +1,249 @@
+package io.roastedroot.pglite4j.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Builds frontend wire protocol messages into one reusable buffer, so that a whole request
+ * (e.g. Bind, Execute, Sync) goes to the backend as a single transfer.
+ */
+final class WireWriter {
+    private static final int PROTOCOL_3 = 3 << 16;
+
+    private byte[] buf = new byte[1024];
+    private int len;
+    // start of the message being written, its length is patched in by end()
+    private int start;
+
+    void reset() {
+        len = 0;
+    }
+
+    /** Everything written since the last {@link #reset()}, valid until the next write. */
+    ByteBuffer buffer() {
+        return ByteBuffer.wrap(buf, 0, len);
+    }
+
+    // === Messages ===
+
+    WireWriter startup(String user, String database) {
+        start = len;
+        putInt(0);
+        putInt(PROTOCOL_3);
+        putCString("user");
+        putCString(user);
+        putCString("database");
+        putCString(database);
+        putByte(0);
+        patchLength(start);
+        return this;
+    }
+
+    /** PasswordMessage answering an MD5 challenge with {@code salt}, or cleartext if null. */
+    WireWriter password(String user, String password, byte[] salt) {
+        begin('p');
+        putCString(salt == null ? password : md5Password(user, password, salt));
+        return end();
+    }
+
+    WireWriter query(String sql) {
+        begin('Q');
+        putCString(sql);
+        return end();
+    }
+
+    WireWriter parse(String statement, String sql) {
+        begin('P');
+        putCString(statement);
+        putCString(sql);
+        putShort(0); // parameter types left to the server
+        return end();
+    }
+
+    WireWriter describeStatement(String statement) {
+        begin('D');
+        putByte('S');
+        putCString(statement);
+        return end();
+    }
+
+    WireWriter closeStatement(String statement) {
+        begin('C');
+        putByte('S');
+        putCString(statement);
+        return end();
+    }
+
+    /**
+     * Bind of the unnamed portal. Parameters go in text format, byte arrays in binary; {@code
+     * resultFormats} holds one format code per column.
+     */
+    WireWriter bind(String statement, Object[] params, short[] resultFormats) {
+        begin('B');
+        putCString("");
+        putCString(statement);
+        putShort(params.length);
+        for (Object p : params) {
+            putShort(p instanceof byte[] ? 1 : 0);
+        }
+        putShort(params.length);
+        for (Object p : params) {
+            if (p == null) {
+                putInt(-1);
+            } else if (p instanceof byte[]) {
+                byte[] b = (byte[]) p;
+                putInt(b.length);
+                putBytes(b, 0, b.length);
+            } else {
+                byte[] text = textValue(p).getBytes(StandardCharsets.UTF_8);
+                putInt(text.length);
+                putBytes(text, 0, text.length);
+            }
+        }
+        putShort(resultFormats.length);
+        for (short f : resultFormats) {
+            putShort(f);
+        }
+        return end();
+    }
+
+    WireWriter execute() {
+        begin('E');
+        putCString("");
+        putInt(0);
+        return end();
+    }
+
+    WireWriter sync() {
+        begin('S');
+        return end();
+    }
+
+    /**
+     * CopyData with up to {@code max} bytes read from {@code in}, which is read until the message
+     * is full or the input ends. Returns the number of bytes copied, or -1 (and writes nothing) if
+     * the input was already at its end.
+     */
+    int copyData(ReadableByteChannel in, int max) throws IOException {
+        int at = len;
+        begin('d');
+        ensure(max);
+        ByteBuffer target = ByteBuffer.wrap(buf, len, max);
+        while (target.hasRemaining() && in.read(target) >= 0) {
+            // a blocking channel fills at least one byte per read
+        }
+        int n = target.position() - len;
+        if (n == 0) {
+            len = at;
+            return -1;
+        }
+        len += n;
+        end();
+        return n;
+    }
+
+    WireWriter copyDone() {
+        begin('c');
+        return end();
+    }
+
+    WireWriter copyFail(String reason) {
+        begin('f');
+        putCString(reason);
+        return end();
+    }
+
+    // === Encoding ===
+
+    private static String textValue(Object p) {
+        if (p instanceof Boolean) {
+            return (Boolean) p ? "t" : "f";
+        }
+        return p.toString();
+    }
+
+    private void begin(char type) {
+        putByte(type);
+        start = len;
+        putInt(0);
+    }
+
+    private WireWriter end() {
+        patchLength(start);
+        return this;
+    }
+
+    private void patchLength(int at) {
+        int n = len - at;
+        buf[at] = (byte) (n >>> 24);
+        buf[at + 1] = (byte) (n >>> 16);
+        buf[at + 2] = (byte) (n >>> 8);
+        buf[at + 3] = (byte) n;
+    }
+
+    private void ensure(int n) {
+        if (len + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+        }
+    }
+
+    private void putByte(int b) {
+        ensure(1);
+        buf[len++] = (byte) b;
+    }
+
+    private void putShort(int v) {
+        ensure(2);
+        buf[len++] = (byte) (v >>> 8);
+        buf[len++] = (byte) v;
+    }
+
+    private void putInt(int v) {
+        ensure(4);
+        buf[len++] = (byte) (v >>> 24);
+        buf[len++] = (byte) (v >>> 16);
+        buf[len++] = (byte) (v >>> 8);
+        buf[len++] = (byte) v;
+    }
+
+    private void putBytes(byte[] b, int off, int n) {
+        ensure(n);
+        System.arraycopy(b, off, buf, len, n);
+        len += n;
+    }
+
+    private void putCString(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        putBytes(b, 0, b.length);
+        putByte(0);
+    }
+
+    // "md5" + md5(md5(password + user) + salt), in hex
+    private static String md5Password(String user, String password, byte[] salt) {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            md5.update(password.getBytes(StandardCharsets.UTF_8));
+            md5.update(user.getBytes(StandardCharsets.UTF_8));
+            byte[] inner = hex(md5.digest()).getBytes(StandardCharsets.US_ASCII);
+            md5.update(inner);
+            md5.update(salt);
+            return "md5" + hex(md5.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Failed to compute the MD5 password", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,147 @@
+package io.roastedroot.pglite4j.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class CopyOutDecoderTest {
+    private static final String[] NAMES = {"id", "total", "score", "name"};
+    private static final int[] TYPES = {
+        QueryResult.INT4, QueryResult.INT8, QueryResult.FLOAT8, QueryResult.TEXT
+    };
+
+    @Test
+    public void decodesAcrossChunkBoundaries() throws IOException {
+        byte[] reply = reply(1000);
+        for (int chunk : new int[] {1, 7, 100, reply.length}) {
+            List<Integer> sizes = new ArrayList<>();
+            long[] sum = new long[1];
+            StringBuilder names = new StringBuilder();
+            CopyOutDecoder decoder =
+                    new CopyOutDecoder(
+                            new ColumnBatch(NAMES, TYPES, 300),
+                            batch -> {
+                                sizes.add(batch.size());
+                                int[] ids = batch.ints(0);
+                                long[] totals = batch.longs(1);
+                                for (int i = 0; i < batch.size(); i++) {
+                                    sum[0] += ids[i] + totals[i];
+                                    if (ids[i] % 250 == 0) {
+                                        names.append(batch.getString(3, i)).append(',');
+                                    }
+                                }
+                                if (batch.size() > 5) {
+                                    assertTrue(batch.isNull(2, 5));
+                                    assertFalse(batch.isNull(2, 4));
+                                }
+                            });
+            for (int off = 0; off < reply.length; off += chunk) {
+                decoder.write(ByteBuffer.wrap(reply, off, Math.min(chunk, reply.length - off)));
+            }
+            decoder.finish();
+
+            assertEquals(List.of(300, 300, 300, 100), sizes);
+            assertEquals(1000, decoder.rows());
+            assertEquals("COPY 1000", decoder.commandTag());
+            assertEquals(999L * 1000 / 2 * 1_000_001, sum[0]);
+            assertEquals("row 0,row 250,null,row 750,", names.toString());
+        }
+    }
+
+    @Test
+    public void offsetEncodedValues() throws IOException {
+        ColumnBatch[] last = new ColumnBatch[1];
+        CopyOutDecoder decoder =
+                new CopyOutDecoder(new ColumnBatch(NAMES, TYPES, 10), b -> last[0] = b);
+        decoder.write(ByteBuffer.wrap(reply(3)));
+        decoder.finish();
+        byte[] bytes = last[0].bytes(3);
+        int[] offsets = last[0].offsets(3);
+        assertArrayEquals(new int[] {0, 5, 10, 15}, Arrays.copyOf(offsets, 4));
+        assertEquals("row 1", new String(bytes, 5, 5, StandardCharsets.UTF_8));
+        assertEquals(0.5, last[0].doubles(2)[1]);
+        assertThrows(IllegalArgumentException.class, () -> last[0].ints(3));
+    }
+
+    @Test
+    public void consumerFailureDrainsTheReply() throws IOException {
+        CopyOutDecoder decoder =
+                new CopyOutDecoder(
+                        new ColumnBatch(NAMES, TYPES, 10),
+                        b -> {
+                            throw new IllegalStateException("boom");
+                        });
+        assertEquals(reply(100).length, decoder.write(ByteBuffer.wrap(reply(100))));
+        assertEquals("COPY 100", decoder.commandTag());
+        assertThrows(IllegalStateException.class, decoder::finish);
+    }
+
+    // CopyOutResponse, one CopyData per tuple (the first also carrying the header), the trailer,
+    // CommandComplete and ReadyForQuery; the name of row 500 is NULL, and so is every 5th score
+    private static byte[] reply(int rows) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream wire = new DataOutputStream(out);
+        wire.writeByte('H');
+        wire.writeInt(4 + 1 + 2 + 2 * 4);
+        wire.writeByte(1);
+        wire.writeShort(4);
+        for (int i = 0; i < 4; i++) {
+            wire.writeShort(1);
+        }
+        for (int r = 0; r < rows; r++) {
+            ByteArrayOutputStream tuple = new ByteArrayOutputStream();
+            DataOutputStream t = new DataOutputStream(tuple);
+            if (r == 0) {
+                t.write("PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1));
+                t.writeInt(0);
+                t.writeInt(0);
+            }
+            t.writeShort(4);
+            t.writeInt(4);
+            t.writeInt(r);
+            t.writeInt(8);
+            t.writeLong(r * 1_000_000L);
+            if (r % 5 == 0 && r > 0) {
+                t.writeInt(-1);
+            } else {
+                t.writeInt(8);
+                t.writeDouble(r / 2.0);
+            }
+            if (r == 500) {
+                t.writeInt(-1);
+            } else {
+                byte[] name = ("row " + r).getBytes(StandardCharsets.UTF_8);
+                t.writeInt(name.length);
+                t.write(name);
+            }
+            writeCopyData(wire, tuple.toByteArray());
+        }
+        writeCopyData(wire, new byte[] {(byte) 0xFF, (byte) 0xFF});
+        byte[] tag = ("COPY " + rows + "\0").getBytes(StandardCharsets.US_ASCII);
+        wire.writeByte('C');
+        wire.writeInt(4 + tag.length);
+        wire.write(tag);
+        wire.writeByte('Z');
+        wire.writeInt(5);
+        wire.writeByte('I');
+        return out.toByteArray();
+    }
+
+    private static void writeCopyData(DataOutputStream wire, byte[] payload) throws IOException {
+        wire.writeByte('d');
+        wire.writeInt(4 + payload.length);
+        wire.write(payload);
+    }
+}
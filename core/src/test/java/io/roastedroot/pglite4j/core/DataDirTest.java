@@ -0,0 +1,48 @@
+package io.roastedroot.pglite4j.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.dylibso.chicory.wasm.types.MemoryLimits;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DataDirTest {
+
+    @Test
+    public void resumesOnlyWhatTheSameBuildSaved(@TempDir Path dir) throws IOException {
+        try (DataDir dataDir = DataDir.open(dir)) {
+            assertNull(dataDir.resume("build-1"));
+            Files.write(dir.resolve("PG_VERSION"), "17\n".getBytes(StandardCharsets.UTF_8));
+            dataDir.markOpen();
+            dataDir.save(new PagedMemory(new MemoryLimits(1)), new long[] {7}, 1024, 0, "build-1");
+        }
+
+        // an instance that fails to start leaves the directory as it found it
+        try (DataDir dataDir = DataDir.open(dir)) {
+            assertThrows(IOException.class, () -> dataDir.resume("build-2"));
+        }
+        try (DataDir dataDir = DataDir.open(dir)) {
+            assertEquals(1024, dataDir.resume("build-1").bufferAddr);
+            dataDir.markOpen();
+        }
+
+        // never saved: not closed cleanly
+        try (DataDir dataDir = DataDir.open(dir)) {
+            assertThrows(IOException.class, () -> dataDir.resume("build-1"));
+        }
+    }
+
+    @Test
+    public void oneInstanceAtATime(@TempDir Path dir) throws IOException {
+        try (DataDir dataDir = DataDir.open(dir)) {
+            assertThrows(IOException.class, () -> DataDir.open(dir));
+        }
+        DataDir.open(dir).close();
+    }
+}
@@ -0,0 +1,51 @@
+package io.roastedroot.pglite4j.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.dylibso.chicory.runtime.Memory;
+import com.dylibso.chicory.wasm.types.MemoryLimits;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class InstanceImageTest {
+
+    @Test
+    public void roundTrip(@TempDir Path dir) throws IOException {
+        PagedMemory memory = new PagedMemory(new MemoryLimits(3));
+        memory.writeLong(8, 0x1122334455667788L);
+        memory.writeI32(2 * Memory.PAGE_SIZE + 4, 42);
+        Path pgdata = dir.resolve("pgdata");
+        Files.createDirectories(pgdata.resolve("base/1"));
+        Files.write(pgdata.resolve("PG_VERSION"), "17\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(pgdata.resolve("base/1/1259"), new byte[20_000]);
+
+        Path path = dir.resolve("db.image");
+        InstanceImage.write(path, memory, new long[] {7, -1}, 1024, 5, pgdata, "build-1");
+        InstanceImage image = InstanceImage.read(path, "build-1");
+
+        assertArrayEquals(new long[] {7, -1}, image.memory.globals);
+        assertEquals(1024, image.memory.bufferAddr);
+        assertEquals(5, image.memory.pendingWireLen);
+        assertEquals(3, image.memory.pages.length);
+        assertEquals(
+                0x1122334455667788L,
+                image.memory.pages[0].order(ByteOrder.LITTLE_ENDIAN).getLong(8));
+        assertNull(image.memory.pages[1]);
+        assertEquals(42, image.memory.pages[2].order(ByteOrder.LITTLE_ENDIAN).getInt(4));
+        assertEquals(List.of("PG_VERSION", "base/1/1259"), List.copyOf(image.files.keySet()));
+        assertEquals(20_000, image.files.get("base/1/1259").length);
+
+        assertThrows(IOException.class, () -> InstanceImage.read(path, "build-2"));
+        Files.write(path, new byte[100]);
+        assertThrows(IOException.class, () -> InstanceImage.read(path, "build-1"));
+    }
+}
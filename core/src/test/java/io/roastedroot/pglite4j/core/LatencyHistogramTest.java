@@ -0,0 +1,48 @@
+package io.roastedroot.pglite4j.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void empty() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.count());
+        assertEquals(0, h.percentileNanos(99));
+    }
+
+    @Test
+    public void percentilesWithinOneBucket() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            h.record(1000);
+        }
+        h.record(1_000_000);
+
+        assertEquals(100, h.count());
+        assertEquals(99 * 1000 + 1_000_000, h.totalNanos());
+        assertEquals(1_000_000, h.maxNanos());
+        long p50 = h.percentileNanos(50);
+        assertTrue(p50 >= 1000 && p50 < 2000, "p50 " + p50);
+        assertTrue(h.percentileNanos(99) < 2000);
+        assertEquals(1_000_000, h.percentileNanos(100));
+    }
+
+    @Test
+    public void bucketBounds() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(0);
+        h.record(1);
+        h.record(2);
+        h.record(3);
+        h.record(4);
+        long[] buckets = h.buckets();
+        assertEquals(1, buckets[0]);
+        assertEquals(1, buckets[1]);
+        assertEquals(2, buckets[2]);
+        assertEquals(1, buckets[3]);
+    }
+}
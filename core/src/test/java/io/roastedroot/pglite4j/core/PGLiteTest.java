@@ -1,9 +1,28 @@
 package io.roastedroot.pglite4j.core;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class PGLiteTest {
 
@@ -68,6 +87,419 @@ public class PGLiteTest {
         }
     }
 
+    @Test
+    public void fsyncIsOff() {
+        try (PGLite pg = PGLite.builder().build()) {
+            doHandshake(pg);
+            pg.execProtocolRaw(PgWireCodec.queryMessage("CREATE TABLE synced AS SELECT 1 AS v;"));
+            byte[] checkpoint = pg.execProtocolRaw(PgWireCodec.queryMessage("CHECKPOINT;"));
+            assertTrue(PgWireCodec.hasReadyForQuery(checkpoint));
+            String data =
+                    PgWireCodec.parseDataRows(
+                            pg.execProtocolRaw(
+                                    PgWireCodec.queryMessage(
+                                            "SELECT 'fsync:' || current_setting('fsync');")));
+            assertTrue(data.contains("fsync:off"));
+        }
+    }
+
+    @Test
+    public void forkIsIsolated() {
+        try (PGLite pg = PGLite.builder().build()) {
+            doHandshake(pg);
+            pg.execProtocolRaw(PgWireCodec.queryMessage("CREATE TABLE shared (v TEXT);"));
+            pg.execProtocolRaw(PgWireCodec.queryMessage("INSERT INTO shared VALUES ('parent');"));
+
+            try (PGLite fork = pg.fork()) {
+                fork.execProtocolRaw(
+                        PgWireCodec.queryMessage("INSERT INTO shared VALUES ('fork');"));
+                String forked =
+                        PgWireCodec.parseDataRows(
+                                fork.execProtocolRaw(
+                                        PgWireCodec.queryMessage(
+                                                "SELECT string_agg(v, ',') FROM shared;")));
+                assertTrue(forked.contains("parent,fork"));
+            }
+
+            String data =
+                    PgWireCodec.parseDataRows(
+                            pg.execProtocolRaw(
+                                    PgWireCodec.queryMessage("SELECT count(*) FROM shared;")));
+            assertTrue(data.contains("1"));
+        }
+    }
+
+    @Test
+    public void instancesStartFromTheSamePristineState() {
+        try (PGLite first = PGLite.builder().build()) {
+            doHandshake(first);
+            first.execProtocolRaw(PgWireCodec.queryMessage("CREATE TABLE mine (v TEXT);"));
+            try (PGLite second = PGLite.builder().build()) {
+                doHandshake(second);
+                String data =
+                        PgWireCodec.parseDataRows(
+                                second.execProtocolRaw(
+                                        PgWireCodec.queryMessage(
+                                                "SELECT 'absent:' || (to_regclass('mine') IS"
+                                                        + " NULL);")));
+                assertTrue(data.contains("absent:t"));
+            }
+        }
+    }
+
+    @Test
+    public void checkpointAndRewind() {
+        try (PGLite pg = PGLite.builder().build()) {
+            doHandshake(pg);
+            pg.execProtocolRaw(PgWireCodec.queryMessage("CREATE TABLE items (id INTEGER);"));
+            PGLite.Checkpoint checkpoint = pg.checkpoint();
+
+            for (int round = 0; round < 2; round++) {
+                pg.execProtocolRaw(PgWireCodec.queryMessage("INSERT INTO items VALUES (1), (2);"));
+                pg.execProtocolRaw(PgWireCodec.queryMessage("CREATE TABLE scratch (v TEXT);"));
+                pg.rewind(checkpoint);
+
+                String data =
+                        PgWireCodec.parseDataRows(
+                                pg.execProtocolRaw(
+                                        PgWireCodec.queryMessage(
+                                                "SELECT (SELECT count(*) FROM items) || '/' ||"
+                                                        + " (to_regclass('scratch') IS NULL);")));
+                assertTrue(data.contains("0/t"));
+            }
+        }
+    }
+
+    @Test
+    public void dataDirSurvivesRestart(@TempDir Path dir) {
+        try (PGLite pg = PGLite.builder().withDataDir(dir).build()) {
+            doHandshake(pg);
+            pg.execProtocolRaw(PgWireCodec.queryMessage("CREATE TABLE kept (v TEXT);"));
+            pg.execProtocolRaw(PgWireCodec.queryMessage("INSERT INTO kept VALUES ('persisted');"));
+        }
+        assertTrue(Files.exists(dir.resolve("PG_VERSION")));
+
+        try (PGLite pg = PGLite.builder().withDataDir(dir).build()) {
+            doHandshake(pg);
+            String data =
+                    PgWireCodec.parseDataRows(
+                            pg.execProtocolRaw(PgWireCodec.queryMessage("SELECT v FROM kept;")));
+            assertTrue(data.contains("persisted"));
+        }
+    }
+
+    @Test
+    public void streamedReply() throws IOException {
+        try (PGLite pg = PGLite.builder().build()) {
+            doHandshake(pg);
+            byte[] query =
+                    PgWireCodec.queryMessage(
+                            "SELECT repeat('x', 100) FROM generate_series(1, 5000);");
+            List<Integer> chunks = new ArrayList<>();
+            ByteArrayOutputStream out =
+                    new ByteArrayOutputStream() {
+                        @Override
+                        public synchronized void write(byte[] b, int off, int len) {
+                            chunks.add(len);
+                            super.write(b, off, len);
+                        }
+                    };
+            pg.execProtocolRaw(query, out);
+
+            assertFalse(chunks.isEmpty());
+            assertArrayEquals(pg.execProtocolRaw(query), out.toByteArray());
+        }
+    }
+
+    @Test
+    public void messagesLargerThanCmaBuffer() {
+        try (PGLite pg = PGLite.builder().withCmaBufferSize(4096).build()) {
+            doHandshake(pg);
+            pg.execProtocolRaw(PgWireCodec.queryMessage("CREATE TABLE docs (body TEXT);"));
+
+            String big = "x".repeat(100_000);
+            pg.execProtocolRaw(
+                    PgWireCodec.queryMessage("INSERT INTO docs VALUES ('" + big + "');"));
+            String data =
+                    PgWireCodec.parseDataRows(
+                            pg.execProtocolRaw(
+                                    PgWireCodec.queryMessage("SELECT length(body) FROM docs;")));
+            assertTrue(data.contains("100000"));
+
+            // Beyond the compiled-in CMA buffer, the reply continues in the socket file.
+            byte[] huge =
+                    pg.execProtocolRaw(PgWireCodec.queryMessage("SELECT repeat('y', 20000000);"));
+            assertTrue(huge.length > 20_000_000);
+        }
+    }
+
+    @Test
+    public void byteBufferApi() throws IOException {
+        try (PGLite pg = PGLite.builder().build()) {
+            doHandshake(pg);
+            byte[] query = PgWireCodec.queryMessage("SELECT 'direct' AS v;");
+            byte[] expected = pg.execProtocolRaw(query);
+
+            ByteBuffer in = ByteBuffer.allocateDirect(query.length).put(query).flip();
+            ByteBuffer out = ByteBuffer.allocateDirect(65536);
+            pg.execProtocol(in, out);
+            assertFalse(in.hasRemaining());
+            byte[] reply = new byte[out.flip().remaining()];
+            out.get(reply);
+            assertArrayEquals(expected, reply);
+
+            ByteArrayOutputStream channelOut = new ByteArrayOutputStream();
+            pg.execProtocol(ByteBuffer.wrap(query), Channels.newChannel(channelOut));
+            assertArrayEquals(expected, channelOut.toByteArray());
+        }
+    }
+
+    @Test
+    public void statsAndMBean() throws JMException {
+        ObjectName name = new ObjectName("io.roastedroot.pglite4j:type=PGLite,name=\"stats\"");
+        try (PGLite pg = PGLite.builder().withName("stats").build()) {
+            doHandshake(pg);
+            long before = pg.stats().getRoundTrips();
+            pg.execProtocolRaw(PgWireCodec.queryMessage("SELECT 1;"));
+
+            PGLiteStats stats = pg.stats();
+            assertEquals(before + 1, stats.getRoundTrips());
+            assertTrue(stats.getTicks() > 0);
+            assertTrue(stats.getBytesOut() > 0);
+            assertTrue(stats.getCommittedMemoryBytes() <= stats.getMemoryBytes());
+            assertEquals(
+                    stats.getRoundTrips(),
+                    ManagementFactory.getPlatformMBeanServer().getAttribute(name, "RoundTrips"));
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    public void recoversFromErrors() {
+        try (PGLite pg = PGLite.builder().build()) {
+            doHandshake(pg);
+            pg.execProtocolRaw(PgWireCodec.queryMessage("CREATE TABLE uniq (id INTEGER UNIQUE);"));
+
+            for (int i = 0; i < 3; i++) {
+                byte[] error = pg.execProtocolRaw(PgWireCodec.queryMessage("SELECT 1/0;"));
+                assertTrue(PgWireCodec.hasReadyForQuery(error));
+                assertEquals('I', pg.readyForQueryStatus());
+            }
+
+            pg.execProtocolRaw(PgWireCodec.queryMessage("BEGIN;"));
+            pg.execProtocolRaw(PgWireCodec.queryMessage("INSERT INTO uniq VALUES (1);"));
+            pg.execProtocolRaw(PgWireCodec.queryMessage("INSERT INTO uniq VALUES (1);"));
+            assertEquals('E', pg.readyForQueryStatus());
+            pg.execProtocolRaw(PgWireCodec.queryMessage("ROLLBACK;"));
+            assertEquals('I', pg.readyForQueryStatus());
+
+            String data =
+                    PgWireCodec.parseDataRows(
+                            pg.execProtocolRaw(
+                                    PgWireCodec.queryMessage(
+                                            "SELECT 'ok:' || count(*) FROM uniq;")));
+            assertTrue(data.contains("ok:0"));
+            assertFalse(pg.isBroken());
+            assertEquals(4, pg.stats().getErrorResponses());
+            assertEquals(pg.stats().getTraps(), pg.stats().getTrapRecoveries());
+        }
+    }
+
+    @Test
+    public void offHeapMemory() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> PGLite.builder().withMaxMemoryPages(100).build());
+        try (PGLite pg =
+                PGLite.builder().withOffHeapMemory(true).withMaxMemoryPages(4096).build()) {
+            doHandshake(pg);
+            pg.execProtocolRaw(PgWireCodec.queryMessage("CREATE TABLE t AS SELECT 1 AS v;"));
+            assertTrue(pg.stats().isOffHeapMemory());
+            assertEquals(4096L * PagedMemory.PAGE_SIZE, pg.stats().getReservedMemoryBytes());
+            assertTrue(pg.stats().getMemoryBytes() <= pg.stats().getReservedMemoryBytes());
+            try (PGLite fork = pg.fork()) {
+                assertTrue(fork.stats().isOffHeapMemory());
+            }
+        }
+    }
+
+    @Test
+    public void typedQueries() {
+        try (PGLite pg = PGLite.builder().build()) {
+            pg.execute(
+                    "CREATE TABLE people (id bigint PRIMARY KEY, name text, score float8,"
+                            + " active bool, joined date);");
+            PreparedQuery insert = pg.prepare("INSERT INTO people VALUES ($1, $2, $3, $4, $5)");
+            assertEquals(5, insert.parameterCount());
+            assertEquals(1, insert.execute(1, "ada", 9.5, true, "2024-01-02").rowsAffected());
+            insert.execute(2L, null, null, false, null);
+            assertSame(insert, pg.prepare("INSERT INTO people VALUES ($1, $2, $3, $4, $5)"));
+
+            QueryResult rows = pg.query("SELECT * FROM people WHERE id >= $1 ORDER BY id", 1);
+            assertEquals(2, rows.rowCount());
+            assertTrue(rows.next());
+            assertEquals(1, rows.getLong(0));
+            assertEquals("ada", rows.getString(1));
+            assertEquals(9.5, rows.getDouble(2));
+            assertTrue(rows.getBoolean(3));
+            assertEquals("2024-01-02", rows.getString(rows.column("joined")));
+            assertTrue(rows.next());
+            assertTrue(rows.isNull(1));
+            assertFalse(rows.next());
+
+            PGLiteException error =
+                    assertThrows(
+                            PGLiteException.class, () -> insert.execute(1, "dup", 0, true, null));
+            assertEquals("23505", error.sqlState());
+            assertThrows(PGLiteException.class, () -> pg.query("SELEC 1"));
+
+            // statements survive a rewind to before they were prepared
+            PGLite.Checkpoint before = pg.checkpoint();
+            PreparedQuery count = pg.prepare("SELECT count(*) FROM people");
+            pg.rewind(before);
+            QueryResult counted = count.execute();
+            assertTrue(counted.next());
+            assertEquals(2, counted.getInt(0));
+        }
+    }
+
+    @Test
+    public void copyIn() throws IOException {
+        // a small CMA buffer, so that the input spans many CopyData transfers
+        try (PGLite pg = PGLite.builder().withCmaBufferSize(4096).build()) {
+            pg.execute("CREATE TABLE items (id int, label text)");
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 10_000; i++) {
+                text.append(i).append('\t').append("item ").append(i).append('\n');
+            }
+            CopyResult result =
+                    pg.copyIn(
+                            "COPY items FROM STDIN",
+                            new ByteArrayInputStream(
+                                    text.toString().getBytes(StandardCharsets.UTF_8)));
+            assertEquals(10_000, result.rows());
+            assertEquals(text.length(), result.bytes());
+
+            pg.copyIn(
+                    "COPY items FROM STDIN (FORMAT csv)",
+                    new ByteArrayInputStream(
+                            "10000,\"with, comma\"\n".getBytes(StandardCharsets.UTF_8)));
+
+            ByteBuffer binary = ByteBuffer.allocate(64);
+            binary.put("PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1));
+            binary.putInt(0).putInt(0); // flags, header extension
+            binary.putShort((short) 2).putInt(4).putInt(10_001).putInt(6);
+            binary.put("binary".getBytes(StandardCharsets.UTF_8));
+            binary.putShort((short) -1);
+            binary.flip();
+            pg.copyIn(
+                    "COPY items FROM STDIN (FORMAT binary)",
+                    Channels.newChannel(
+                            new ByteArrayInputStream(binary.array(), 0, binary.limit())));
+
+            QueryResult rows = pg.query("SELECT label FROM items WHERE id >= $1 ORDER BY id", 9999);
+            assertTrue(rows.next());
+            assertEquals("item 9999", rows.getString(0));
+            assertTrue(rows.next());
+            assertEquals("with, comma", rows.getString(0));
+            assertTrue(rows.next());
+            assertEquals("binary", rows.getString(0));
+
+            // a bad row aborts the whole COPY and leaves the instance usable
+            PGLiteException error =
+                    assertThrows(
+                            PGLiteException.class,
+                            () ->
+                                    pg.copyIn(
+                                            "COPY items FROM STDIN",
+                                            new ByteArrayInputStream(
+                                                    "1\tok\nnot a number\tbad\n"
+                                                            .getBytes(StandardCharsets.UTF_8))));
+            assertEquals("22P02", error.sqlState());
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> pg.copyIn("SELECT 1", new ByteArrayInputStream(new byte[0])));
+            // rejected before it is sent: nothing is deleted
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> pg.copyIn("DELETE FROM items", new ByteArrayInputStream(new byte[0])));
+            QueryResult count = pg.query("SELECT count(*) FROM items");
+            assertTrue(count.next());
+            assertEquals(10_003, count.getLong(0));
+        }
+    }
+
+    @Test
+    public void copyOut() {
+        try (PGLite pg = PGLite.builder().build()) {
+            pg.execute(
+                    "CREATE TABLE samples AS SELECT i AS id, i * 10000000000 AS big,"
+                            + " i / 4.0 AS ratio, 'sample ' || i AS label,"
+                            + " CASE WHEN i % 10 = 0 THEN NULL ELSE i END AS maybe"
+                            + " FROM generate_series(1, 20000) i");
+            long[] sums = new long[3];
+            double[] ratios = new double[1];
+            List<Integer> sizes = new ArrayList<>();
+            CopyResult result =
+                    pg.copyOut(
+                            "SELECT id, big, ratio::float8, label, maybe FROM samples",
+                            8000,
+                            batch -> {
+                                sizes.add(batch.size());
+                                int[] ids = batch.ints(0);
+                                long[] bigs = batch.longs(1);
+                                double[] r = batch.doubles(2);
+                                int[] offsets = batch.offsets(3);
+                                for (int i = 0; i < batch.size(); i++) {
+                                    sums[0] += ids[i];
+                                    sums[1] += bigs[i] / 10000000000L;
+                                    sums[2] += offsets[i + 1] - offsets[i];
+                                    ratios[0] += r[i];
+                                    assertEquals(ids[i] % 10 == 0, batch.isNull(4, i));
+                                }
+                            });
+            assertEquals(20000, result.rows());
+            assertEquals(List.of(8000, 8000, 4000), sizes);
+            assertEquals(20000L * 20001 / 2, sums[0]);
+            assertEquals(sums[0], sums[1]);
+            assertEquals(sums[0] / 4.0, ratios[0], 1e-6);
+            QueryResult labels = pg.query("SELECT sum(octet_length(label))::int8 FROM samples");
+            assertTrue(labels.next());
+            assertEquals(labels.getLong(0), sums[2]);
+
+            assertThrows(
+                    PGLiteException.class,
+                    () -> pg.copyOut("SELECT nope FROM samples", batch -> {}));
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> pg.copyOut("SELECT * FROM samples WHERE id = $1", batch -> {}));
+        }
+    }
+
+    @Test
+    public void imageRoundTrip(@TempDir Path dir) {
+        Path image = dir.resolve("schema.image");
+        try (PGLite pg = PGLite.builder().build()) {
+            pg.execute(
+                    "CREATE TABLE items (id int PRIMARY KEY, name text);"
+                            + " INSERT INTO items SELECT i, 'item ' || i"
+                            + " FROM generate_series(1, 1000) i;");
+            pg.saveImage(image);
+            pg.execute("DELETE FROM items");
+        }
+        for (int i = 0; i < 2; i++) {
+            try (PGLite pg = PGLite.builder().fromImage(image).build()) {
+                QueryResult count = pg.query("SELECT count(*)::int4 FROM items");
+                assertTrue(count.next());
+                assertEquals(1000, count.getInt(0));
+                pg.execute("INSERT INTO items VALUES (1001, 'more')");
+            }
+        }
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> PGLite.builder().fromImage(image).withDataDir(dir.resolve("data")).build());
+    }
+
     static void doHandshake(PGLite pg) {
         byte[] startup = PgWireCodec.startupMessage("postgres", "template1");
         byte[] resp1 = pg.execProtocolRaw(startup);
@@ -0,0 +1,154 @@
+package io.roastedroot.pglite4j.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.dylibso.chicory.runtime.Memory;
+import com.dylibso.chicory.runtime.WasmRuntimeException;
+import com.dylibso.chicory.wasm.types.MemoryLimits;
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PagedMemoryTest {
+
+    @Test
+    public void untouchedPagesAreNotCommitted() {
+        PagedMemory memory = new PagedMemory(new MemoryLimits(4));
+        assertEquals(0, memory.committedPages());
+        assertEquals(0, memory.readInt(3 * Memory.PAGE_SIZE));
+
+        memory.writeI32(Memory.PAGE_SIZE + 8, 42);
+        assertEquals(1, memory.committedPages());
+        assertEquals(42, memory.readInt(Memory.PAGE_SIZE + 8));
+    }
+
+    @Test
+    public void forkIsCopyOnWrite() {
+        PagedMemory parent = new PagedMemory(new MemoryLimits(2));
+        parent.writeLong(16, 0x1122334455667788L);
+
+        assertEquals(1, parent.privatePages());
+        PagedMemory child = parent.fork();
+        assertEquals(0x1122334455667788L, child.readLong(16));
+        assertEquals(0, parent.privatePages());
+        assertEquals(1, child.committedPages());
+
+        child.writeLong(16, 7L);
+        parent.writeByte(Memory.PAGE_SIZE, (byte) 1);
+        assertEquals(0x1122334455667788L, parent.readLong(16));
+        assertEquals(7L, child.readLong(16));
+        assertEquals(0, child.read(Memory.PAGE_SIZE));
+        assertEquals(1, child.privatePages());
+        // page 0 is only the parent's now, but it cannot tell
+        assertEquals(1, parent.privatePages());
+    }
+
+    @Test
+    public void memoriesFromOneSnapshotAreIndependent() {
+        PagedMemory pristine = new PagedMemory(new MemoryLimits(2));
+        pristine.writeI32(0, 1);
+        PagedMemory.Snapshot snapshot = pristine.snapshot();
+
+        PagedMemory a = new PagedMemory(new MemoryLimits(1), snapshot);
+        PagedMemory b = new PagedMemory(new MemoryLimits(1), snapshot);
+        assertEquals(2, a.pages());
+        a.writeI32(0, 2);
+        assertEquals(1, b.readInt(0));
+        assertEquals(1, pristine.readInt(0));
+        assertEquals(2, a.readInt(0));
+    }
+
+    @Test
+    public void offHeapPages() {
+        PagedMemory parent = new PagedMemory(new MemoryLimits(2));
+        parent.writeI32(8, 5);
+        PagedMemory memory = parent.fork().offHeap(true);
+        assertTrue(memory.isOffHeap());
+
+        memory.write(Memory.PAGE_SIZE - 2, new byte[] {1, 2, 3, 4}, 0, 4);
+        memory.fill((byte) 9, 100, 110);
+        memory.copy(102, 100, 8);
+        memory.copy(Memory.PAGE_SIZE + 10, Memory.PAGE_SIZE - 2, 4);
+        assertEquals(5, memory.readInt(8));
+        assertEquals(9, memory.read(109));
+        assertArrayEquals(new byte[] {1, 2, 3, 4}, memory.readBytes(Memory.PAGE_SIZE + 10, 4));
+        assertEquals(0, parent.read(100));
+        assertTrue(memory.fork().isOffHeap());
+    }
+
+    @Test
+    public void rewindRestoresDirtyPages() {
+        PagedMemory memory = new PagedMemory(new MemoryLimits(2, 4));
+        memory.writeI32(0, 1);
+        PagedMemory.Snapshot snapshot = memory.snapshot();
+
+        memory.writeI32(0, 2);
+        memory.grow(2);
+        memory.writeI32(3 * Memory.PAGE_SIZE, 3);
+        assertEquals(1, memory.rewind(snapshot));
+        assertEquals(2, memory.pages());
+        assertEquals(1, memory.readInt(0));
+
+        memory.writeI32(0, 4);
+        assertEquals(1, memory.rewind(snapshot));
+        assertEquals(1, memory.readInt(0));
+        assertEquals(2, memory.grow(1));
+        assertEquals(0, memory.readInt(2 * Memory.PAGE_SIZE));
+    }
+
+    @Test
+    public void imageRoundTrip(@TempDir Path dir) throws IOException {
+        PagedMemory memory = new PagedMemory(new MemoryLimits(3));
+        memory.writeLong(2 * Memory.PAGE_SIZE + 8, 99L);
+        Path file = dir.resolve("image");
+        MemoryImage.write(file, memory, new long[] {1L, 2L}, 64, 5);
+
+        MemoryImage image = MemoryImage.read(file);
+        assertArrayEquals(new long[] {1L, 2L}, image.globals);
+        assertEquals(64, image.bufferAddr);
+        assertEquals(5, image.pendingWireLen);
+
+        PagedMemory resumed = new PagedMemory(new MemoryLimits(3), image.pages);
+        assertEquals(1, resumed.committedPages());
+        assertEquals(99L, resumed.readLong(2 * Memory.PAGE_SIZE + 8));
+        resumed.writeLong(2 * Memory.PAGE_SIZE + 8, 100L);
+        assertEquals(100L, resumed.readLong(2 * Memory.PAGE_SIZE + 8));
+    }
+
+    @Test
+    public void valuesSpanningPages() {
+        PagedMemory memory = new PagedMemory(new MemoryLimits(2));
+        int addr = Memory.PAGE_SIZE - 3;
+        memory.writeLong(addr, -2L);
+        assertEquals(-2L, memory.readLong(addr));
+
+        byte[] data = {1, 2, 3, 4, 5, 6};
+        memory.write(addr, data, 0, data.length);
+        assertArrayEquals(data, memory.readBytes(addr, data.length));
+    }
+
+    @Test
+    public void overlappingCopy() {
+        PagedMemory memory = new PagedMemory(new MemoryLimits(3));
+        for (int i = 0; i < 100; i++) {
+            memory.writeByte(Memory.PAGE_SIZE - 50 + i, (byte) i);
+        }
+        memory.copy(Memory.PAGE_SIZE - 40, Memory.PAGE_SIZE - 50, 100);
+        for (int i = 0; i < 100; i++) {
+            assertEquals((byte) i, memory.read(Memory.PAGE_SIZE - 40 + i));
+        }
+    }
+
+    @Test
+    public void growAndBounds() {
+        PagedMemory memory = new PagedMemory(new MemoryLimits(1, 2));
+        assertThrows(WasmRuntimeException.class, () -> memory.readInt(Memory.PAGE_SIZE - 2));
+        assertEquals(1, memory.grow(1));
+        assertEquals(0, memory.readInt(Memory.PAGE_SIZE - 2));
+        assertEquals(-1, memory.grow(1));
+    }
+}
@@ -0,0 +1,49 @@
+package io.roastedroot.pglite4j.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PgdataArchiveTest {
+
+    @Test
+    public void roundTrip(@TempDir Path dir) throws IOException {
+        for (boolean gzip : new boolean[] {false, true}) {
+            Path pgdata = dir.resolve("pgdata-" + gzip);
+            Files.createDirectories(pgdata.resolve("base/1"));
+            Files.write(pgdata.resolve("PG_VERSION"), "17\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(pgdata.resolve("base/1/1259"), new byte[100_000]);
+            Files.write(pgdata.resolve("base/1/empty"), new byte[0]);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PgdataArchive.write(pgdata, out, gzip);
+            Map<String, byte[]> files =
+                    PgdataArchive.read(new ByteArrayInputStream(out.toByteArray()));
+
+            assertEquals(
+                    List.of("PG_VERSION", "base/1/1259", "base/1/empty"),
+                    List.copyOf(files.keySet()));
+            assertArrayEquals("17\n".getBytes(StandardCharsets.UTF_8), files.get("PG_VERSION"));
+            assertEquals(100_000, files.get("base/1/1259").length);
+            assertEquals(0, files.get("base/1/empty").length);
+        }
+    }
+
+    @Test
+    public void rejectsOtherContent() {
+        byte[] manifest = "pgdata/PG_VERSION\n".getBytes(StandardCharsets.UTF_8);
+        assertThrows(
+                IOException.class, () -> PgdataArchive.read(new ByteArrayInputStream(manifest)));
+    }
+}
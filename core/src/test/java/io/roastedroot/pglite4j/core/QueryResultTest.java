@@ -0,0 +1,92 @@
+package io.roastedroot.pglite4j.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+public class QueryResultTest {
+
+    @Test
+    public void decodesBinaryAndTextColumns() {
+        ByteBuffer data = ByteBuffer.allocate(64);
+        data.putLong(1L << 40); // int8 at 0
+        data.putInt(-7); // int4 at 8
+        data.putDouble(2.5); // float8 at 12
+        data.put((byte) 1); // bool at 20
+        data.put("3.14".getBytes(StandardCharsets.US_ASCII)); // numeric as text at 21
+        data.put("héllo".getBytes(StandardCharsets.UTF_8)); // text at 25, 6 bytes
+        QueryResult result =
+                new QueryResult(
+                        new String[] {"big", "small", "ratio", "flag", "amount", "name"},
+                        new int[] {
+                            QueryResult.INT8,
+                            QueryResult.INT4,
+                            QueryResult.FLOAT8,
+                            QueryResult.BOOL,
+                            1700, // numeric
+                            QueryResult.TEXT
+                        },
+                        new short[] {1, 1, 1, 1, 0, 1},
+                        data.array(),
+                        new int[] {0, 8, 12, 20, 21, 25, -1, -1, -1, -1, -1, -1},
+                        new int[] {8, 4, 8, 1, 4, 6, 0, 0, 0, 0, 0, 0},
+                        2,
+                        "SELECT 2");
+
+        assertEquals(2, result.rowsAffected());
+        assertEquals(4, result.column("amount"));
+        assertTrue(result.next());
+        assertEquals(1L << 40, result.getLong(0));
+        assertThrows(ArithmeticException.class, () -> result.getInt(0));
+        assertEquals(-7, result.getInt(1));
+        assertEquals(2.5, result.getDouble(2));
+        assertTrue(result.getBoolean(3));
+        assertEquals("t", result.getString(3));
+        assertEquals(3.14, result.getDouble(4));
+        assertEquals("3.14", result.getString(4));
+        assertEquals("héllo", result.getString(5));
+        assertArrayEquals("héllo".getBytes(StandardCharsets.UTF_8), result.getBytes(5));
+
+        assertTrue(result.next());
+        assertTrue(result.isNull(0));
+        assertEquals(0, result.getLong(0));
+        assertFalse(result.getBoolean(3));
+        assertNull(result.getString(5));
+        assertFalse(result.next());
+        assertThrows(IllegalStateException.class, () -> result.getLong(0));
+    }
+
+    @Test
+    public void commandTags() {
+        QueryResult ddl =
+                new QueryResult(
+                        new String[0],
+                        new int[0],
+                        new short[0],
+                        new byte[0],
+                        new int[0],
+                        new int[0],
+                        0,
+                        "CREATE TABLE");
+        assertEquals(-1, ddl.rowsAffected());
+        assertEquals(
+                3,
+                new QueryResult(
+                                new String[0],
+                                new int[0],
+                                new short[0],
+                                new byte[0],
+                                new int[0],
+                                new int[0],
+                                0,
+                                "INSERT 0 3")
+                        .rowsAffected());
+    }
+}
@@ -0,0 +1,32 @@
+package io.roastedroot.pglite4j.core;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class QuerySessionTest {
+
+    @Test
+    public void recognizesCopyFromStdin() {
+        assertTrue(QuerySession.isCopyFromStdin("COPY items FROM STDIN"));
+        assertTrue(QuerySession.isCopyFromStdin("  copy items (id, label) from stdin;  "));
+        assertTrue(
+                QuerySession.isCopyFromStdin(
+                        "/* load */ COPY \"from\" FROM STDIN WITH (FORMAT csv, DELIMITER ';')"));
+        assertTrue(QuerySession.isCopyFromStdin("-- data\nCOPY items FROM stdin (FORMAT binary)"));
+
+        assertFalse(QuerySession.isCopyFromStdin("DELETE FROM items"));
+        assertFalse(QuerySession.isCopyFromStdin("SELECT 1"));
+        assertFalse(QuerySession.isCopyFromStdin("COPY items TO STDOUT"));
+        assertFalse(QuerySession.isCopyFromStdin("COPY items FROM '/etc/passwd'"));
+        assertFalse(QuerySession.isCopyFromStdin("COPY items FROM PROGRAM 'true'"));
+        assertFalse(QuerySession.isCopyFromStdin("COPY items FROM STDIN; DELETE FROM items"));
+        assertFalse(QuerySession.isCopyFromStdin("DELETE FROM items; COPY items FROM STDIN"));
+        assertFalse(QuerySession.isCopyFromStdin("COPY items FROM STDIN /* unterminated"));
+        assertFalse(QuerySession.isCopyFromStdin("COPY (SELECT 'FROM STDIN') TO STDOUT"));
+        assertFalse(
+                QuerySession.isCopyFromStdin(
+                        "COPY items FROM STDIN WITH (DELIMITER E'\\';'); DROP TABLE items"));
+    }
+}
@@ -0,0 +1,104 @@
+package io.roastedroot.pglite4j.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+public class ReplyScannerTest {
+
+    @Test
+    public void expectationFollowsTheLastMessage() {
+        assertEquals(ReplyScanner.EXPECT_READY, expect(tagged('Q', "SELECT 1\0")));
+        assertEquals(
+                ReplyScanner.EXPECT_READY,
+                expect(concat(tagged('P', "\0SELECT 1\0\0\0"), tagged('S', ""))));
+        assertEquals(
+                ReplyScanner.EXPECT_IDLE,
+                expect(concat(tagged('P', "\0SELECT 1\0\0\0"), tagged('H', ""))));
+        assertEquals(ReplyScanner.EXPECT_IDLE, expect(tagged('d', "1\t2\n")));
+        assertEquals(ReplyScanner.EXPECT_AUTH, expect(tagged('p', "password\0")));
+        byte[] startup = ByteBuffer.allocate(9).putInt(9).putInt(3 << 16).put((byte) 0).array();
+        assertEquals(ReplyScanner.EXPECT_AUTH, expect(startup));
+        byte[] ssl = ByteBuffer.allocate(8).putInt(8).putInt(80877103).array();
+        assertEquals(ReplyScanner.EXPECT_IDLE, expect(ssl));
+    }
+
+    @Test
+    public void readyForQueryAcrossChunks() {
+        ReplyScanner scanner = new ReplyScanner();
+        byte[] reply =
+                concat(tagged('T', "xxxxxxxx"), tagged('D', "row"), tagged('C', "SELECT 1\0"));
+        byte[] ready = tagged('Z', "T");
+        scanner.scan(reply, 0, 7);
+        scanner.scan(reply, 7, reply.length - 7);
+        assertFalse(scanner.complete(ReplyScanner.EXPECT_READY));
+        scanner.scan(ready, 0, 3);
+        assertFalse(scanner.complete(ReplyScanner.EXPECT_READY));
+        assertEquals(0, scanner.readyForQueryStatus());
+        scanner.scan(ready, 3, ready.length - 3);
+        assertTrue(scanner.complete(ReplyScanner.EXPECT_READY));
+        assertEquals('T', scanner.readyForQueryStatus());
+        // nothing is ever complete when the request expects nothing in particular
+        assertFalse(scanner.complete(ReplyScanner.EXPECT_IDLE));
+    }
+
+    @Test
+    public void authenticationChallenge() {
+        ReplyScanner scanner = new ReplyScanner();
+        byte[] md5 =
+                ByteBuffer.allocate(13).put((byte) 'R').putInt(12).putInt(5).putInt(42).array();
+        scanner.scan(md5, 0, md5.length);
+        assertTrue(scanner.complete(ReplyScanner.EXPECT_AUTH));
+
+        scanner.reset();
+        byte[] ok = ByteBuffer.allocate(9).put((byte) 'R').putInt(8).putInt(0).array();
+        scanner.scan(ok, 0, ok.length);
+        assertFalse(scanner.complete(ReplyScanner.EXPECT_AUTH));
+    }
+
+    @Test
+    public void copyInEndsTheReply() {
+        ReplyScanner scanner = new ReplyScanner();
+        byte[] copyIn = tagged('G', "\0\0\1\0\0");
+        scanner.scan(copyIn, 0, copyIn.length);
+        assertTrue(scanner.complete(ReplyScanner.EXPECT_READY));
+    }
+
+    @Test
+    public void countsErrorResponses() {
+        ReplyScanner scanner = new ReplyScanner();
+        byte[] error = concat(tagged('E', "SERROR\0C22012\0\0"), tagged('Z', "E"));
+        scanner.scan(error, 0, 4);
+        scanner.reset();
+        scanner.scan(error, 0, error.length);
+        scanner.scan(error, 0, error.length);
+        assertEquals(2, scanner.takeErrors());
+        assertEquals(0, scanner.takeErrors());
+        assertEquals('E', scanner.readyForQueryStatus());
+    }
+
+    private static int expect(byte[] request) {
+        return ReplyScanner.expectation(ByteBuffer.wrap(request));
+    }
+
+    private static byte[] tagged(char type, String body) {
+        byte[] b = body.getBytes();
+        return ByteBuffer.allocate(5 + b.length)
+                .put((byte) type)
+                .putInt(4 + b.length)
+                .put(b)
+                .array();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] p : parts) {
+            out.writeBytes(p);
+        }
+        return out.toByteArray();
+    }
+}
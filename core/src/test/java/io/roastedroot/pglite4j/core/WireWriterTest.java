@@ -0,0 +1,36 @@
+package io.roastedroot.pglite4j.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import org.junit.jupiter.api.Test;
+
+public class WireWriterTest {
+
+    @Test
+    public void copyDataFillsEachMessage() throws IOException {
+        ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(new byte[25_000]));
+        WireWriter writer = new WireWriter();
+        int[] sizes = new int[4];
+        for (int i = 0; i < sizes.length; i++) {
+            writer.reset();
+            sizes[i] = writer.copyData(in, 10_000);
+            if (sizes[i] > 0) {
+                ByteBuffer message = writer.buffer();
+                assertEquals('d', message.get(0));
+                assertEquals(4 + sizes[i], message.getInt(1));
+                assertEquals(5 + sizes[i], message.remaining());
+            } else {
+                assertEquals(0, writer.buffer().remaining());
+            }
+        }
+        assertEquals(10_000, sizes[0]);
+        assertEquals(10_000, sizes[1]);
+        assertEquals(5_000, sizes[2]);
+        assertEquals(-1, sizes[3]);
+    }
+}
@@ -0,0 +1,99 @@
+package io.roastedroot.pglite4j.jdbc;
+
+import io.roastedroot.pglite4j.core.LatencyHistogram;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands the single PGLite backend over between client sessions.
+ *
+ * <p>A session takes the backend before sending a pipeline and keeps it until a reply ends with
+ * ReadyForQuery in the idle state: a transaction block, a handshake or a COPY is never interleaved
+ * with another session's traffic. Waiting sessions are served first come, first served, and give
+ * up after the configured timeout.
+ */
+final class BackendScheduler {
+    private final String name;
+    private final Semaphore backend = new Semaphore(1, true);
+    private volatile long timeoutMillis;
+    private volatile Object owner;
+
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final LatencyHistogram waits = new LatencyHistogram();
+
+    BackendScheduler(String name, long timeoutMillis) {
+        this.name = name;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /** Returns false if {@code session} could not get the backend within the timeout. */
+    boolean acquire(Object session) throws InterruptedException {
+        if (owner == session) {
+            return true;
+        }
+        QueueWaitEvent event = null;
+        if (QueueWaitEvent.isTypeEnabled()) {
+            event = new QueueWaitEvent();
+            event.begin();
+        }
+        long start = System.nanoTime();
+        boolean acquired = backend.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+        long waited = System.nanoTime() - start;
+        if (acquired) {
+            owner = session;
+            acquisitions.incrementAndGet();
+            waits.record(waited);
+        } else {
+            timeouts.incrementAndGet();
+        }
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.instance = name;
+                event.queueLength = backend.getQueueLength();
+                event.timedOut = !acquired;
+                event.commit();
+            }
+        }
+        return acquired;
+    }
+
+    void release(Object session) {
+        if (owner == session) {
+            owner = null;
+            backend.release();
+        }
+    }
+
+    boolean owns(Object session) {
+        return owner == session;
+    }
+
+    long timeoutMillis() {
+        return timeoutMillis;
+    }
+
+    // === Metrics ===
+
+    int queueLength() {
+        return backend.getQueueLength();
+    }
+
+    long acquisitions() {
+        return acquisitions.get();
+    }
+
+    long timeouts() {
+        return timeouts.get();
+    }
+
+    LatencyHistogram waits() {
+        return waits;
+    }
+}
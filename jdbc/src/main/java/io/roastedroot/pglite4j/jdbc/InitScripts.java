@@ -0,0 +1,146 @@
+package io.roastedroot.pglite4j.jdbc;
+
+import io.roastedroot.pglite4j.core.PGLite;
+import io.roastedroot.pglite4j.core.PGLiteException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SQL scripts run on a database when the driver boots it ({@code init=}), and the directory where
+ * the result is kept as an image so that later boots, in this JVM or the next ones, skip them
+ * ({@code imageCache=}).
+ *
+ * <p>The image is named after a hash of the scripts' content: editing a script boots from scratch
+ * once and saves a new image next to the old one. An image that can't be loaded (another PGLite
+ * build, a damaged file) is replaced the same way.
+ */
+final class InitScripts {
+    private static final Logger LOG = Logger.getLogger(InitScripts.class.getName());
+    private static final String CLASSPATH_PREFIX = "classpath:";
+
+    private final List<String> scripts;
+    private final Path imageCache;
+    private final String key;
+
+    private InitScripts(List<String> scripts, Path imageCache, String key) {
+        this.scripts = scripts;
+        this.imageCache = imageCache;
+        this.key = key;
+    }
+
+    /**
+     * Reads the comma-separated {@code init} scripts, each a file or a {@code classpath:}
+     * resource; null when there are none.
+     */
+    static InitScripts parse(String init, String imageCache) throws SQLException {
+        if (init == null) {
+            if (imageCache != null) {
+                throw new SQLException("PGLite imageCache needs init scripts to cache");
+            }
+            return null;
+        }
+        List<String> scripts = new ArrayList<>();
+        MessageDigest digest = sha256();
+        for (String location : init.split(",")) {
+            location = location.trim();
+            if (location.isEmpty()) {
+                continue;
+            }
+            byte[] content = read(location);
+            digest.update(Integer.toString(content.length).getBytes(StandardCharsets.US_ASCII));
+            digest.update((byte) 0);
+            digest.update(content);
+            scripts.add(new String(content, StandardCharsets.UTF_8));
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return new InitScripts(
+                scripts, imageCache == null ? null : Paths.get(imageCache), key.toString());
+    }
+
+    /** Hex SHA-256 of the scripts, in order. */
+    String key() {
+        return key;
+    }
+
+    Path image() {
+        return imageCache == null ? null : imageCache.resolve("pglite-" + key + ".image");
+    }
+
+    /** Builds an initialized database: from the cached image, else by running the scripts. */
+    PGLite boot(PGLite.Builder builder) {
+        Path image = image();
+        if (image != null && Files.exists(image)) {
+            try {
+                return builder.fromImage(image).build();
+            } catch (RuntimeException e) {
+                LOG.log(Level.INFO, "Ignoring PGLite image " + image + ", booting from scratch", e);
+                builder.fromImage(null);
+            }
+        }
+        PGLite pgLite = builder.build();
+        try {
+            for (String script : scripts) {
+                pgLite.execute(script);
+            }
+        } catch (PGLiteException e) {
+            pgLite.close();
+            throw new RuntimeException("Failed to run the PGLite init scripts", e);
+        }
+        if (image != null) {
+            try {
+                Files.createDirectories(imageCache);
+                pgLite.saveImage(image);
+            } catch (IOException | RuntimeException e) {
+                // only the next boots are slower
+                LOG.log(Level.WARNING, "Failed to save PGLite image " + image, e);
+            }
+        }
+        return pgLite;
+    }
+
+    private static byte[] read(String location) throws SQLException {
+        try {
+            if (!location.startsWith(CLASSPATH_PREFIX)) {
+                return Files.readAllBytes(Paths.get(location));
+            }
+            String resource = location.substring(CLASSPATH_PREFIX.length());
+            if (resource.startsWith("/")) {
+                resource = resource.substring(1);
+            }
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            if (loader == null) {
+                loader = InitScripts.class.getClassLoader();
+            }
+            try (InputStream in = loader.getResourceAsStream(resource)) {
+                if (in == null) {
+                    throw new SQLException("PGLite init script not found: " + location);
+                }
+                return in.readAllBytes();
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new SQLException("Failed to read the PGLite init script " + location, e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package io.roastedroot.pglite4j.jdbc;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Independent databases handed out one per connection ({@code isolation=per-connection}): each
+ * connection gets a PGLite instance of its own, forked from a template, which is rewound to its
+ * initial state when the connection closes and goes back to the pool for the next one.
+ *
+ * <p>Up to {@code instances} members exist at a time. They are forked ahead of demand on a
+ * background thread, so opening a connection rarely waits for one. Members idle for longer than
+ * the idle timeout are closed, and while the members hold more than the memory budget (their
+ * private memory pages plus their data files) no new one is forked and returning ones are closed
+ * instead of kept: a connection then waits for a member, up to the queue timeout.
+ */
+final class InstancePool {
+    private final String name;
+    private final PgLiteDriver.ManagedInstance template;
+    private final boolean ownsTemplate;
+    private final int maxInstances;
+    private final long idleTimeoutMillis;
+    private final long maxMemoryBytes;
+    private final ScheduledExecutorService background;
+    // most recently returned first, so that the members in use stay few and warm
+    private final ArrayDeque<PgLiteDriver.ManagedInstance> idle = new ArrayDeque<>();
+    private final Map<PgLiteDriver.ManagedInstance, Long> idleSince = new HashMap<>();
+    private final List<PgLiteDriver.ManagedInstance> members = new ArrayList<>();
+    // members being forked, counted against maxInstances already
+    private int forking;
+    private int nextId;
+    private boolean closed;
+
+    InstancePool(
+            String name,
+            PgLiteDriver.ManagedInstance template,
+            boolean ownsTemplate,
+            int maxInstances,
+            long idleTimeoutMillis,
+            long maxMemoryBytes) {
+        this.name = name;
+        this.template = template;
+        this.ownsTemplate = ownsTemplate;
+        this.maxInstances = maxInstances;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.background =
+                Executors.newSingleThreadScheduledExecutor(
+                        r -> {
+                            Thread thread = new Thread(r, "pglite-pool");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        for (int i = 0; i < maxInstances; i++) {
+            background.execute(this::warm);
+        }
+        long period = Math.max(idleTimeoutMillis / 2, 1000);
+        background.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes an idle member, forking one if the pool may grow, otherwise waits up to {@code
+     * timeoutMillis} for one to be returned.
+     */
+    PgLiteDriver.ManagedInstance acquire(long timeoutMillis) throws SQLException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (this) {
+            while (true) {
+                if (closed) {
+                    throw new SQLException("PGLite instance pool is closed: " + name);
+                }
+                PgLiteDriver.ManagedInstance member = idle.pollFirst();
+                if (member != null) {
+                    idleSince.remove(member);
+                    if (idle.isEmpty() && canGrow()) {
+                        background.execute(this::warm);
+                    }
+                    return member;
+                }
+                if (canGrow()) {
+                    forking++;
+                    break;
+                }
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    throw new SQLException(
+                            "No PGLite instance of "
+                                    + name
+                                    + " free within "
+                                    + timeoutMillis
+                                    + " ms, all "
+                                    + members.size()
+                                    + " in use",
+                            "55P03");
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted waiting for a PGLite instance", e);
+                }
+            }
+        }
+        return fork();
+    }
+
+    /**
+     * Takes back {@code member}, already rewound, after its connection closed; one whose backend
+     * failed is closed instead.
+     */
+    void release(PgLiteDriver.ManagedInstance member) {
+        synchronized (this) {
+            if (!members.contains(member) || idleSince.containsKey(member)) {
+                return;
+            }
+            if (!closed && member.failure() == null && memoryBytes() <= maxMemoryBytes) {
+                idle.addFirst(member);
+                idleSince.put(member, System.nanoTime());
+                notifyAll();
+                return;
+            }
+            members.remove(member);
+            notifyAll();
+        }
+        retire(member);
+    }
+
+    /** Members alive, idle or handed out. */
+    synchronized int size() {
+        return members.size();
+    }
+
+    void close() {
+        List<PgLiteDriver.ManagedInstance> all;
+        synchronized (this) {
+            closed = true;
+            all = new ArrayList<>(members);
+            members.clear();
+            idle.clear();
+            idleSince.clear();
+            notifyAll();
+        }
+        background.shutdownNow();
+        for (PgLiteDriver.ManagedInstance member : all) {
+            retire(member);
+        }
+        if (ownsTemplate) {
+            template.close();
+        }
+    }
+
+    /** Parses a byte count with an optional k, m or g suffix (powers of 1024), e.g. {@code 512m}. */
+    static long parseSize(String size) throws SQLException {
+        String s = size.trim().toLowerCase(Locale.ROOT);
+        int shift = 0;
+        if (s.endsWith("k")) {
+            shift = 10;
+        } else if (s.endsWith("m")) {
+            shift = 20;
+        } else if (s.endsWith("g")) {
+            shift = 30;
+        }
+        try {
+            long n = Long.parseLong(shift == 0 ? s : s.substring(0, s.length() - 1));
+            if (n < 0 || n > Long.MAX_VALUE >> shift) {
+                throw new SQLException("Invalid PGLite size: " + size);
+            }
+            return n << shift;
+        } catch (NumberFormatException e) {
+            throw new SQLException("Invalid PGLite size: " + size, e);
+        }
+    }
+
+    // === Members ===
+
+    // Whether another member may be forked; called with the lock held. Under a memory budget
+    // members are forked one at a time, since a member's size is only known once it exists.
+    private boolean canGrow() {
+        if (members.size() + forking >= maxInstances) {
+            return false;
+        }
+        return maxMemoryBytes == Long.MAX_VALUE || (forking == 0 && memoryBytes() < maxMemoryBytes);
+    }
+
+    private long memoryBytes() {
+        if (maxMemoryBytes == Long.MAX_VALUE) {
+            return 0; // no budget, don't bother counting
+        }
+        long total = 0;
+        for (PgLiteDriver.ManagedInstance member : members) {
+            total += member.footprintBytes();
+        }
+        return total;
+    }
+
+    // Forks a member for the caller, who already counted it in forking.
+    private PgLiteDriver.ManagedInstance fork() throws SQLException {
+        String path;
+        synchronized (this) {
+            path = name + "#" + nextId++;
+        }
+        PgLiteDriver.ManagedInstance member;
+        try {
+            member = template.fork(path);
+            member.joinPool(this);
+            PgLiteDriver.register(member);
+        } catch (SQLException e) {
+            forkFailed();
+            throw e;
+        } catch (RuntimeException e) {
+            forkFailed();
+            throw new SQLException("Failed to fork a PGLite instance of " + name, e);
+        }
+        synchronized (this) {
+            forking--;
+            if (!closed) {
+                members.add(member);
+                return member;
+            }
+        }
+        retire(member);
+        throw new SQLException("PGLite instance pool is closed: " + name);
+    }
+
+    private synchronized void forkFailed() {
+        forking--;
+        notifyAll();
+    }
+
+    private void warm() {
+        synchronized (this) {
+            if (closed || !canGrow()) {
+                return;
+            }
+            forking++;
+        }
+        PgLiteDriver.ManagedInstance member;
+        try {
+            member = fork();
+        } catch (SQLException e) {
+            return; // the next connection forks one itself, and reports the failure
+        }
+        release(member);
+    }
+
+    private void evictIdle() {
+        List<PgLiteDriver.ManagedInstance> evicted = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            for (PgLiteDriver.ManagedInstance member : new ArrayList<>(idle)) {
+                if (now - idleSince.get(member)
+                        >= TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis)) {
+                    idle.remove(member);
+                    idleSince.remove(member);
+                    members.remove(member);
+                    evicted.add(member);
+                }
+            }
+        }
+        for (PgLiteDriver.ManagedInstance member : evicted) {
+            retire(member);
+        }
+    }
+
+    private static void retire(PgLiteDriver.ManagedInstance member) {
+        PgLiteDriver.unregister(member);
+        member.close();
+    }
+}
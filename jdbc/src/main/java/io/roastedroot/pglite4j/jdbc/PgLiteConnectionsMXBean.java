@@ -0,0 +1,42 @@
+package io.roastedroot.pglite4j.jdbc;
+
+/**
+ * Management view of the connections sharing one database, registered on the platform MBean server
+ * as {@code io.roastedroot.pglite4j:type=Connections,name=<database>} next to the engine's {@code
+ * type=PGLite} bean of the same name.
+ */
+public interface PgLiteConnectionsMXBean {
+    int getOpenConnections();
+
+    /** Connections currently waiting for the backend. */
+    int getQueueLength();
+
+    /** Turns on the backend handed to connections, each lasting until the connection is idle. */
+    long getAcquisitions();
+
+    /** Requests that failed because the backend did not free up within the queue timeout. */
+    long getTimeouts();
+
+    long getQueueWaitTimeMillis();
+
+    long getQueueWaitP50Micros();
+
+    long getQueueWaitP99Micros();
+
+    long getQueueWaitMaxMicros();
+
+    /** Times the backend was rewound or rebooted after a trap it could not recover from. */
+    long getBackendResets();
+
+    /** Read-only forks serving reads ({@code replicas=K}), 0 if not enabled. */
+    int getReplicas();
+
+    /** Requests served by a replica instead of the primary. */
+    long getReplicaReads();
+
+    /** Times a replica was forked again because the primary had run something since. */
+    long getReplicaRefreshes();
+
+    /** Reads sent back to the primary after a replica refused to write or failed. */
+    long getReplicaFallbacks();
+}
@@ -0,0 +1,96 @@
+package io.roastedroot.pglite4j.jdbc;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * A {@link DataSource} for a {@code jdbc:pglite:} URL, for frameworks and pools that take one
+ * rather than a URL. Every connection is opened by {@link PgLiteDriver} with the URL's options,
+ * without going through {@link java.sql.DriverManager}.
+ */
+public final class PgLiteDataSource implements DataSource {
+    private final String url;
+    private final Properties properties;
+    private PrintWriter logWriter;
+    private int loginTimeout;
+
+    public PgLiteDataSource(String url) {
+        this(url, new Properties());
+    }
+
+    /** {@code properties} are connection properties, as given to {@link PgLiteDriver#connect}. */
+    public PgLiteDataSource(String url, Properties properties) {
+        if (!new PgLiteDriver().acceptsURL(url)) {
+            throw new IllegalArgumentException("Not a PGLite URL: " + url);
+        }
+        this.url = url;
+        this.properties = new Properties();
+        this.properties.putAll(properties);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return new PgLiteDriver().connect(url, properties);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        Properties props = new Properties();
+        props.putAll(properties);
+        props.setProperty("user", username);
+        props.setProperty("password", password);
+        return new PgLiteDriver().connect(url, props);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        this.loginTimeout = seconds;
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return loginTimeout;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    @Override
+    public String toString() {
+        return "PgLiteDataSource[" + url + "]";
+    }
+}
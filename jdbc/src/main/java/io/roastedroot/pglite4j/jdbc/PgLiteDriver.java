@@ -1,29 +1,76 @@
 package io.roastedroot.pglite4j.jdbc;
 
+import io.roastedroot.pglite4j.core.CopyResult;
 import io.roastedroot.pglite4j.core.PGLite;
+import io.roastedroot.pglite4j.core.PGLiteException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.DriverPropertyInfo;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
-import java.util.Arrays;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 public final class PgLiteDriver implements Driver {
 
     private static final String URL_PREFIX = "jdbc:pglite:";
+    private static final String MEMORY_PREFIX = "memory://";
+    private static final String FILE_PREFIX = "file://";
+    // Driver options, taken from the URL query string or the connection properties.
+    static final String TRANSPORT = "transport";
+    static final String TRANSPORT_SOCKET = "socket";
+    static final String TRANSPORT_INPROCESS = "inprocess";
+    static final String TEMPLATE = "template";
+    static final String RESET_ON = "resetOn";
+    static final String RESET_ON_CLOSE = "close";
+    static final String QUEUE_TIMEOUT = "queueTimeout";
+    static final String STATEMENT_STATS = "statementStats";
+    static final String REPLICAS = "replicas";
+    static final String ISOLATION = "isolation";
+    static final String ISOLATION_SHARED = "shared";
+    static final String ISOLATION_PER_CONNECTION = "per-connection";
+    static final String INSTANCES_OPTION = "instances";
+    static final String IDLE_TIMEOUT = "idleTimeout";
+    static final String MAX_MEMORY = "maxMemory";
+    static final String INIT = "init";
+    static final String IMAGE_CACHE = "imageCache";
+    static final long DEFAULT_QUEUE_TIMEOUT_MS = 30_000;
+    static final long DEFAULT_IDLE_TIMEOUT_MS = 60_000;
     private static final ConcurrentHashMap<String, ManagedInstance> INSTANCES =
             new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, InstancePool> POOLS = new ConcurrentHashMap<>();
+    // template= forks in progress, by data path, see getOrFork()
+    private static final ConcurrentHashMap<String, CompletableFuture<ManagedInstance>> FORKING =
+            new ConcurrentHashMap<>();
 
     static {
         try {
@@ -35,6 +82,13 @@ public final class PgLiteDriver implements Driver {
                 .addShutdownHook(
                         new Thread(
                                 () -> {
+                                    for (InstancePool pool : POOLS.values()) {
+                                        try {
+                                            pool.close();
+                                        } catch (RuntimeException e) {
+                                            // best effort during shutdown
+                                        }
+                                    }
                                     for (ManagedInstance inst : INSTANCES.values()) {
                                         try {
                                             inst.close();
@@ -51,27 +105,376 @@ public final class PgLiteDriver implements Driver {
             return null;
         }
 
-        String dataPath = url.substring(URL_PREFIX.length());
-        ManagedInstance instance =
-                INSTANCES.computeIfAbsent(
-                        dataPath,
-                        k -> {
-                            ManagedInstance inst = new ManagedInstance();
-                            inst.boot();
-                            return inst;
-                        });
-
         Properties props = new Properties();
         if (info != null) {
             props.putAll(info);
         }
+        String dataPath = parseUrl(url, props);
+        String transport = (String) props.remove(TRANSPORT);
+        if (transport == null) {
+            transport = TRANSPORT_SOCKET;
+        }
+
+        if (!transport.equals(TRANSPORT_SOCKET) && !transport.equals(TRANSPORT_INPROCESS)) {
+            throw new SQLException("Unknown PGLite transport: " + transport);
+        }
+        String resetOn = (String) props.remove(RESET_ON);
+        if (resetOn != null && !resetOn.equals(RESET_ON_CLOSE)) {
+            throw new SQLException("Unknown PGLite resetOn value: " + resetOn);
+        }
+        if (resetOn != null && dataDir(dataPath) != null) {
+            throw new SQLException("PGLite resetOn=close needs an in-memory database: " + dataPath);
+        }
+        boolean statementStats = Boolean.parseBoolean((String) props.remove(STATEMENT_STATS));
+        String queueTimeout = (String) props.remove(QUEUE_TIMEOUT);
+        long queueTimeoutMillis = DEFAULT_QUEUE_TIMEOUT_MS;
+        if (queueTimeout != null) {
+            try {
+                queueTimeoutMillis = Long.parseLong(queueTimeout);
+            } catch (NumberFormatException e) {
+                throw new SQLException("Invalid PGLite queueTimeout: " + queueTimeout, e);
+            }
+        }
+        String template = (String) props.remove(TEMPLATE);
+        InitScripts init =
+                InitScripts.parse((String) props.remove(INIT), (String) props.remove(IMAGE_CACHE));
+        if (init != null && dataDir(template == null ? dataPath : template) != null) {
+            throw new SQLException("PGLite init scripts need an in-memory database: " + dataPath);
+        }
+        InstancePool pool = pool(dataPath, template, init, props);
+        String replicas = (String) props.remove(REPLICAS);
+        int replicaCount = 0;
+        if (replicas != null) {
+            try {
+                replicaCount = Integer.parseInt(replicas);
+            } catch (NumberFormatException e) {
+                throw new SQLException("Invalid PGLite replicas: " + replicas, e);
+            }
+            if (replicaCount < 0) {
+                throw new SQLException("Invalid PGLite replicas: " + replicas);
+            }
+            if (replicaCount > 0 && dataDir(dataPath) != null) {
+                throw new SQLException("PGLite replicas need an in-memory database: " + dataPath);
+            }
+            if (replicaCount > 0 && pool != null) {
+                throw new SQLException(
+                        "PGLite replicas don't apply to per-connection isolation: " + dataPath);
+            }
+        }
+
+        ManagedInstance instance;
+        int lease = 0;
+        if (pool != null) {
+            instance = pool.acquire(queueTimeoutMillis);
+            lease = instance.leased();
+        } else if (template == null || template.equals(dataPath)) {
+            instance = getOrBoot(dataPath, init);
+        } else {
+            // Resolved first: the template must not be booted from inside computeIfAbsent.
+            ManagedInstance source = getOrBoot(template, init);
+            instance = getOrFork(source, dataPath);
+        }
+        RuntimeException failure = instance.failure();
+        if (failure != null) {
+            instance.abandon(lease);
+            throw new SQLException(
+                    "PGLite database "
+                            + dataPath
+                            + " failed and was not restarted, PgLiteDriver.close() discards it",
+                    failure);
+        }
+        if (queueTimeout != null) {
+            instance.setQueueTimeout(queueTimeoutMillis);
+        }
+        if (resetOn != null) {
+            boolean captured;
+            try {
+                captured = instance.resetOnClose();
+            } catch (IOException e) {
+                instance.abandon(lease);
+                throw new SQLException("Failed to checkpoint " + dataPath, e);
+            }
+            if (!captured) {
+                instance.abandon(lease);
+                throw new SQLException(instance.busyMessage(), "55P03");
+            }
+        }
+        if (statementStats) {
+            instance.enableStatementStats();
+        }
+        instance.enableReplicas(replicaCount);
+
         props.putIfAbsent("user", "postgres");
         props.putIfAbsent("password", "password");
         props.setProperty("sslmode", "disable");
         props.setProperty("gssEncMode", "disable");
+        // Connections take turns on one backend session, where named server-side statements
+        // would collide.
+        props.putIfAbsent("prepareThreshold", "0");
+
+        try {
+            String pgUrl;
+            if (transport.equals(TRANSPORT_SOCKET)) {
+                pgUrl = "jdbc:postgresql://127.0.0.1:" + instance.getPort() + "/template1";
+            } else {
+                // The host is never resolved nor dialed: PgLiteSocketFactory hands pgjdbc a
+                // socket wired straight into the instance.
+                pgUrl = "jdbc:postgresql://127.0.0.1/template1";
+                props.setProperty("socketFactory", PgLiteSocketFactory.class.getName());
+                props.setProperty(PgLiteSocketFactory.INSTANCE_PROPERTY, instance.dataPath);
+            }
+            return new org.postgresql.Driver().connect(pgUrl, props);
+        } catch (SQLException | RuntimeException e) {
+            instance.abandon(lease);
+            throw e;
+        }
+    }
+
+    /**
+     * The pool of {@code dataPath} when {@code props} asks for per-connection isolation, created
+     * with the options of the first connection to ask; null for a shared instance.
+     */
+    private static InstancePool pool(
+            String dataPath, String template, InitScripts init, Properties props)
+            throws SQLException {
+        String isolation = (String) props.remove(ISOLATION);
+        String instances = (String) props.remove(INSTANCES_OPTION);
+        String idleTimeout = (String) props.remove(IDLE_TIMEOUT);
+        String maxMemory = (String) props.remove(MAX_MEMORY);
+        if (isolation == null || isolation.equals(ISOLATION_SHARED)) {
+            if (instances != null || idleTimeout != null || maxMemory != null) {
+                throw new SQLException(
+                        "PGLite instances, idleTimeout and maxMemory need isolation="
+                                + ISOLATION_PER_CONNECTION);
+            }
+            return null;
+        }
+        if (!isolation.equals(ISOLATION_PER_CONNECTION)) {
+            throw new SQLException("Unknown PGLite isolation: " + isolation);
+        }
+        if (dataDir(dataPath) != null) {
+            throw new SQLException(
+                    "PGLite per-connection isolation needs an in-memory database: " + dataPath);
+        }
+        InstancePool pool = POOLS.get(dataPath);
+        if (pool != null) {
+            return pool;
+        }
+        int size;
+        long idleTimeoutMillis;
+        try {
+            size =
+                    instances == null
+                            ? Runtime.getRuntime().availableProcessors()
+                            : Integer.parseInt(instances);
+            idleTimeoutMillis =
+                    idleTimeout == null ? DEFAULT_IDLE_TIMEOUT_MS : Long.parseLong(idleTimeout);
+        } catch (NumberFormatException e) {
+            throw new SQLException("Invalid PGLite pool option: " + e.getMessage(), e);
+        }
+        if (size < 1 || idleTimeoutMillis < 0) {
+            throw new SQLException(
+                    "Invalid PGLite pool options: instances="
+                            + size
+                            + ", idleTimeout="
+                            + idleTimeout);
+        }
+        long maxMemoryBytes =
+                maxMemory == null ? Long.MAX_VALUE : InstancePool.parseSize(maxMemory);
+        // Resolved first: the template must not be booted from inside computeIfAbsent.
+        ManagedInstance shared =
+                template == null || template.equals(dataPath) ? null : getOrBoot(template, init);
+        return POOLS.computeIfAbsent(
+                dataPath,
+                k -> {
+                    ManagedInstance source = shared;
+                    if (source == null) {
+                        source = new ManagedInstance(k + "#template");
+                        source.boot(init);
+                    }
+                    return new InstancePool(
+                            k, source, shared == null, size, idleTimeoutMillis, maxMemoryBytes);
+                });
+    }
+
+    /**
+     * Splits a {@code jdbc:pglite:<dataPath>[?key=value&...]} URL. Query parameters are merged
+     * into {@code props}, overriding connection properties with the same name.
+     */
+    static String parseUrl(String url, Properties props) throws SQLException {
+        String rest = url.substring(URL_PREFIX.length());
+        int q = rest.indexOf('?');
+        if (q < 0) {
+            return rest;
+        }
+        for (String pair : rest.substring(q + 1).split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            props.setProperty(decode(key), decode(value));
+        }
+        return rest.substring(0, q);
+    }
+
+    private static String decode(String s) throws SQLException {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            throw new SQLException("Malformed PGLite URL parameter: " + s, e);
+        }
+    }
+
+    private static ManagedInstance getOrBoot(String dataPath) {
+        return getOrBoot(dataPath, null);
+    }
+
+    /** Boots with {@code init} unless already running, whatever it was booted with then. */
+    private static ManagedInstance getOrBoot(String dataPath, InitScripts init) {
+        return INSTANCES.computeIfAbsent(
+                dataPath,
+                k -> {
+                    ManagedInstance inst = new ManagedInstance(k);
+                    inst.boot(init);
+                    return inst;
+                });
+    }
+
+    /**
+     * The fork of {@code source} registered under {@code dataPath}, forked on first use. Not done
+     * in computeIfAbsent, nor under any lock: the fork waits for the source's backend, up to its
+     * queue timeout. Connections to the same {@code dataPath} meanwhile wait for that one fork;
+     * other data paths are not held up.
+     */
+    private static ManagedInstance getOrFork(ManagedInstance source, String dataPath)
+            throws SQLException {
+        ManagedInstance instance = INSTANCES.get(dataPath);
+        if (instance != null) {
+            return instance;
+        }
+        CompletableFuture<ManagedInstance> fork = new CompletableFuture<>();
+        CompletableFuture<ManagedInstance> running = FORKING.putIfAbsent(dataPath, fork);
+        if (running != null) {
+            return awaitFork(running, dataPath);
+        }
+        try {
+            // registered by a fork that completed since the lookup above
+            instance = INSTANCES.get(dataPath);
+            if (instance == null) {
+                instance = source.fork(dataPath);
+                INSTANCES.put(dataPath, instance);
+            }
+            fork.complete(instance);
+            return instance;
+        } catch (SQLException | RuntimeException e) {
+            fork.completeExceptionally(e);
+            throw e;
+        } finally {
+            FORKING.remove(dataPath, fork);
+        }
+    }
+
+    private static ManagedInstance awaitFork(
+            CompletableFuture<ManagedInstance> fork, String dataPath) throws SQLException {
+        try {
+            return fork.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for the fork of " + dataPath, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            String sqlState =
+                    cause instanceof SQLException ? ((SQLException) cause).getSQLState() : null;
+            throw new SQLException(
+                    "Failed to fork " + dataPath + ": " + cause.getMessage(), sqlState, cause);
+        }
+    }
+
+    /**
+     * Host directory of a {@code file://} or absolute path data path, null for in-memory databases.
+     */
+    static Path dataDir(String dataPath) {
+        if (dataPath.startsWith(FILE_PREFIX)) {
+            return Paths.get(dataPath.substring(FILE_PREFIX.length()));
+        }
+        if (dataPath.startsWith(MEMORY_PREFIX) || dataPath.isEmpty()) {
+            return null;
+        }
+        try {
+            Path path = Paths.get(dataPath);
+            return path.isAbsolute() ? path : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    static ManagedInstance lookup(String dataPath) {
+        return INSTANCES.get(dataPath);
+    }
+
+    /** Makes a pool member reachable by {@link PgLiteSocketFactory} under its own data path. */
+    static void register(ManagedInstance member) {
+        INSTANCES.put(member.dataPath, member);
+    }
+
+    static void unregister(ManagedInstance member) {
+        INSTANCES.remove(member.dataPath, member);
+    }
+
+    /**
+     * Statement statistics of the database behind a {@code jdbc:pglite:} URL (query parameters
+     * are ignored), or null when it is not running or was not opened with {@code
+     * statementStats=true}.
+     */
+    public static StatementStats statementStats(String url) throws SQLException {
+        ManagedInstance instance = lookup(parseUrl(url, new Properties()));
+        return instance == null ? null : instance.statementStats;
+    }
+
+    /**
+     * Bulk loads {@code in} into the database behind a {@code jdbc:pglite:} URL with {@code
+     * copySql}, a {@code COPY ... FROM STDIN}, booting the database if needed. The data goes
+     * straight into the backend in CMA-sized chunks, bypassing pgjdbc and the socket; it waits for
+     * the backend like a connection would, and runs outside of any connection's transaction.
+     */
+    public static CopyResult copyIn(String url, String copySql, InputStream in)
+            throws SQLException {
+        ManagedInstance instance = getOrBoot(parseUrl(url, new Properties()));
+        try {
+            return instance.copyIn(copySql, in);
+        } catch (PGLiteException e) {
+            throw new SQLException(e.getMessage(), e.sqlState(), e);
+        } catch (IOException e) {
+            throw new SQLException("Failed to copy into " + url + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A standalone copy of the database behind a {@code jdbc:pglite:} URL, booting it if needed,
+     * for use through the {@link PGLite} API. It shares the database's memory pages copy-on-write,
+     * so it is cheap to take; like a connection, it waits for the backend, which leaves any open
+     * transaction out of the copy.
+     */
+    public static PGLite fork(String url) throws SQLException {
+        return getOrBoot(parseUrl(url, new Properties())).forkIdle();
+    }
 
-        String pgUrl = "jdbc:postgresql://127.0.0.1:" + instance.getPort() + "/template1";
-        return new org.postgresql.Driver().connect(pgUrl, props);
+    /**
+     * Closes the database behind a {@code jdbc:pglite:} URL, and the pool of a per-connection
+     * one, if running: their open connections fail, and the next connection starts it again.
+     */
+    public static void close(String url) throws SQLException {
+        String dataPath = parseUrl(url, new Properties());
+        InstancePool pool = POOLS.remove(dataPath);
+        if (pool != null) {
+            pool.close();
+        }
+        ManagedInstance instance = INSTANCES.remove(dataPath);
+        if (instance != null) {
+            instance.close();
+        }
     }
 
     @Override
@@ -104,34 +507,528 @@ public final class PgLiteDriver implements Driver {
         throw new SQLFeatureNotSupportedException();
     }
 
-    static final class ManagedInstance {
+    static final class ManagedInstance implements PgLiteConnectionsMXBean {
+        // Pending connections beyond this are refused by the OS until the accept loop catches up.
+        private static final int ACCEPT_BACKLOG = 50;
+        private static final byte[] ROLLBACK = simpleQuery("ROLLBACK");
+
+        private final String dataPath;
+        private final BackendScheduler scheduler;
+        // Guards every call into pgLite. Connection bookkeeping stays out of it, so that opening
+        // or closing a connection never waits for a running request.
+        private final ReentrantLock backendLock = new ReentrantLock();
         private PGLite pgLite;
-        private ServerSocket serverSocket;
+        private ObjectName mbeanName;
+        private volatile ServerSocketChannel serverSocket;
         private volatile boolean running;
+        private volatile PGLite.Checkpoint baseline;
+        private final AtomicInteger connections = new AtomicInteger();
+        private volatile StatementStats statementStats;
+        // also read by connections running on replicas, outside the backend lock
+        private final Map<Object, StatementTracker> trackers = new ConcurrentHashMap<>();
+        // transaction status the backend owner was left in, 0 while a reply is still pending
+        private char ownerStatus;
+        private volatile long backendResets;
+        // why the backend was left broken rather than replaced, see backendFailed()
+        private volatile RuntimeException failure;
+        // a copy of another database, which booting from scratch would not bring back
+        private boolean forked;
+        private volatile ReadReplicas replicas;
+        // run on every backend booted from scratch, see newPGLite()
+        private InitScripts init;
+        // set on the members of a per-connection pool, which take them back once closed
+        private InstancePool pool;
+        // how many times the member was handed out, and whether a connection opened since
+        private int lease;
+        private volatile boolean opened;
+        // size of the data files, see footprintBytes()
+        private volatile long dataBytes;
+
+        ManagedInstance(String dataPath) {
+            this.dataPath = dataPath;
+            this.scheduler = new BackendScheduler(dataPath, DEFAULT_QUEUE_TIMEOUT_MS);
+        }
 
-        void boot() {
-            pgLite = PGLite.builder().build();
+        void boot(InitScripts init) {
+            this.init = init;
+            pgLite = newPGLite();
+            running = true;
+            registerMBean();
+        }
+
+        private PGLite newPGLite() {
+            PGLite.Builder builder = PGLite.builder().withName(dataPath);
+            Path dataDir = dataDir(dataPath);
+            if (dataDir != null) {
+                builder.withDataDir(dataDir);
+            }
+            return init == null ? builder.build() : init.boot(builder);
+        }
+
+        /**
+         * A copy of this database under {@code dataPath}, sharing memory pages; taken like {@link
+         * #forkIdle()}, so that it holds no other connection's open transaction.
+         */
+        ManagedInstance fork(String dataPath) throws SQLException {
+            PGLite pgLite = forkIdle();
+            ManagedInstance copy = new ManagedInstance(dataPath);
+            copy.pgLite = pgLite;
+            copy.forked = true;
+            copy.running = true;
             try {
-                serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
-            } catch (IOException e) {
+                copy.registerMBean();
+            } catch (RuntimeException e) {
                 pgLite.close();
-                throw new RuntimeException("Failed to create ServerSocket", e);
+                throw e;
+            }
+            return copy;
+        }
+
+        private void registerMBean() {
+            try {
+                mbeanName =
+                        new ObjectName(
+                                "io.roastedroot.pglite4j:type=Connections,name="
+                                        + ObjectName.quote(dataPath));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, mbeanName);
+            } catch (JMException e) {
+                throw new RuntimeException("Failed to register the MBean for " + dataPath, e);
+            }
+        }
+
+        synchronized int getPort() {
+            if (serverSocket == null) {
+                try {
+                    serverSocket =
+                            ServerSocketChannel.open()
+                                    .bind(
+                                            new InetSocketAddress(
+                                                    InetAddress.getByName("127.0.0.1"), 0),
+                                            ACCEPT_BACKLOG);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to create ServerSocket", e);
+                }
+                Thread acceptThread = new Thread(this::acceptLoop, "pglite-accept");
+                acceptThread.setDaemon(true);
+                acceptThread.start();
+            }
+            return serverSocket.socket().getLocalPort();
+        }
+
+        /**
+         * Captures the current state, unless already done, as soon as no connection holds the
+         * backend, so that no open transaction ends up in it; it is restored every time the last
+         * open connection closes. False if the backend did not free up within the queue timeout.
+         */
+        boolean resetOnClose() throws IOException {
+            if (baseline != null) {
+                return true;
+            }
+            Object session = new Object();
+            if (!acquire(session)) {
+                return false;
+            }
+            backendLock.lock();
+            try {
+                if (baseline == null) {
+                    baseline = pgLite.checkpoint();
+                }
+            } finally {
+                backendLock.unlock();
+                scheduler.release(session);
+            }
+            return true;
+        }
+
+        /** Makes this a member of {@code pool}, rewound and returned to it by its connection. */
+        void joinPool(InstancePool pool) {
+            backendLock.lock();
+            try {
+                this.pool = pool;
+                // no connection opened on it yet, so the backend is idle
+                baseline = pgLite.checkpoint();
+                measureData();
+            } finally {
+                backendLock.unlock();
+            }
+        }
+
+        /** The pool handed this member out to a connection about to open. */
+        synchronized int leased() {
+            opened = false;
+            return ++lease;
+        }
+
+        /**
+         * The connection {@code lease} was for failed to open: returns the member to its pool,
+         * unless the connection got as far as opening and closing, which returned it already.
+         */
+        synchronized void abandon(int lease) {
+            if (pool != null && this.lease == lease && !opened) {
+                pool.release(this);
+            }
+        }
+
+        /**
+         * Memory only this instance holds, its private pages plus its data files as of the last
+         * time it was rewound. Read without the lock, so approximate while a request runs.
+         */
+        long footprintBytes() {
+            return pgLite.stats().getPrivateMemoryBytes() + dataBytes;
+        }
+
+        // Walks the data files, too slow to do on every footprintBytes() call.
+        private void measureData() {
+            dataBytes = Math.max(pgLite.stats().getDataBytes(), 0);
+        }
+
+        /** Why the backend is broken for good, null while it is usable. */
+        RuntimeException failure() {
+            return failure;
+        }
+
+        /** How long a connection waits for the backend before its request fails. */
+        void setQueueTimeout(long millis) {
+            scheduler.setTimeoutMillis(millis);
+        }
+
+        /** Serves reads from {@code count} read-only forks, unless already enabled. */
+        synchronized void enableReplicas(int count) {
+            if (replicas == null && count > 0) {
+                replicas = new ReadReplicas(this, dataPath, count);
+            }
+        }
+
+        /** Like {@link #forkWhenIdle}, failing with 55P03 if the backend did not free up in time. */
+        PGLite forkIdle() throws SQLException {
+            PGLite copy;
+            try {
+                copy = forkWhenIdle(new Object());
+            } catch (IOException e) {
+                throw new SQLException("Failed to fork " + dataPath + ": " + e.getMessage(), e);
+            }
+            if (copy == null) {
+                throw new SQLException(busyMessage(), "55P03");
+            }
+            return copy;
+        }
+
+        /**
+         * Forks the backend as soon as no connection holds it, on behalf of {@code session}; null
+         * if it did not free up within the queue timeout.
+         */
+        PGLite forkWhenIdle(Object session) throws IOException {
+            if (!acquire(session)) {
+                return null;
+            }
+            backendLock.lock();
+            try {
+                return pgLite.fork();
+            } finally {
+                backendLock.unlock();
+                scheduler.release(session);
+            }
+        }
+
+        // Anything the primary runs may write, except the handshake of a new connection.
+        private void primaryRan(byte firstByte) {
+            if (firstByte != 0 && firstByte != 'p') {
+                invalidateReplicas();
+            }
+        }
+
+        private void invalidateReplicas() {
+            ReadReplicas replicas = this.replicas;
+            if (replicas != null) {
+                replicas.invalidate();
+            }
+        }
+
+        synchronized void enableStatementStats() {
+            if (statementStats == null) {
+                statementStats = new StatementStats();
+            }
+        }
+
+        void connectionOpened() {
+            connections.incrementAndGet();
+            opened = true;
+        }
+
+        /**
+         * Unregisters {@code session}. If it still holds the backend, its open transaction is
+         * rolled back so the next connection starts from a clean session.
+         */
+        void connectionClosed(Object session) {
+            ReadReplicas replicas = this.replicas;
+            if (replicas != null) {
+                try {
+                    replicas.connectionClosed(session);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to roll back", e);
+                }
+            }
+            // only the owner touches the backend here, so the others never wait for a request
+            if (scheduler.owns(session)) {
+                backendLock.lock();
+                try {
+                    if (running && (ownerStatus == 'T' || ownerStatus == 'E')) {
+                        pgLite.execProtocolRaw(ROLLBACK, OutputStream.nullOutputStream());
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to roll back", e);
+                } finally {
+                    backendLock.unlock();
+                    release(session);
+                }
+            }
+            trackers.remove(session);
+            if (connections.decrementAndGet() == 0 && running) {
+                lastConnectionClosed();
+            }
+        }
+
+        // Rewinds to the baseline and returns a pool member, unless a connection opened meanwhile:
+        // the rewind is then left to that one.
+        private void lastConnectionClosed() {
+            boolean returned;
+            backendLock.lock();
+            try {
+                if (baseline == null || connections.get() != 0 || !running) {
+                    return;
+                }
+                if (failure == null) {
+                    pgLite.rewind(baseline);
+                    invalidateReplicas();
+                }
+                returned = pool != null;
+                if (returned) {
+                    measureData();
+                }
+            } finally {
+                backendLock.unlock();
+            }
+            if (returned) {
+                pool.release(this);
+            }
+        }
+
+        /**
+         * Forwards raw wire bytes to the backend on behalf of {@code session}, streaming the reply
+         * to {@code out} as it is produced.
+         *
+         * <p>Connections take turns: the first request of a session waits for the backend, which
+         * it keeps until a reply ends with ReadyForQuery outside a transaction block. Returns
+         * false, sending nothing, if the backend did not free up within the queue timeout.
+         */
+        boolean exec(Object session, byte[] message, OutputStream out) throws IOException {
+            ReadReplicas replicas = this.replicas;
+            if (replicas != null
+                    && !scheduler.owns(session)
+                    && replicas.exec(
+                            session, ByteBuffer.wrap(message), tracker(session), out::write)) {
+                return true;
+            }
+            if (!acquire(session)) {
+                return false;
+            }
+            backendLock.lock();
+            try {
+                StatementTracker tracker = tracker(session);
+                try {
+                    if (tracker == null) {
+                        pgLite.execProtocolRaw(message, out);
+                    } else {
+                        tracker.request(message);
+                        pgLite.execProtocolRaw(message, tracker.tap(out));
+                    }
+                } catch (RuntimeException e) {
+                    throw backendFailed(session, e);
+                }
+                settle(session);
+                primaryRan(message.length > 0 ? message[0] : 0);
+            } finally {
+                backendLock.unlock();
+            }
+            return true;
+        }
+
+        boolean exec(Object session, ByteBuffer message, WritableByteChannel out)
+                throws IOException {
+            ReadReplicas replicas = this.replicas;
+            if (replicas != null
+                    && !scheduler.owns(session)
+                    && replicas.exec(
+                            session,
+                            message,
+                            tracker(session),
+                            (b, off, len) -> writeFully(out, ByteBuffer.wrap(b, off, len)))) {
+                return true;
+            }
+            if (!acquire(session)) {
+                return false;
+            }
+            backendLock.lock();
+            try {
+                byte firstByte = message.hasRemaining() ? message.get(message.position()) : 0;
+                StatementTracker tracker = tracker(session);
+                try {
+                    if (tracker == null) {
+                        pgLite.execProtocol(message, out);
+                    } else {
+                        tracker.request(message.duplicate());
+                        pgLite.execProtocol(message, tracker.tap(out));
+                    }
+                } catch (RuntimeException e) {
+                    throw backendFailed(session, e);
+                }
+                settle(session);
+                primaryRan(firstByte);
+            } finally {
+                backendLock.unlock();
+            }
+            return true;
+        }
+
+        CopyResult copyIn(String copySql, InputStream in) throws IOException {
+            Object session = new Object();
+            if (!acquire(session)) {
+                throw new IOException(busyMessage());
+            }
+            backendLock.lock();
+            try {
+                CopyResult result;
+                try {
+                    result = pgLite.copyIn(copySql, in);
+                } catch (PGLiteException | IllegalArgumentException e) {
+                    settle(session);
+                    throw e;
+                } catch (IOException e) {
+                    settle(session);
+                    throw e;
+                } catch (RuntimeException e) {
+                    throw backendFailed(session, e);
+                }
+                settle(session);
+                invalidateReplicas();
+                return result;
+            } finally {
+                backendLock.unlock();
+            }
+        }
+
+        private boolean acquire(Object session) throws IOException {
+            try {
+                return scheduler.acquire(session);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the PGLite backend");
+            }
+        }
+
+        private static void writeFully(WritableByteChannel out, ByteBuffer b) throws IOException {
+            while (b.hasRemaining()) {
+                out.write(b);
             }
-            running = true;
-            Thread acceptThread = new Thread(this::acceptLoop, "pglite-accept");
-            acceptThread.setDaemon(true);
-            acceptThread.start();
         }
 
-        int getPort() {
-            return serverSocket.getLocalPort();
+        private StatementTracker tracker(Object session) {
+            StatementStats stats = statementStats;
+            if (stats == null) {
+                return null;
+            }
+            return trackers.computeIfAbsent(session, s -> new StatementTracker(stats));
+        }
+
+        private void settle(Object session) {
+            ownerStatus = pgLite.readyForQueryStatus();
+            if (ownerStatus == 'I') {
+                release(session);
+            }
+        }
+
+        /**
+         * A request failed inside the engine. Its connection is dropped; if the backend is left
+         * unusable it is rewound to the {@code resetOn=close} baseline or, for in-memory databases
+         * booted from scratch, replaced by a fresh one, so that the other connections can carry on.
+         * A fork or a file-backed database has nothing to be rebuilt from: it is marked failed and
+         * new connections to it are refused.
+         */
+        private IOException backendFailed(Object session, RuntimeException e) {
+            if (pgLite.isBroken() && failure == null) {
+                try {
+                    if (baseline != null) {
+                        pgLite.rewind(baseline);
+                        backendResets++;
+                    } else if (forked || dataDir(dataPath) != null) {
+                        failure = e;
+                    } else {
+                        PGLite fresh = newPGLite();
+                        pgLite.close();
+                        pgLite = fresh;
+                        backendResets++;
+                    }
+                } catch (RuntimeException restart) {
+                    e.addSuppressed(restart);
+                    failure = e;
+                }
+            }
+            invalidateReplicas();
+            trackers.remove(session);
+            release(session);
+            return new IOException("PGLite backend failed: " + e.getMessage(), e);
+        }
+
+        private void release(Object session) {
+            ownerStatus = 0;
+            scheduler.release(session);
+        }
+
+        /**
+         * The reply sent in place of the backend's when the queue timeout expires: an
+         * ErrorResponse, followed by ReadyForQuery unless the connection is still starting up.
+         */
+        private String busyMessage() {
+            return "PGLite backend busy: no turn within "
+                    + scheduler.timeoutMillis()
+                    + " ms, another connection holds it";
+        }
+
+        byte[] busyReply(boolean startup) {
+            String message = busyMessage();
+            ByteBuffer reply = ByteBuffer.allocate(256 + message.length() * 3);
+            int start = reply.position();
+            reply.put((byte) 'E').putInt(0);
+            putField(reply, 'S', "ERROR");
+            putField(reply, 'V', "ERROR");
+            putField(reply, 'C', "55P03"); // lock_not_available
+            putField(reply, 'M', message);
+            reply.put((byte) 0);
+            reply.putInt(start + 1, reply.position() - start - 1);
+            if (!startup) {
+                reply.put((byte) 'Z').putInt(5).put((byte) 'I');
+            }
+            byte[] bytes = new byte[reply.position()];
+            reply.flip().get(bytes);
+            return bytes;
+        }
+
+        private static void putField(ByteBuffer b, char type, String value) {
+            b.put((byte) type).put(value.getBytes(StandardCharsets.UTF_8)).put((byte) 0);
+        }
+
+        static byte[] simpleQuery(String sql) {
+            byte[] text = sql.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer b = ByteBuffer.allocate(text.length + 6);
+            b.put((byte) 'Q').putInt(text.length + 5).put(text).put((byte) 0);
+            return b.array();
         }
 
         private void acceptLoop() {
             while (running) {
                 try {
-                    Socket socket = serverSocket.accept();
-                    handleConnection(socket);
+                    SocketChannel socket = serverSocket.accept();
+                    newConnectionThread(() -> handleConnection(socket)).start();
                 } catch (IOException e) {
                     if (running) {
                         throw new UncheckedIOException(
@@ -141,23 +1038,41 @@ public final class PgLiteDriver implements Driver {
             }
         }
 
-        private void handleConnection(Socket socket) {
+        // Bytes go from the socket into the framer's direct buffer, from there into the WASM
+        // memory, and back out through a direct buffer: no per-request allocation. The socket
+        // channel itself identifies the session.
+        private void handleConnection(SocketChannel socket) {
+            connectionOpened();
             try {
-                InputStream in = socket.getInputStream();
-                OutputStream out = socket.getOutputStream();
-                byte[] buf = new byte[65536];
+                socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                WireFramer framer = new WireFramer();
+                boolean startup = true;
 
                 while (running) {
-                    int n = in.read(buf);
-                    if (n <= 0) {
+                    int n = socket.read(framer.readBuffer(8192));
+                    if (n < 0) {
+                        break;
+                    }
+                    framer.filled(n);
+                    ByteBuffer pipeline = framer.pollBuffer();
+                    if (pipeline == null) {
+                        continue;
+                    }
+                    if (startup && WireFramer.isCancelRequest(pipeline)) {
+                        // The single-user backend cannot be interrupted; drop the request.
                         break;
                     }
-                    byte[] message = Arrays.copyOf(buf, n);
-                    byte[] response = pgLite.execProtocolRaw(message);
-                    if (response.length > 0) {
-                        out.write(response);
-                        out.flush();
+                    if (!startup && WireFramer.isTerminate(pipeline)) {
+                        // Not queued for the backend: connectionClosed() does the cleanup.
+                        break;
+                    }
+                    if (!exec(socket, pipeline, socket)) {
+                        socket.write(ByteBuffer.wrap(busyReply(startup)));
+                        if (startup) {
+                            break;
+                        }
                     }
+                    startup = false;
                 }
             } catch (IOException e) {
                 if (running) {
@@ -170,17 +1085,161 @@ public final class PgLiteDriver implements Driver {
                 } catch (IOException e) {
                     // cleanup
                 }
+                connectionClosed(socket);
             }
         }
 
         void close() {
-            running = false;
+            backendLock.lock();
             try {
-                serverSocket.close();
-            } catch (IOException e) {
-                // cleanup
+                running = false;
+                if (statementStats != null && !statementStats.entries().isEmpty()) {
+                    Logger.getLogger(PgLiteDriver.class.getName())
+                            .info(
+                                    "PGLite statement statistics for "
+                                            + dataPath
+                                            + ":\n"
+                                            + statementStats.format(50));
+                }
+                if (mbeanName != null) {
+                    try {
+                        ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+                    } catch (JMException e) {
+                        // already gone
+                    }
+                }
+                if (serverSocket != null) {
+                    try {
+                        serverSocket.close();
+                    } catch (IOException e) {
+                        // cleanup
+                    }
+                }
+                if (replicas != null) {
+                    replicas.close();
+                }
+                pgLite.close();
+            } finally {
+                backendLock.unlock();
+            }
+        }
+
+        // === PgLiteConnectionsMXBean ===
+
+        @Override
+        public int getReplicas() {
+            ReadReplicas replicas = this.replicas;
+            return replicas == null ? 0 : replicas.size();
+        }
+
+        @Override
+        public long getReplicaReads() {
+            ReadReplicas replicas = this.replicas;
+            return replicas == null ? 0 : replicas.reads();
+        }
+
+        @Override
+        public long getReplicaRefreshes() {
+            ReadReplicas replicas = this.replicas;
+            return replicas == null ? 0 : replicas.refreshes();
+        }
+
+        @Override
+        public long getReplicaFallbacks() {
+            ReadReplicas replicas = this.replicas;
+            return replicas == null ? 0 : replicas.fallbacks();
+        }
+
+        @Override
+        public long getBackendResets() {
+            return backendResets;
+        }
+
+        @Override
+        public int getOpenConnections() {
+            return connections.get();
+        }
+
+        @Override
+        public int getQueueLength() {
+            return scheduler.queueLength();
+        }
+
+        @Override
+        public long getAcquisitions() {
+            return scheduler.acquisitions();
+        }
+
+        @Override
+        public long getTimeouts() {
+            return scheduler.timeouts();
+        }
+
+        @Override
+        public long getQueueWaitTimeMillis() {
+            return scheduler.waits().totalNanos() / 1_000_000;
+        }
+
+        @Override
+        public long getQueueWaitP50Micros() {
+            return scheduler.waits().percentileNanos(50) / 1000;
+        }
+
+        @Override
+        public long getQueueWaitP99Micros() {
+            return scheduler.waits().percentileNanos(99) / 1000;
+        }
+
+        @Override
+        public long getQueueWaitMaxMicros() {
+            return scheduler.waits().maxNanos() / 1000;
+        }
+
+        @Override
+        public String toString() {
+            return dataPath;
+        }
+    }
+
+    // === Connection threads ===
+
+    // Thread.ofVirtual() and its builder, looked up reflectively: the driver targets Java 11.
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method unstarted = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class);
+            unstarted = builder.getMethod("unstarted", Runnable.class);
+        } catch (ReflectiveOperationException e) {
+            unstarted = null; // no virtual threads before Java 21
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_UNSTARTED = unstarted;
+    }
+
+    /**
+     * One thread per socket connection: virtual where the JVM has them (21+), since connections
+     * mostly wait for their turn on the backend, daemon platform threads otherwise.
+     */
+    static Thread newConnectionThread(Runnable task) {
+        if (BUILDER_UNSTARTED != null) {
+            try {
+                Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), "pglite-connection");
+                return (Thread) BUILDER_UNSTARTED.invoke(builder, task);
+            } catch (ReflectiveOperationException e) {
+                // fall through
             }
-            pgLite.close();
         }
+        Thread thread = new Thread(task, "pglite-connection");
+        thread.setDaemon(true);
+        return thread;
     }
 }
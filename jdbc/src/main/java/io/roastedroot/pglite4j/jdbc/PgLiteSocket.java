@@ -0,0 +1,395 @@
+package io.roastedroot.pglite4j.jdbc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketImpl;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * In-JVM {@link Socket} that feeds pgjdbc's streams straight into a managed PGLite instance.
+ *
+ * <p>No file descriptor, port or kernel buffer is involved: bytes written by pgjdbc are buffered
+ * until it flushes a complete pipeline (see {@link WireFramer}), then forwarded synchronously on
+ * the calling thread and the reply is queued for the next reads. When the backend produced nothing
+ * the input stream reports end of stream, which is what pgjdbc expects after a CancelRequest.
+ *
+ * <p>The socket is its own session for the instance's backend scheduler: a pipeline may block
+ * until other connections leave their transactions.
+ */
+final class PgLiteSocket extends Socket {
+    private static final int MAX_IDLE_REPLY_BUFFER = 1 << 20;
+
+    private final PgLiteDriver.ManagedInstance instance;
+    private final Input input = new Input();
+    private final Output output = new Output();
+    private byte[] pending = new byte[8192];
+    private int pendingLen;
+    private byte[] reply = new byte[8192];
+    private int replyPos;
+    private int replyLen;
+    private final OutputStream replySink = new ReplySink();
+    private final WireFramer framer = new WireFramer();
+    private boolean firstPacket = true;
+    private boolean connected;
+    private boolean closed;
+    private boolean eof;
+    private int soTimeout;
+
+    PgLiteSocket(PgLiteDriver.ManagedInstance instance) throws SocketException {
+        super((SocketImpl) null);
+        this.instance = instance;
+        instance.connectionOpened();
+    }
+
+    void markConnected() {
+        connected = true;
+    }
+
+    // === Socket ===
+
+    @Override
+    public void connect(SocketAddress endpoint) {
+        markConnected();
+    }
+
+    @Override
+    public void connect(SocketAddress endpoint, int timeout) {
+        markConnected();
+    }
+
+    @Override
+    public void bind(SocketAddress bindpoint) throws IOException {
+        throw new SocketException("bind is not supported by the in-process transport");
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        ensureOpen();
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        ensureOpen();
+        return output;
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return 0;
+    }
+
+    @Override
+    public int getLocalPort() {
+        return -1;
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return null;
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        return null;
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) {
+        // no Nagle here
+    }
+
+    @Override
+    public boolean getTcpNoDelay() {
+        return true;
+    }
+
+    @Override
+    public void setSoLinger(boolean on, int linger) {
+        // nothing to linger on
+    }
+
+    @Override
+    public int getSoLinger() {
+        return -1;
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) {
+        this.soTimeout = timeout;
+    }
+
+    @Override
+    public int getSoTimeout() {
+        return soTimeout;
+    }
+
+    @Override
+    public void setSendBufferSize(int size) {
+        // unbounded
+    }
+
+    @Override
+    public int getSendBufferSize() {
+        return pending.length;
+    }
+
+    @Override
+    public void setReceiveBufferSize(int size) {
+        // unbounded
+    }
+
+    @Override
+    public int getReceiveBufferSize() {
+        return pending.length;
+    }
+
+    @Override
+    public void setKeepAlive(boolean on) {
+        // nothing to keep alive
+    }
+
+    @Override
+    public boolean getKeepAlive() {
+        return false;
+    }
+
+    @Override
+    public void shutdownInput() {
+        eof = true;
+    }
+
+    @Override
+    public void shutdownOutput() {
+        // nothing buffered past flush
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public boolean isBound() {
+        return connected;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public boolean isInputShutdown() {
+        return eof;
+    }
+
+    @Override
+    public boolean isOutputShutdown() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pendingLen = 0;
+        instance.connectionClosed(this);
+    }
+
+    @Override
+    public String toString() {
+        return "PgLiteSocket[" + instance + "]";
+    }
+
+    // === Transport ===
+
+    private void ensureOpen() throws SocketException {
+        if (closed) {
+            throw new SocketException("Socket is closed");
+        }
+    }
+
+    // Flushes only hand complete pipelines to the backend; a reader waiting for a reply takes
+    // whatever complete messages are buffered.
+    private void forward(boolean waiting) throws IOException {
+        ensureOpen();
+        if (pendingLen > 0) {
+            framer.feed(pending, 0, pendingLen);
+            pendingLen = 0;
+        }
+        byte[] message = framer.poll();
+        if (message == null && waiting) {
+            message = framer.drain();
+        }
+        if (message == null) {
+            return;
+        }
+        boolean startup = firstPacket;
+        firstPacket = false;
+        if (startup && WireFramer.isCancelRequest(ByteBuffer.wrap(message))) {
+            // The single-user backend cannot be interrupted; drop the request and hang up.
+            eof = true;
+            return;
+        }
+        if (!startup && WireFramer.isTerminate(ByteBuffer.wrap(message))) {
+            // Answered here rather than queued behind other sessions' transactions: closing the
+            // socket releases the backend and rolls back what this session left open.
+            eof = true;
+            return;
+        }
+        if (replyPos == replyLen) {
+            replyPos = 0;
+            replyLen = 0;
+            if (reply.length > MAX_IDLE_REPLY_BUFFER) {
+                // don't pin the buffer of one huge result for the connection's lifetime
+                reply = new byte[8192];
+            }
+        }
+        if (!instance.exec(this, message, replySink)) {
+            replySink.write(instance.busyReply(startup));
+            if (startup) {
+                eof = true;
+            }
+        }
+    }
+
+    private int fill() throws IOException {
+        int available = replyLen - replyPos;
+        if (available == 0 && !eof) {
+            forward(true);
+            available = replyLen - replyPos;
+        }
+        return available;
+    }
+
+    private final class Input extends InputStream {
+        @Override
+        public int read() throws IOException {
+            synchronized (PgLiteSocket.this) {
+                if (fill() == 0) {
+                    return -1;
+                }
+                return reply[replyPos++] & 0xFF;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            synchronized (PgLiteSocket.this) {
+                int available = fill();
+                if (available == 0) {
+                    return -1;
+                }
+                int n = Math.min(len, available);
+                System.arraycopy(reply, replyPos, b, off, n);
+                replyPos += n;
+                return n;
+            }
+        }
+
+        @Override
+        public int available() {
+            synchronized (PgLiteSocket.this) {
+                return replyLen - replyPos;
+            }
+        }
+
+        @Override
+        public void close() {
+            PgLiteSocket.this.close();
+        }
+    }
+
+    // Receives the backend's reply chunks on the forwarding thread, which holds the socket lock.
+    private final class ReplySink extends OutputStream {
+        @Override
+        public void write(int b) {
+            ensureReplyCapacity(1);
+            reply[replyLen++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureReplyCapacity(len);
+            System.arraycopy(b, off, reply, replyLen, len);
+            replyLen += len;
+        }
+
+        private void ensureReplyCapacity(int extra) {
+            if (replyLen + extra <= reply.length) {
+                return;
+            }
+            int unread = replyLen - replyPos;
+            if (unread + extra <= reply.length) {
+                System.arraycopy(reply, replyPos, reply, 0, unread);
+            } else {
+                byte[] grown = new byte[Math.max(reply.length * 2, unread + extra)];
+                System.arraycopy(reply, replyPos, grown, 0, unread);
+                reply = grown;
+            }
+            replyPos = 0;
+            replyLen = unread;
+        }
+    }
+
+    private final class Output extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            synchronized (PgLiteSocket.this) {
+                ensureOpen();
+                ensureCapacity(1);
+                pending[pendingLen++] = (byte) b;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (PgLiteSocket.this) {
+                ensureOpen();
+                ensureCapacity(len);
+                System.arraycopy(b, off, pending, pendingLen, len);
+                pendingLen += len;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (PgLiteSocket.this) {
+                forward(false);
+            }
+        }
+
+        @Override
+        public void close() {
+            PgLiteSocket.this.close();
+        }
+
+        private void ensureCapacity(int extra) {
+            if (pendingLen + extra > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLen + extra));
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.roastedroot.pglite4j.jdbc;
+
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Properties;
+import javax.net.SocketFactory;
+
+/**
+ * {@link SocketFactory} handed to pgjdbc for the {@code inprocess} transport.
+ *
+ * <p>pgjdbc instantiates it reflectively through the {@code socketFactory} connection property and
+ * passes the connection {@link Properties}; the {@link #INSTANCE_PROPERTY} entry selects the
+ * managed PGLite instance the sockets are wired to. The sockets never touch the network stack.
+ */
+public final class PgLiteSocketFactory extends SocketFactory {
+    static final String INSTANCE_PROPERTY = "pgliteInstance";
+
+    private final String instanceKey;
+
+    public PgLiteSocketFactory(Properties info) {
+        this.instanceKey = info.getProperty(INSTANCE_PROPERTY);
+    }
+
+    @Override
+    public Socket createSocket() throws SocketException {
+        PgLiteDriver.ManagedInstance instance = PgLiteDriver.lookup(instanceKey);
+        if (instance == null) {
+            throw new SocketException("No PGLite instance registered for: " + instanceKey);
+        }
+        return new PgLiteSocket(instance);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws SocketException {
+        return connected(createSocket());
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+            throws SocketException {
+        return connected(createSocket());
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws SocketException {
+        return connected(createSocket());
+    }
+
+    @Override
+    public Socket createSocket(
+            InetAddress address, int port, InetAddress localAddress, int localPort)
+            throws SocketException {
+        return connected(createSocket());
+    }
+
+    private static Socket connected(Socket socket) {
+        ((PgLiteSocket) socket).markConnected();
+        return socket;
+    }
+}
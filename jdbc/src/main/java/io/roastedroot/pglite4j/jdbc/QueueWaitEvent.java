@@ -0,0 +1,32 @@
+package io.roastedroot.pglite4j.jdbc;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** A connection waiting for its turn on the backend; the event duration is the wait. */
+@Name("io.roastedroot.pglite4j.QueueWait")
+@Label("PGLite Queue Wait")
+@Category("PGLite")
+@Description("Connection waiting for another one to leave its transaction")
+final class QueueWaitEvent extends Event {
+    private static final EventType TYPE = EventType.getEventType(QueueWaitEvent.class);
+
+    @Label("Instance")
+    String instance;
+
+    @Label("Queue Length")
+    @Description("Connections still waiting when this one got its turn or gave up")
+    int queueLength;
+
+    @Label("Timed Out")
+    boolean timedOut;
+
+    /** Avoids allocating an event per acquisition while no recording asks for it. */
+    static boolean isTypeEnabled() {
+        return TYPE.isEnabled();
+    }
+}
@@ -0,0 +1,442 @@
+package io.roastedroot.pglite4j.jdbc;
+
+import io.roastedroot.pglite4j.core.PGLite;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-only copies of one database ({@code replicas=K}) serving the requests that only read, so
+ * that readers run side by side instead of queueing for the primary's single backend.
+ *
+ * <p>A replica is a {@link PGLite#fork() fork} of the primary, sharing its memory pages
+ * copy-on-write, running with {@code default_transaction_read_only} on. Every request the primary
+ * runs makes the replicas stale; a stale replica is forked again when it is next picked, once no
+ * transaction is open on the primary, so a read sees every write committed before it was sent.
+ *
+ * <p>A request goes to an idle replica when it is a self-contained read: a simple Query, or a
+ * pipeline ending with Sync that parses every statement it binds, whose statements all start with
+ * SELECT, VALUES, TABLE, SHOW, WITH or BEGIN/START TRANSACTION READ ONLY. A read-only transaction
+ * keeps its replica until it ends. Should a statement write after all (a function with side
+ * effects, a data-modifying WITH), the replica rejects it and the request runs again on the
+ * primary.
+ */
+final class ReadReplicas {
+    private static final byte[] READ_ONLY =
+            PgLiteDriver.ManagedInstance.simpleQuery("SET default_transaction_read_only = on");
+    private static final byte[] ROLLBACK = PgLiteDriver.ManagedInstance.simpleQuery("ROLLBACK");
+    private static final String READ_ONLY_VIOLATION = "25006"; // read_only_sql_transaction
+    // don't pin the buffer of one huge result for the replica's lifetime
+    private static final int MAX_IDLE_REPLY_BUFFER = 1 << 20;
+
+    /** Where a reply buffered on a replica goes once it is known to be final. */
+    interface ReplyWriter {
+        void write(byte[] b, int off, int len) throws IOException;
+    }
+
+    private final PgLiteDriver.ManagedInstance primary;
+    private final Replica[] replicas;
+    // bumped by every request the primary runs; a replica forked before the last bump is stale
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private volatile boolean closed;
+
+    ReadReplicas(PgLiteDriver.ManagedInstance primary, String name, int count) {
+        this.primary = primary;
+        this.replicas = new Replica[count];
+        for (int i = 0; i < count; i++) {
+            // a zero timeout: busy replicas are passed over, not waited for
+            replicas[i] = new Replica(new BackendScheduler(name + "#replica-" + i, 0));
+        }
+    }
+
+    int size() {
+        return replicas.length;
+    }
+
+    /** The primary ran something that may have written. */
+    void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    long reads() {
+        return reads.get();
+    }
+
+    long refreshes() {
+        return refreshes.get();
+    }
+
+    long fallbacks() {
+        return fallbacks.get();
+    }
+
+    // === Routing ===
+
+    /**
+     * Runs {@code request} on a replica if it qualifies and one is idle, then hands the reply to
+     * {@code out}. Returns false, with {@code request} untouched, to leave it to the primary.
+     */
+    boolean exec(Object session, ByteBuffer request, StatementTracker tracker, ReplyWriter out)
+            throws IOException {
+        Replica replica = owned(session);
+        boolean inTransaction = replica != null;
+        if (replica == null) {
+            if (closed || !isReadOnly(request)) {
+                return false;
+            }
+            replica = acquireIdle(session);
+            if (replica == null) {
+                return false;
+            }
+        }
+        int start = request.position();
+        char status;
+        try {
+            if (!inTransaction && replica.generation != generation.get() && !refresh(replica)) {
+                release(replica, session);
+                return false;
+            }
+            replica.reply.count = 0;
+            if (tracker == null) {
+                replica.pgLite.execProtocol(request, replica.reply);
+            } else {
+                // counted once the reply is accepted, or by the primary on fallback
+                tracker.request(request.duplicate());
+                tracker.stage();
+                replica.pgLite.execProtocol(request, tracker.tap(replica.reply));
+            }
+            status = replica.pgLite.readyForQueryStatus();
+        } catch (IOException e) {
+            discardStaged(tracker);
+            release(replica, session);
+            throw e;
+        } catch (RuntimeException e) {
+            discardStaged(tracker);
+            // a fresh fork replaces the replica the next time it is picked
+            replica.discard();
+            release(replica, session);
+            if (inTransaction) {
+                throw new IOException("PGLite replica failed: " + e.getMessage(), e);
+            }
+            request.position(start);
+            fallbacks.incrementAndGet();
+            return false;
+        }
+        if (!inTransaction && replica.reply.hasError(READ_ONLY_VIOLATION)) {
+            discardStaged(tracker);
+            if (status != 'I') {
+                replica.pgLite.execProtocolRaw(ROLLBACK, OutputStream.nullOutputStream());
+            }
+            release(replica, session);
+            request.position(start);
+            fallbacks.incrementAndGet();
+            return false;
+        }
+        if (tracker != null) {
+            tracker.commit();
+        }
+        try {
+            out.write(replica.reply.buf, 0, replica.reply.count);
+        } finally {
+            if (replica.reply.buf.length > MAX_IDLE_REPLY_BUFFER) {
+                replica.reply.buf = new byte[8192];
+            }
+            if (status == 'I') {
+                release(replica, session);
+            }
+        }
+        reads.incrementAndGet();
+        return true;
+    }
+
+    private static void discardStaged(StatementTracker tracker) {
+        if (tracker != null) {
+            tracker.discard();
+        }
+    }
+
+    /** Ends the read-only transaction {@code session} may have left open on a replica. */
+    void connectionClosed(Object session) throws IOException {
+        Replica replica = owned(session);
+        if (replica != null) {
+            if (replica.pgLite != null && replica.pgLite.readyForQueryStatus() != 'I') {
+                replica.pgLite.execProtocolRaw(ROLLBACK, OutputStream.nullOutputStream());
+            }
+            release(replica, session);
+        }
+    }
+
+    /**
+     * Discards the idle replicas right away; one running a request is discarded by its session
+     * when it lets go of it, never under it.
+     */
+    void close() {
+        closed = true;
+        for (Replica replica : replicas) {
+            discardIfIdle(replica);
+        }
+    }
+
+    private void release(Replica replica, Object session) {
+        replica.scheduler.release(session);
+        if (closed) {
+            discardIfIdle(replica);
+        }
+    }
+
+    // Takes the replica for good and discards it, unless a session holds it.
+    private void discardIfIdle(Replica replica) {
+        try {
+            if (replica.scheduler.acquire(this)) {
+                replica.discard();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Replica owned(Object session) {
+        for (Replica replica : replicas) {
+            if (replica.scheduler.owns(session)) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private Replica acquireIdle(Object session) throws IOException {
+        int first = Math.floorMod(next.getAndIncrement(), replicas.length);
+        for (int i = 0; i < replicas.length; i++) {
+            Replica replica = replicas[(first + i) % replicas.length];
+            try {
+                if (replica.scheduler.acquire(session)) {
+                    return replica;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a PGLite replica");
+            }
+        }
+        return null;
+    }
+
+    // Forks the primary again, once it is idle; false if it stayed busy past the queue timeout.
+    private boolean refresh(Replica replica) throws IOException {
+        long target = generation.get();
+        PGLite fork = primary.forkWhenIdle(replica);
+        if (fork == null) {
+            return false;
+        }
+        try {
+            fork.execProtocolRaw(READ_ONLY, OutputStream.nullOutputStream());
+        } catch (IOException | RuntimeException e) {
+            fork.close();
+            throw e;
+        }
+        replica.discard();
+        replica.pgLite = fork;
+        replica.generation = target;
+        refreshes.incrementAndGet();
+        return true;
+    }
+
+    // === Request classification ===
+
+    /** Whether {@code request} only reads and can run on its own, without earlier messages. */
+    static boolean isReadOnly(ByteBuffer request) {
+        int pos = request.position();
+        int end = request.limit();
+        if (end - pos < 5) {
+            return false;
+        }
+        Set<String> parsed = null;
+        byte last = 0;
+        while (end - pos >= 5) {
+            byte type = request.get(pos);
+            int len = request.getInt(pos + 1);
+            if (len < 4 || end - pos - 1 < len) {
+                return false;
+            }
+            int body = pos + 5;
+            switch (type) {
+                case 'Q':
+                    if (!isReadOnlySql(cString(request, body))) {
+                        return false;
+                    }
+                    break;
+                case 'P':
+                    {
+                        String name = cString(request, body);
+                        int sql = body + name.getBytes(StandardCharsets.UTF_8).length + 1;
+                        if (!isReadOnlySql(cString(request, sql))) {
+                            return false;
+                        }
+                        if (parsed == null) {
+                            parsed = new HashSet<>();
+                        }
+                        parsed.add(name);
+                        break;
+                    }
+                case 'B':
+                    {
+                        String portal = cString(request, body);
+                        int statement = body + portal.getBytes(StandardCharsets.UTF_8).length + 1;
+                        if (parsed == null || !parsed.contains(cString(request, statement))) {
+                            return false;
+                        }
+                        break;
+                    }
+                case 'D': // Describe
+                case 'E': // Execute
+                case 'C': // Close
+                case 'H': // Flush
+                case 'S': // Sync
+                    break;
+                default:
+                    return false;
+            }
+            last = type;
+            pos += 1 + len;
+        }
+        return pos == end && (last == 'Q' || last == 'S');
+    }
+
+    static boolean isReadOnlySql(String sql) {
+        int i = 0;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c) || c == '(') {
+                i++;
+            } else if (sql.startsWith("--", i)) {
+                int eol = sql.indexOf('\n', i);
+                i = eol < 0 ? sql.length() : eol + 1;
+            } else if (sql.startsWith("/*", i)) {
+                int close = sql.indexOf("*/", i + 2);
+                i = close < 0 ? sql.length() : close + 2;
+            } else {
+                break;
+            }
+        }
+        int start = i;
+        while (i < sql.length() && Character.isLetter(sql.charAt(i))) {
+            i++;
+        }
+        switch (sql.substring(start, i).toUpperCase(Locale.ROOT)) {
+            case "SELECT":
+            case "VALUES":
+            case "TABLE":
+            case "SHOW":
+            case "WITH":
+                return true;
+            case "BEGIN":
+            case "START":
+                String rest = sql.substring(i).toUpperCase(Locale.ROOT).replaceAll("\\s+", " ");
+                return rest.contains("READ ONLY") && !rest.contains(";");
+            default:
+                return false;
+        }
+    }
+
+    private static String cString(ByteBuffer b, int pos) {
+        int end = pos;
+        while (end < b.limit() && b.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - pos];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = b.get(pos + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Replica {
+        final BackendScheduler scheduler;
+        final ReplyBuffer reply = new ReplyBuffer();
+        PGLite pgLite;
+        long generation = -1;
+
+        Replica(BackendScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        void discard() {
+            if (pgLite != null) {
+                pgLite.close();
+                pgLite = null;
+            }
+            generation = -1;
+        }
+    }
+
+    /**
+     * Holds a replica's reply until it is known not to be a read-only violation, after which it
+     * goes out as is.
+     */
+    private static final class ReplyBuffer implements WritableByteChannel {
+        byte[] buf = new byte[8192];
+        int count;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            if (count + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+            }
+            src.get(buf, count, n);
+            count += n;
+            return n;
+        }
+
+        /** Whether the reply has an ErrorResponse with SQLSTATE {@code sqlState}. */
+        boolean hasError(String sqlState) {
+            for (int pos = 0; pos + 5 <= count; pos += 1 + readInt(pos + 1)) {
+                if (buf[pos] != 'E') {
+                    continue;
+                }
+                int p = pos + 5;
+                while (p < count && buf[p] != 0) {
+                    byte field = buf[p++];
+                    int start = p;
+                    while (p < count && buf[p] != 0) {
+                        p++;
+                    }
+                    if (field == 'C'
+                            && sqlState.equals(
+                                    new String(buf, start, p - start, StandardCharsets.UTF_8))) {
+                        return true;
+                    }
+                    p++;
+                }
+            }
+            return false;
+        }
+
+        private int readInt(int off) {
+            return ((buf[off] & 0xFF) << 24)
+                    | ((buf[off + 1] & 0xFF) << 16)
+                    | ((buf[off + 2] & 0xFF) << 8)
+                    | (buf[off + 3] & 0xFF);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {}
+    }
+}
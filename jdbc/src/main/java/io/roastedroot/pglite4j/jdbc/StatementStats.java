@@ -0,0 +1,204 @@
+package io.roastedroot.pglite4j.jdbc;
+
+import io.roastedroot.pglite4j.core.LatencyHistogram;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-statement execution statistics of one database, collected by the driver from the wire
+ * protocol traffic (see {@code statementStats=true}).
+ *
+ * <p>Statements are grouped by their normalized text: literals replaced by {@code ?} and whitespace
+ * collapsed, so the same ORM query with different values is one entry. At most {@link
+ * #MAX_STATEMENTS} distinct statements are tracked, later ones are counted under {@link #OTHER}.
+ * Updates are lock-free and may come from any connection thread.
+ */
+public final class StatementStats {
+    static final int MAX_STATEMENTS = 5000;
+    static final String OTHER = "<other>";
+    private static final int MAX_SQL_LENGTH = 2000;
+    // raw text -> entry, saves normalizing statements that are sent over and over
+    private static final int MAX_RAW_CACHE = 10000;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Entry> byRawText = new ConcurrentHashMap<>();
+
+    Entry entry(String sql) {
+        Entry entry = byRawText.get(sql);
+        if (entry != null) {
+            return entry;
+        }
+        String normalized = normalize(sql);
+        entry = entries.get(normalized);
+        if (entry == null) {
+            String key = entries.size() < MAX_STATEMENTS ? normalized : OTHER;
+            entry = entries.computeIfAbsent(key, Entry::new);
+        }
+        if (byRawText.size() >= MAX_RAW_CACHE) {
+            byRawText.clear();
+        }
+        byRawText.put(sql, entry);
+        return entry;
+    }
+
+    /** All statements seen, most total time first. */
+    public List<Entry> entries() {
+        List<Entry> list = new ArrayList<>(entries.values());
+        list.sort(Comparator.comparingLong(Entry::totalNanos).reversed());
+        return list;
+    }
+
+    public void reset() {
+        entries.clear();
+        byRawText.clear();
+    }
+
+    /** Text table of the {@code limit} statements with the most total time. */
+    public String format(int limit) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(
+                String.format(
+                        "%10s %12s %10s %10s %10s %12s  %s%n",
+                        "calls", "total ms", "mean us", "p99 us", "max us", "rows", "statement"));
+        List<Entry> list = entries();
+        for (Entry e : list.subList(0, Math.min(limit, list.size()))) {
+            sb.append(
+                    String.format(
+                            "%10d %12.1f %10d %10d %10d %12d  %s%n",
+                            e.calls(),
+                            e.totalNanos() / 1e6,
+                            e.calls() == 0 ? 0 : e.totalNanos() / e.calls() / 1000,
+                            e.latency.percentileNanos(99) / 1000,
+                            e.latency.maxNanos() / 1000,
+                            e.rows(),
+                            e.sql()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replaces string, numeric and bit/hex string literals with {@code ?} and runs of whitespace
+     * with a single space. Quoted identifiers, comments and parameter markers ({@code $1}) are
+     * kept.
+     */
+    static String normalize(String sql) {
+        StringBuilder out = new StringBuilder(Math.min(sql.length(), MAX_SQL_LENGTH));
+        int n = sql.length();
+        int i = 0;
+        while (i < n && out.length() < MAX_SQL_LENGTH) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                while (i < n && Character.isWhitespace(sql.charAt(i))) {
+                    i++;
+                }
+                if (out.length() > 0 && i < n) {
+                    out.append(' ');
+                }
+            } else if (c == '\'') {
+                i = skipQuoted(sql, i + 1, '\'');
+                out.append('?');
+            } else if (c == '"') {
+                int end = skipQuoted(sql, i + 1, '"');
+                out.append(sql, i, end);
+                i = end;
+            } else if (c == '$' && i + 1 < n && Character.isDigit(sql.charAt(i + 1))) {
+                out.append(c);
+                i++;
+                while (i < n && Character.isDigit(sql.charAt(i))) {
+                    out.append(sql.charAt(i++));
+                }
+            } else if ((Character.isDigit(c)
+                            || c == '.' && i + 1 < n && Character.isDigit(sql.charAt(i + 1)))
+                    && !partOfIdentifier(out)) {
+                while (i < n
+                        && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                out.append('?');
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return out.length() < MAX_SQL_LENGTH ? out.toString() : out + "...";
+    }
+
+    // index past the closing quote, doubled quotes are part of the literal
+    private static int skipQuoted(String sql, int i, char quote) {
+        int n = sql.length();
+        while (i < n) {
+            if (sql.charAt(i) == quote) {
+                if (i + 1 < n && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return n;
+    }
+
+    private static boolean partOfIdentifier(StringBuilder out) {
+        if (out.length() == 0) {
+            return false;
+        }
+        char prev = out.charAt(out.length() - 1);
+        return Character.isLetterOrDigit(prev) || prev == '_' || prev == '"';
+    }
+
+    /** Statistics of one normalized statement. */
+    public static final class Entry {
+        private final String sql;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        Entry(String sql) {
+            this.sql = sql;
+        }
+
+        void record(long nanos, long rows, long bytes, boolean error) {
+            latency.record(nanos);
+            this.rows.addAndGet(rows);
+            this.bytes.addAndGet(bytes);
+            if (error) {
+                errors.incrementAndGet();
+            }
+        }
+
+        public String sql() {
+            return sql;
+        }
+
+        public long calls() {
+            return latency.count();
+        }
+
+        public long totalNanos() {
+            return latency.totalNanos();
+        }
+
+        public LatencyHistogram latency() {
+            return latency;
+        }
+
+        /** DataRow messages returned. */
+        public long rows() {
+            return rows.get();
+        }
+
+        /** Reply bytes returned, rows and protocol overhead. */
+        public long bytes() {
+            return bytes.get();
+        }
+
+        public long errors() {
+            return errors.get();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package io.roastedroot.pglite4j.jdbc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Attributes one connection's traffic to {@link StatementStats} entries.
+ *
+ * <p>Each request is scanned for the statements it runs (Query, and Execute of a portal bound to a
+ * parsed statement), which are queued. The reply is scanned as it streams through {@link
+ * #tap(OutputStream)} or {@link #tap(WritableByteChannel)}: rows and bytes go to the statement at
+ * the head of the queue, and a statement completes at its CommandComplete (Execute) or
+ * ReadyForQuery (Query). Its latency is the time since the previous completion or since the
+ * request was sent, whichever is later, so statements pipelined in one request each get their
+ * share.
+ *
+ * <p>A request tried on a read replica is {@link #stage staged}: its completions are held back
+ * until the replica's reply is accepted, and dropped if the request falls back to the primary,
+ * which records it again.
+ */
+final class StatementTracker {
+    private static final int MAX_NAMES = 1000;
+
+    private final StatementStats stats;
+    // named (and the unnamed "") prepared statements and portals of this session
+    private final Map<String, String> statements = new HashMap<>();
+    private final Map<String, String> portals = new HashMap<>();
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private final StreamTap streamTap = new StreamTap();
+    private final ChannelTap channelTap = new ChannelTap();
+    private long mark;
+    // completions held back since stage(), null when not staging
+    private List<Pending> staged;
+    // reply framing state
+    private final byte[] header = new byte[5];
+    private int headerLen;
+    private long skip;
+
+    StatementTracker(StatementStats stats) {
+        this.stats = stats;
+    }
+
+    // === Requests ===
+
+    /** Scans a request about to be sent; the clock for its statements starts now. */
+    void request(byte[] message) {
+        request(ByteBuffer.wrap(message));
+    }
+
+    void request(ByteBuffer message) {
+        mark = System.nanoTime();
+        int pos = message.position();
+        int end = message.limit();
+        if (pos < end && message.get(pos) == 0) {
+            return; // untagged startup packet
+        }
+        while (end - pos >= 5) {
+            byte type = message.get(pos);
+            int len = message.getInt(pos + 1);
+            if (len < 4 || end - pos - 1 < len) {
+                return;
+            }
+            int body = pos + 5;
+            switch (type) {
+                case 'Q':
+                    pending.add(new Pending(stats.entry(cString(message, body)), true));
+                    break;
+                case 'P':
+                    {
+                        String name = cString(message, body);
+                        String sql = cString(message, body + utf8Length(message, body) + 1);
+                        remember(statements, name, sql);
+                        break;
+                    }
+                case 'B':
+                    {
+                        String portal = cString(message, body);
+                        String statement = cString(message, body + utf8Length(message, body) + 1);
+                        remember(portals, portal, statement);
+                        break;
+                    }
+                case 'E':
+                    {
+                        String sql = statements.get(portals.get(cString(message, body)));
+                        if (sql != null) {
+                            pending.add(new Pending(stats.entry(sql), false));
+                        }
+                        break;
+                    }
+                default:
+                    break;
+            }
+            pos += 1 + len;
+        }
+    }
+
+    private static void remember(Map<String, String> names, String name, String value) {
+        if (names.size() >= MAX_NAMES && !names.containsKey(name)) {
+            names.clear();
+        }
+        names.put(name, value);
+    }
+
+    private static int utf8Length(ByteBuffer b, int pos) {
+        int end = pos;
+        while (end < b.limit() && b.get(end) != 0) {
+            end++;
+        }
+        return end - pos;
+    }
+
+    private static String cString(ByteBuffer b, int pos) {
+        int len = utf8Length(b, pos);
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            bytes[i] = b.get(pos + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Holds back the completions of the request just scanned, see {@link #commit}. */
+    void stage() {
+        staged = new ArrayList<>();
+    }
+
+    /** Records the completions held back since {@link #stage}. */
+    void commit() {
+        List<Pending> done = staged;
+        staged = null;
+        if (done != null) {
+            for (Pending p : done) {
+                p.entry.record(p.nanos, p.rows, p.bytes, p.error);
+            }
+        }
+    }
+
+    /** Forgets the staged request, whose reply was not accepted. */
+    void discard() {
+        staged = null;
+        pending.clear();
+        headerLen = 0;
+        skip = 0;
+    }
+
+    // === Replies ===
+
+    OutputStream tap(OutputStream out) {
+        streamTap.out = out;
+        return streamTap;
+    }
+
+    WritableByteChannel tap(WritableByteChannel out) {
+        channelTap.out = out;
+        return channelTap;
+    }
+
+    private void reply(ByteBuffer b, int pos, int end) {
+        while (pos < end) {
+            if (skip > 0) {
+                int n = (int) Math.min(skip, end - pos);
+                skip -= n;
+                pos += n;
+                addBytes(n);
+                continue;
+            }
+            header[headerLen++] = b.get(pos++);
+            addBytes(1);
+            if (headerLen == header.length) {
+                headerLen = 0;
+                skip =
+                        (((header[1] & 0xFFL) << 24)
+                                        | ((header[2] & 0xFF) << 16)
+                                        | ((header[3] & 0xFF) << 8)
+                                        | (header[4] & 0xFF))
+                                - 4;
+                onMessage(header[0]);
+            }
+        }
+    }
+
+    private void addBytes(int n) {
+        Pending head = pending.peek();
+        if (head != null) {
+            head.bytes += n;
+        }
+    }
+
+    private void onMessage(byte type) {
+        Pending head = pending.peek();
+        if (head == null) {
+            return;
+        }
+        switch (type) {
+            case 'D': // DataRow
+                head.rows++;
+                break;
+            case 'E': // ErrorResponse
+                head.error = true;
+                if (!head.simple) {
+                    complete();
+                    // the backend skips the rest of the pipeline until Sync
+                    while (!pending.isEmpty() && !pending.peek().simple) {
+                        pending.poll();
+                    }
+                }
+                break;
+            case 'C': // CommandComplete
+            case 's': // PortalSuspended
+            case 'I': // EmptyQueryResponse
+                if (!head.simple) {
+                    complete();
+                }
+                break;
+            case 'Z': // ReadyForQuery
+                if (head.simple) {
+                    complete();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void complete() {
+        Pending done = pending.poll();
+        long now = System.nanoTime();
+        if (staged != null) {
+            done.nanos = now - mark;
+            staged.add(done);
+        } else {
+            done.entry.record(now - mark, done.rows, done.bytes, done.error);
+        }
+        mark = now;
+    }
+
+    private static final class Pending {
+        final StatementStats.Entry entry;
+        final boolean simple;
+        long rows;
+        long bytes;
+        boolean error;
+        long nanos;
+
+        Pending(StatementStats.Entry entry, boolean simple) {
+            this.entry = entry;
+            this.simple = simple;
+        }
+    }
+
+    private final class StreamTap extends OutputStream {
+        private OutputStream out;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            reply(ByteBuffer.wrap(b), off, off + len);
+            out.write(b, off, len);
+        }
+    }
+
+    private final class ChannelTap implements WritableByteChannel {
+        private WritableByteChannel out;
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int start = src.position();
+            int n = out.write(src);
+            reply(src, start, start + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return out.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package io.roastedroot.pglite4j.jdbc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits the frontend byte stream into PostgreSQL wire protocol messages and groups them into
+ * pipelines.
+ *
+ * <p>Bytes are fed as they arrive, regardless of message boundaries. {@link #poll()} hands out
+ * every complete message up to the last one the client waits a reply for (Sync, Query, Flush,
+ * ...), so a batch of Parse/Bind/Execute split across several reads still reaches the backend as
+ * a single transfer. Until the protocol 3 StartupMessage has been seen messages are untagged
+ * (SSLRequest, GSSENCRequest, CancelRequest, StartupMessage) and each one is a pipeline of its
+ * own.
+ *
+ * <p>The bytes live in one direct buffer that a channel can read into ({@link #readBuffer(int)})
+ * and that pipelines are handed out from ({@link #pollBuffer()}), so the socket bridge copies
+ * nothing on the way in.
+ */
+final class WireFramer {
+    private static final int PROTOCOL_MAJOR = 3;
+    private static final int CANCEL_REQUEST_CODE = 80877102;
+    // Complete messages are handed out before a sync point once this much is buffered.
+    static final int MAX_PIPELINE = 4 << 20;
+
+    private ByteBuffer buf = ByteBuffer.allocateDirect(65536);
+    private int start;
+    private int end;
+    // end of the complete messages already parsed
+    private int parsed;
+    // end of the last complete message that terminates a pipeline
+    private int pipelineEnd;
+    private boolean startup = true;
+
+    void feed(byte[] b, int off, int len) {
+        readBuffer(len).put(b, off, len);
+        end += len;
+    }
+
+    /**
+     * Returns the internal buffer positioned to receive at least {@code min} more bytes; report
+     * how many were written with {@link #filled(int)}.
+     */
+    ByteBuffer readBuffer(int min) {
+        if (start == end) {
+            start = 0;
+            end = 0;
+            parsed = 0;
+            pipelineEnd = 0;
+        }
+        if (end + min > buf.capacity()) {
+            int size = end - start;
+            ByteBuffer target =
+                    size + min > buf.capacity()
+                            ? ByteBuffer.allocateDirect(Math.max(buf.capacity() * 2, size + min))
+                            : buf;
+            buf.limit(end).position(start);
+            if (target == buf) {
+                buf.compact();
+            } else {
+                target.put(buf);
+                buf = target;
+            }
+            parsed -= start;
+            pipelineEnd = Math.max(pipelineEnd - start, 0);
+            end = size;
+            start = 0;
+        }
+        buf.limit(buf.capacity()).position(end);
+        return buf;
+    }
+
+    void filled(int n) {
+        end += n;
+    }
+
+    /**
+     * Returns the complete messages up to the last pipeline boundary, or null when the client has
+     * not finished a pipeline yet.
+     */
+    byte[] poll() {
+        ByteBuffer pipeline = pollBuffer();
+        if (pipeline == null) {
+            return null;
+        }
+        byte[] batch = new byte[pipeline.remaining()];
+        pipeline.get(batch);
+        return batch;
+    }
+
+    /**
+     * Like {@link #poll()}, but returns the internal buffer positioned on the pipeline. It is only
+     * valid until the next call to this framer.
+     */
+    ByteBuffer pollBuffer() {
+        parse();
+        if (pipelineEnd > start) {
+            return take(pipelineEnd);
+        }
+        if (parsed - start >= MAX_PIPELINE) {
+            return take(parsed);
+        }
+        return null;
+    }
+
+    /** Returns every complete message buffered, pipeline boundary or not, or null if none. */
+    byte[] drain() {
+        parse();
+        if (parsed == start) {
+            return null;
+        }
+        ByteBuffer pipeline = take(parsed);
+        byte[] batch = new byte[pipeline.remaining()];
+        pipeline.get(batch);
+        return batch;
+    }
+
+    /** Number of bytes fed and not handed out yet, complete messages or not. */
+    int buffered() {
+        return end - start;
+    }
+
+    /** Whether {@code pipeline}'s remaining bytes are exactly one CancelRequest. */
+    static boolean isCancelRequest(ByteBuffer pipeline) {
+        int pos = pipeline.position();
+        return pipeline.remaining() == 16
+                && pipeline.getInt(pos) == 16
+                && pipeline.getInt(pos + 4) == CANCEL_REQUEST_CODE;
+    }
+
+    /**
+     * Whether {@code pipeline}'s remaining bytes are exactly one Terminate, which pgjdbc sends on
+     * its own when a connection closes.
+     */
+    static boolean isTerminate(ByteBuffer pipeline) {
+        int pos = pipeline.position();
+        return pipeline.remaining() == 5
+                && pipeline.get(pos) == 'X'
+                && pipeline.getInt(pos + 1) == 4;
+    }
+
+    private ByteBuffer take(int upTo) {
+        buf.limit(upTo).position(start);
+        start = upTo;
+        return buf;
+    }
+
+    private void parse() {
+        while (true) {
+            int avail = end - parsed;
+            if (startup) {
+                if (avail < 8) {
+                    return;
+                }
+                int len = buf.getInt(parsed);
+                if (len < 8) {
+                    malformed();
+                    return;
+                }
+                if (avail < len) {
+                    return;
+                }
+                if (buf.getInt(parsed + 4) >>> 16 == PROTOCOL_MAJOR) {
+                    startup = false;
+                }
+                parsed += len;
+                pipelineEnd = parsed;
+            } else {
+                if (avail < 5) {
+                    return;
+                }
+                int len = buf.getInt(parsed + 1);
+                if (len < 4) {
+                    malformed();
+                    return;
+                }
+                if (avail < len + 1) {
+                    return;
+                }
+                byte type = buf.get(parsed);
+                parsed += len + 1;
+                if (endsPipeline(type)) {
+                    pipelineEnd = parsed;
+                }
+            }
+        }
+    }
+
+    // Not a valid length: pass everything through and let the backend report the error.
+    private void malformed() {
+        parsed = end;
+        pipelineEnd = end;
+    }
+
+    // Messages after which the client may block waiting for the backend.
+    private static boolean endsPipeline(byte type) {
+        switch (type) {
+            case 'S': // Sync
+            case 'Q': // Query
+            case 'H': // Flush
+            case 'X': // Terminate
+            case 'p': // PasswordMessage, SASLInitialResponse, SASLResponse
+            case 'F': // FunctionCall
+            case 'c': // CopyDone
+            case 'f': // CopyFail
+                return true;
+            default:
+                return false;
+        }
+    }
+}
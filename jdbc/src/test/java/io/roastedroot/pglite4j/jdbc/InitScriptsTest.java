@@ -0,0 +1,51 @@
+package io.roastedroot.pglite4j.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class InitScriptsTest {
+
+    @Test
+    public void imageIsKeyedByContent(@TempDir Path dir) throws IOException, SQLException {
+        Path schema = write(dir.resolve("schema.sql"), "CREATE TABLE t (x int);");
+        Path seed = write(dir.resolve("seed.sql"), "INSERT INTO t VALUES (1);");
+        String init = schema + ", " + seed;
+
+        InitScripts scripts = InitScripts.parse(init, dir.resolve("cache").toString());
+        assertEquals(64, scripts.key().length());
+        assertEquals(
+                dir.resolve("cache").resolve("pglite-" + scripts.key() + ".image"),
+                scripts.image());
+        assertEquals(scripts.key(), InitScripts.parse(init, null).key());
+        assertNull(InitScripts.parse(init, null).image());
+
+        // the order and every byte count
+        assertNotEquals(scripts.key(), InitScripts.parse(seed + "," + schema, null).key());
+        write(seed, "INSERT INTO t VALUES (2);");
+        assertNotEquals(scripts.key(), InitScripts.parse(init, null).key());
+    }
+
+    @Test
+    public void rejectsBadOptions(@TempDir Path dir) throws SQLException {
+        assertNull(InitScripts.parse(null, null));
+        assertThrows(SQLException.class, () -> InitScripts.parse(null, dir.toString()));
+        assertThrows(
+                SQLException.class,
+                () -> InitScripts.parse(dir.resolve("missing.sql").toString(), null));
+        assertThrows(SQLException.class, () -> InitScripts.parse("classpath:missing.sql", null));
+    }
+
+    private static Path write(Path file, String sql) throws IOException {
+        return Files.write(file, sql.getBytes(StandardCharsets.UTF_8));
+    }
+}
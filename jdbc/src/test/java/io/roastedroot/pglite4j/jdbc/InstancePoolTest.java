@@ -0,0 +1,111 @@
+package io.roastedroot.pglite4j.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class InstancePoolTest {
+
+    @Test
+    public void sizes() throws SQLException {
+        assertEquals(1000, InstancePool.parseSize("1000"));
+        assertEquals(64L << 10, InstancePool.parseSize("64k"));
+        assertEquals(512L << 20, InstancePool.parseSize("512M"));
+        assertEquals(2L << 30, InstancePool.parseSize(" 2g "));
+        assertThrows(SQLException.class, () -> InstancePool.parseSize("2t"));
+        assertThrows(SQLException.class, () -> InstancePool.parseSize("-1m"));
+        assertThrows(SQLException.class, () -> InstancePool.parseSize("m"));
+        assertThrows(SQLException.class, () -> InstancePool.parseSize("99999999999g"));
+    }
+
+    @Test
+    public void acquireWaitsForARelease() throws Exception {
+        InstancePool pool = newPool("memory://pool-wait", 1, 60_000, Long.MAX_VALUE);
+        try {
+            PgLiteDriver.ManagedInstance member = pool.acquire(30_000);
+
+            long start = System.nanoTime();
+            SQLException busy = assertThrows(SQLException.class, () -> pool.acquire(200));
+            assertEquals("55P03", busy.getSQLState());
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+
+            CompletableFuture<PgLiteDriver.ManagedInstance> next =
+                    CompletableFuture.supplyAsync(
+                            () -> {
+                                try {
+                                    return pool.acquire(30_000);
+                                } catch (SQLException e) {
+                                    throw new RuntimeException(e);
+                                }
+                            });
+            Thread.sleep(200);
+            assertFalse(next.isDone());
+            pool.release(member);
+            assertSame(member, next.get(30, TimeUnit.SECONDS));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void idleMembersAreClosed() throws Exception {
+        InstancePool pool = newPool("memory://pool-idle", 1, 100, Long.MAX_VALUE);
+        try {
+            PgLiteDriver.ManagedInstance member = pool.acquire(30_000);
+            pool.release(member);
+            // evicted on the next sweep, about a second later
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (pool.size() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+            assertEquals(0, pool.size());
+            assertNull(PgLiteDriver.lookup(member.toString()));
+
+            // the next connection forks a new one
+            PgLiteDriver.ManagedInstance next = pool.acquire(30_000);
+            assertNotSame(member, next);
+            pool.release(next);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void memoryBudget() throws Exception {
+        // any member is over a one byte budget: the pool keeps a single one, and not even that
+        // one once it is returned
+        InstancePool pool = newPool("memory://pool-budget", 4, 60_000, 1);
+        try {
+            PgLiteDriver.ManagedInstance member = pool.acquire(30_000);
+            assertTrue(member.footprintBytes() > 1);
+            SQLException busy = assertThrows(SQLException.class, () -> pool.acquire(200));
+            assertEquals("55P03", busy.getSQLState());
+            assertEquals(1, pool.size());
+
+            pool.release(member);
+            assertEquals(0, pool.size());
+            PgLiteDriver.ManagedInstance next = pool.acquire(30_000);
+            assertNotSame(member, next);
+            pool.release(next);
+        } finally {
+            pool.close();
+        }
+    }
+
+    private static InstancePool newPool(
+            String name, int instances, long idleTimeoutMillis, long maxMemoryBytes) {
+        PgLiteDriver.ManagedInstance template =
+                new PgLiteDriver.ManagedInstance(name + "#template");
+        template.boot(null);
+        return new InstancePool(name, template, true, instances, idleTimeoutMillis, maxMemoryBytes);
+    }
+}
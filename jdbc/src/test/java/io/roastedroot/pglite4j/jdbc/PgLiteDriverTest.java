@@ -2,19 +2,31 @@ package io.roastedroot.pglite4j.jdbc;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import io.roastedroot.pglite4j.core.CopyResult;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.MethodOrderer;
 import org.junit.jupiter.api.Order;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
 public class PgLiteDriverTest {
@@ -142,4 +154,356 @@ public class PgLiteDriverTest {
         assertFalse(driver.acceptsURL("jdbc:postgresql://localhost/test"));
         assertFalse(driver.acceptsURL("jdbc:mysql://localhost/test"));
     }
+
+    @Test
+    @Order(9)
+    void inProcessTransport() throws SQLException {
+        try (Connection conn =
+                        DriverManager.getConnection("jdbc:pglite:memory://?transport=inprocess");
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT name FROM test_crud WHERE value = 10")) {
+            // Same data path as the socket connection: same backend, no socket involved.
+            assertTrue(rs.next());
+            assertEquals("alice", rs.getString(1));
+            assertFalse(rs.next());
+        }
+    }
+
+    @Test
+    @Order(10)
+    void resetOnClose() throws SQLException {
+        String url = "jdbc:pglite:memory://reset?transport=inprocess&resetOn=close";
+        for (int i = 0; i < 2; i++) {
+            try (Connection conn = DriverManager.getConnection(url);
+                    Statement stmt = conn.createStatement()) {
+                // Fails on the second round unless the first one was rewound.
+                stmt.execute("CREATE TABLE scratch (id INTEGER)");
+                stmt.execute("INSERT INTO scratch VALUES (1)");
+            }
+        }
+        // a file-backed database has no checkpoint to rewind to
+        assertThrows(
+                SQLException.class,
+                () -> DriverManager.getConnection("jdbc:pglite:file:///nonexistent?resetOn=close"));
+    }
+
+    @Test
+    @Order(11)
+    void dataDirFromUrl() {
+        assertEquals(null, PgLiteDriver.dataDir("memory://"));
+        assertEquals(null, PgLiteDriver.dataDir("some-key"));
+        assertEquals(Paths.get("/var/db"), PgLiteDriver.dataDir("/var/db"));
+        assertEquals(Paths.get("/var/db"), PgLiteDriver.dataDir("file:///var/db"));
+        assertEquals(Paths.get("path/to/db"), PgLiteDriver.dataDir("file://path/to/db"));
+    }
+
+    @Test
+    @Order(12)
+    void fetchSizeStreamsRows() throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.setFetchSize(100);
+            try (ResultSet rs = stmt.executeQuery("SELECT i FROM generate_series(1, 10000) i")) {
+                int count = 0;
+                while (rs.next()) {
+                    count++;
+                    assertEquals(count, rs.getInt(1));
+                }
+                assertEquals(10000, count);
+            }
+        } finally {
+            connection.commit();
+            connection.setAutoCommit(true);
+        }
+    }
+
+    @Test
+    @Order(13)
+    void concurrentConnectionsTakeTurns() throws Exception {
+        String url = "jdbc:pglite:memory://concurrent";
+        try (Connection a = DriverManager.getConnection(url);
+                Connection b = DriverManager.getConnection(url + "?transport=inprocess")) {
+            Connection c = DriverManager.getConnection(url + "?transport=inprocess");
+            try (Statement stmt = a.createStatement()) {
+                stmt.execute("CREATE TABLE turns (id INTEGER)");
+            }
+            a.setAutoCommit(false);
+            try (Statement stmt = a.createStatement()) {
+                stmt.execute("INSERT INTO turns VALUES (1)");
+            }
+            // closing doesn't wait for a's transaction to end
+            long closing = System.nanoTime();
+            c.close();
+            assertTrue(System.nanoTime() - closing < TimeUnit.SECONDS.toNanos(5));
+
+            CompletableFuture<Integer> count =
+                    CompletableFuture.supplyAsync(
+                            () -> {
+                                try (Statement stmt = b.createStatement();
+                                        ResultSet rs =
+                                                stmt.executeQuery("SELECT count(*) FROM turns")) {
+                                    rs.next();
+                                    return rs.getInt(1);
+                                } catch (SQLException e) {
+                                    throw new RuntimeException(e);
+                                }
+                            });
+            // b waits for a's transaction to end instead of running inside it
+            Thread.sleep(200);
+            assertFalse(count.isDone());
+            a.commit();
+            assertEquals(1, count.get(30, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    @Order(14)
+    void queueTimeout() throws SQLException {
+        String url = "jdbc:pglite:memory://busy?transport=inprocess&queueTimeout=100";
+        try (Connection a = DriverManager.getConnection(url);
+                Connection b = DriverManager.getConnection(url)) {
+            a.setAutoCommit(false);
+            try (Statement stmt = a.createStatement()) {
+                stmt.execute("SELECT 1");
+            }
+            try (Statement stmt = b.createStatement()) {
+                SQLException e = assertThrows(SQLException.class, () -> stmt.execute("SELECT 1"));
+                assertEquals("55P03", e.getSQLState());
+            }
+            a.rollback();
+            try (Statement stmt = b.createStatement()) {
+                stmt.execute("SELECT 1");
+            }
+        }
+    }
+
+    @Test
+    @Order(15)
+    void statementStats() throws SQLException {
+        String url = "jdbc:pglite:memory://stats?statementStats=true";
+        try (Connection conn = DriverManager.getConnection(url);
+                PreparedStatement stmt = conn.prepareStatement("SELECT ? + 1")) {
+            for (int i = 0; i < 3; i++) {
+                stmt.setInt(1, i);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    assertTrue(rs.next());
+                }
+            }
+        }
+        StatementStats stats = PgLiteDriver.statementStats(url);
+        StatementStats.Entry entry =
+                stats.entries().stream()
+                        .filter(e -> e.sql().equals("SELECT $1 + ?"))
+                        .findFirst()
+                        .orElseThrow();
+        assertEquals(3, entry.calls());
+        assertEquals(3, entry.rows());
+    }
+
+    @Test
+    @Order(16)
+    void copyInFastPath() throws SQLException {
+        String url = "jdbc:pglite:memory://copy";
+        try (Connection conn = DriverManager.getConnection(url);
+                Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE points (x int, y int)");
+            StringBuilder csv = new StringBuilder();
+            for (int i = 0; i < 50_000; i++) {
+                csv.append(i).append(',').append(i * 2).append('\n');
+            }
+            CopyResult result =
+                    PgLiteDriver.copyIn(
+                            url,
+                            "COPY points FROM STDIN (FORMAT csv)",
+                            new ByteArrayInputStream(
+                                    csv.toString().getBytes(StandardCharsets.UTF_8)));
+            assertEquals(50_000, result.rows());
+            try (ResultSet rs = stmt.executeQuery("SELECT count(*), sum(y) FROM points")) {
+                assertTrue(rs.next());
+                assertEquals(50_000, rs.getLong(1));
+                assertEquals(2L * (49_999L * 50_000 / 2), rs.getLong(2));
+            }
+            SQLException bad =
+                    assertThrows(
+                            SQLException.class,
+                            () ->
+                                    PgLiteDriver.copyIn(
+                                            url,
+                                            "COPY points FROM STDIN (FORMAT csv)",
+                                            new ByteArrayInputStream(
+                                                    "1,x\n".getBytes(StandardCharsets.UTF_8))));
+            assertEquals("22P02", bad.getSQLState());
+        }
+    }
+
+    @Test
+    @Order(17)
+    void readReplicas() throws Exception {
+        String url = "jdbc:pglite:memory://replicas?replicas=2";
+        try (Connection writer = DriverManager.getConnection(url);
+                Statement stmt = writer.createStatement()) {
+            stmt.execute("CREATE TABLE ref (id int PRIMARY KEY, name text)");
+            stmt.execute("CREATE SEQUENCE seq");
+            stmt.execute("INSERT INTO ref SELECT i, 'n' || i FROM generate_series(1, 100) i");
+
+            CompletableFuture<?>[] readers = new CompletableFuture<?>[4];
+            for (int r = 0; r < readers.length; r++) {
+                readers[r] =
+                        CompletableFuture.runAsync(
+                                () -> {
+                                    try (Connection conn = DriverManager.getConnection(url);
+                                            PreparedStatement ps =
+                                                    conn.prepareStatement(
+                                                            "SELECT name FROM ref WHERE id = ?")) {
+                                        for (int i = 1; i <= 100; i++) {
+                                            ps.setInt(1, i);
+                                            try (ResultSet rs = ps.executeQuery()) {
+                                                assertTrue(rs.next());
+                                                assertEquals("n" + i, rs.getString(1));
+                                            }
+                                        }
+                                    } catch (SQLException e) {
+                                        throw new RuntimeException(e);
+                                    }
+                                });
+            }
+            CompletableFuture.allOf(readers).get(60, TimeUnit.SECONDS);
+
+            // a committed write is visible to the next read
+            stmt.execute("INSERT INTO ref VALUES (101, 'n101')");
+            try (ResultSet rs = stmt.executeQuery("SELECT count(*) FROM ref")) {
+                assertTrue(rs.next());
+                assertEquals(101, rs.getInt(1));
+            }
+            // a read that writes runs on the primary
+            try (ResultSet rs = stmt.executeQuery("SELECT nextval('seq')")) {
+                assertTrue(rs.next());
+                assertEquals(1, rs.getInt(1));
+            }
+            try (Connection reader = DriverManager.getConnection(url)) {
+                reader.setReadOnly(true);
+                reader.setAutoCommit(false);
+                try (Statement ro = reader.createStatement();
+                        ResultSet rs = ro.executeQuery("SELECT max(id) FROM ref")) {
+                    assertTrue(rs.next());
+                    assertEquals(101, rs.getInt(1));
+                }
+                reader.commit();
+            }
+
+            PgLiteDriver.ManagedInstance instance = PgLiteDriver.lookup("memory://replicas");
+            assertEquals(2, instance.getReplicas());
+            assertTrue(instance.getReplicaReads() >= 400);
+            assertTrue(instance.getReplicaFallbacks() >= 1);
+        }
+    }
+
+    @Test
+    @Order(18)
+    void perConnectionIsolation() throws Exception {
+        String url = "jdbc:pglite:memory://isolated?isolation=per-connection&instances=2";
+        try (Connection a = DriverManager.getConnection(url);
+                Connection b = DriverManager.getConnection(url);
+                Statement sa = a.createStatement();
+                Statement sb = b.createStatement()) {
+            sa.execute("CREATE TABLE t (x int)");
+            sa.execute("INSERT INTO t VALUES (1)");
+            // b has a database of its own, where t doesn't exist
+            sb.execute("CREATE TABLE t (x int)");
+            try (ResultSet rs = sb.executeQuery("SELECT count(*) FROM t")) {
+                assertTrue(rs.next());
+                assertEquals(0, rs.getInt(1));
+            }
+
+            // both instances are taken
+            SQLException busy =
+                    assertThrows(
+                            SQLException.class,
+                            () -> DriverManager.getConnection(url + "&queueTimeout=100"));
+            assertEquals("55P03", busy.getSQLState());
+        }
+
+        // a returned instance is reset for the next connection
+        try (Connection c = DriverManager.getConnection(url);
+                Statement stmt = c.createStatement();
+                ResultSet rs =
+                        stmt.executeQuery("SELECT count(*) FROM pg_tables WHERE tablename = 't'")) {
+            assertTrue(rs.next());
+            assertEquals(0, rs.getInt(1));
+        }
+
+        assertThrows(
+                SQLException.class,
+                () -> DriverManager.getConnection("jdbc:pglite:memory://?instances=2"));
+    }
+
+    @Test
+    @Order(19)
+    void initScriptsAndImageCache(@TempDir Path dir) throws Exception {
+        Path schema = dir.resolve("schema.sql");
+        Files.write(
+                schema,
+                ("CREATE TABLE items (id int PRIMARY KEY);"
+                                + " INSERT INTO items SELECT generate_series(1, 100);")
+                        .getBytes(StandardCharsets.UTF_8));
+        Path cache = dir.resolve("cache");
+        String options = "?init=" + schema + "&imageCache=" + cache;
+
+        for (String name : new String[] {"seeded-1", "seeded-2"}) {
+            // the first boot runs the script and saves the image, the second loads it
+            try (Connection conn =
+                            DriverManager.getConnection("jdbc:pglite:memory://" + name + options);
+                    Statement stmt = conn.createStatement();
+                    ResultSet rs = stmt.executeQuery("SELECT count(*) FROM items")) {
+                assertTrue(rs.next());
+                assertEquals(100, rs.getInt(1));
+            }
+            try (Stream<Path> images = Files.list(cache)) {
+                assertEquals(1, images.count());
+            }
+        }
+    }
+
+    @Test
+    @Order(20)
+    void forkWaitsOnlyForItsOwnTemplate() throws Exception {
+        String busy = "jdbc:pglite:memory://seed-busy?transport=inprocess";
+        try (Connection holder = DriverManager.getConnection(busy);
+                Statement stmt = holder.createStatement()) {
+            holder.setAutoCommit(false);
+            stmt.execute("CREATE TABLE seeded (x int)");
+
+            // forking seed-busy waits for the open transaction to end
+            CompletableFuture<Connection> blocked =
+                    CompletableFuture.supplyAsync(
+                            () -> {
+                                try {
+                                    return DriverManager.getConnection(
+                                            "jdbc:pglite:memory://fork-blocked?transport=inprocess"
+                                                + "&template=memory://seed-busy&queueTimeout=30000");
+                                } catch (SQLException e) {
+                                    throw new RuntimeException(e);
+                                }
+                            });
+            Thread.sleep(200);
+            assertFalse(blocked.isDone());
+
+            // while a fork of another template goes through
+            try (Connection free =
+                            DriverManager.getConnection(
+                                    "jdbc:pglite:memory://fork-free?transport=inprocess"
+                                            + "&template=memory://seed-free&queueTimeout=100");
+                    ResultSet rs = free.createStatement().executeQuery("SELECT 1")) {
+                assertTrue(rs.next());
+            }
+            assertFalse(blocked.isDone());
+
+            holder.commit();
+            try (Connection forked = blocked.get(30, TimeUnit.SECONDS);
+                    ResultSet rs =
+                            forked.createStatement().executeQuery("SELECT count(*) FROM seeded")) {
+                assertTrue(rs.next());
+            }
+        }
+    }
 }
@@ -0,0 +1,79 @@
+package io.roastedroot.pglite4j.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+public class ReadReplicasTest {
+
+    @Test
+    public void readOnlySql() {
+        assertTrue(ReadReplicas.isReadOnlySql("SELECT 1"));
+        assertTrue(ReadReplicas.isReadOnlySql("  /* hint */ -- note\n select * from t"));
+        assertTrue(ReadReplicas.isReadOnlySql("(SELECT 1) UNION (SELECT 2)"));
+        assertTrue(ReadReplicas.isReadOnlySql("WITH x AS (SELECT 1) SELECT * FROM x"));
+        assertTrue(ReadReplicas.isReadOnlySql("show search_path"));
+        assertTrue(ReadReplicas.isReadOnlySql("BEGIN READ ONLY"));
+        assertTrue(ReadReplicas.isReadOnlySql("start transaction  read\nonly"));
+        assertFalse(ReadReplicas.isReadOnlySql("BEGIN"));
+        assertFalse(ReadReplicas.isReadOnlySql("BEGIN READ ONLY; INSERT INTO t VALUES (1)"));
+        assertFalse(ReadReplicas.isReadOnlySql("INSERT INTO t VALUES (1)"));
+        assertFalse(ReadReplicas.isReadOnlySql("SET x = 1"));
+        assertFalse(ReadReplicas.isReadOnlySql("selector"));
+        assertFalse(ReadReplicas.isReadOnlySql(""));
+    }
+
+    @Test
+    public void selfContainedReadPipelines() {
+        assertTrue(ReadReplicas.isReadOnly(wire(msg('Q', "SELECT 1\0"))));
+        assertFalse(ReadReplicas.isReadOnly(wire(msg('Q', "DELETE FROM t\0"))));
+        // pgjdbc's unnamed statement: Parse, Bind, Describe, Execute, Sync
+        assertTrue(
+                ReadReplicas.isReadOnly(
+                        wire(
+                                msg('P', "\0SELECT $1\0\0\0"),
+                                msg('B', "\0\0\0\0\0\0\0\0"),
+                                msg('D', "P\0"),
+                                msg('E', "\0\0\0\0\0"),
+                                msg('S', ""))));
+        // binds a statement parsed by an earlier request
+        assertFalse(
+                ReadReplicas.isReadOnly(
+                        wire(
+                                msg('B', "\0S_1\0\0\0\0\0\0\0"),
+                                msg('E', "\0\0\0\0\0"),
+                                msg('S', ""))));
+        // no sync point
+        assertFalse(
+                ReadReplicas.isReadOnly(
+                        wire(msg('P', "\0SELECT 1\0\0\0"), msg('D', "S\0"), msg('H', ""))));
+        // one statement of the pipeline writes
+        assertFalse(
+                ReadReplicas.isReadOnly(
+                        wire(
+                                msg('P', "\0SELECT 1\0\0\0"),
+                                msg('P', "a\0UPDATE t SET x = 1\0\0\0"),
+                                msg('S', ""))));
+        // startup packet
+        assertFalse(ReadReplicas.isReadOnly(ByteBuffer.wrap(new byte[] {0, 0, 0, 8, 0, 3, 0, 0})));
+    }
+
+    private static byte[] msg(char type, String body) {
+        byte[] b = body.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer m = ByteBuffer.allocate(5 + b.length);
+        m.put((byte) type).putInt(4 + b.length).put(b);
+        return m.array();
+    }
+
+    private static ByteBuffer wire(byte[]... messages) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] m : messages) {
+            out.writeBytes(m);
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+}
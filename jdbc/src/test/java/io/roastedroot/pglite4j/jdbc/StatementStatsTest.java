@@ -0,0 +1,147 @@
+package io.roastedroot.pglite4j.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class StatementStatsTest {
+
+    @Test
+    public void normalizesLiteralsAndWhitespace() {
+        assertEquals(
+                "SELECT * FROM t1 WHERE a = ? AND b = ? AND c IN (?, ?)",
+                StatementStats.normalize(
+                        "SELECT *\n  FROM t1 WHERE a = 'it''s' AND b = 4.2e3 AND c IN (1, 2)"));
+        assertEquals(
+                "select \"col 1\" from x where id = $1",
+                StatementStats.normalize("select \"col 1\" from x where id = $1  "));
+    }
+
+    @Test
+    public void sameShapeIsOneEntry() {
+        StatementStats stats = new StatementStats();
+        assertTrue(stats.entry("SELECT 1") == stats.entry("SELECT  2"));
+    }
+
+    @Test
+    public void pipelinedStatementsAreAttributedInOrder() throws IOException {
+        StatementStats stats = new StatementStats();
+        StatementTracker tracker = new StatementTracker(stats);
+
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        request.write(tagged('P', "\0SELECT x FROM t WHERE id = $1\0\0\0"));
+        request.write(tagged('B', "\0\0"));
+        request.write(tagged('E', "\0\0\0\0\0"));
+        request.write(tagged('P', "\0UPDATE t SET x = 1\0\0\0"));
+        request.write(tagged('B', "\0\0"));
+        request.write(tagged('E', "\0\0\0\0\0"));
+        request.write(tagged('S', ""));
+        tracker.request(request.toByteArray());
+
+        OutputStream out = tracker.tap(OutputStream.nullOutputStream());
+        out.write(tagged('1', ""));
+        out.write(tagged('2', ""));
+        // split mid-header: framing must survive chunk boundaries
+        byte[] row = tagged('D', "row");
+        out.write(row, 0, 3);
+        out.write(row, 3, row.length - 3);
+        out.write(tagged('D', "row"));
+        out.write(tagged('C', "SELECT 2\0"));
+        out.write(tagged('2', ""));
+        out.write(tagged('C', "UPDATE 1\0"));
+        out.write(tagged('Z', "I"));
+
+        List<StatementStats.Entry> entries = stats.entries();
+        assertEquals(2, entries.size());
+        StatementStats.Entry select = find(entries, "SELECT x FROM t WHERE id = $1");
+        assertEquals(1, select.calls());
+        assertEquals(2, select.rows());
+        StatementStats.Entry update = find(entries, "UPDATE t SET x = ?");
+        assertEquals(1, update.calls());
+        assertEquals(0, update.rows());
+    }
+
+    @Test
+    public void errorSkipsRestOfPipeline() throws IOException {
+        StatementStats stats = new StatementStats();
+        StatementTracker tracker = new StatementTracker(stats);
+
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        request.write(tagged('P', "\0SELECT 1/0\0\0\0"));
+        request.write(tagged('B', "\0\0"));
+        request.write(tagged('E', "\0\0\0\0\0"));
+        request.write(tagged('P', "\0SELECT 2/0\0\0\0"));
+        request.write(tagged('B', "\0\0"));
+        request.write(tagged('E', "\0\0\0\0\0"));
+        request.write(tagged('S', ""));
+        tracker.request(request.toByteArray());
+
+        OutputStream out = tracker.tap(OutputStream.nullOutputStream());
+        out.write(tagged('E', "SERROR\0\0"));
+        out.write(tagged('Z', "I"));
+        tracker.request(tagged('Q', "SELECT 4/2\0"));
+        out.write(tagged('D', "row"));
+        out.write(tagged('C', "SELECT 1\0"));
+        out.write(tagged('Z', "I"));
+
+        StatementStats.Entry entry = stats.entries().get(0);
+        // all three normalize to "SELECT ?/?"; the second never ran
+        assertEquals(2, entry.calls());
+        assertEquals(1, entry.errors());
+        assertEquals(1, entry.rows());
+    }
+
+    @Test
+    public void fallbackFromAReplicaIsCountedOnce() throws IOException {
+        StatementStats stats = new StatementStats();
+        StatementTracker tracker = new StatementTracker(stats);
+        byte[] query = tagged('Q', "SELECT write_something()\0");
+
+        // the replica rejects it as a write
+        tracker.request(query);
+        tracker.stage();
+        OutputStream out = tracker.tap(OutputStream.nullOutputStream());
+        out.write(tagged('E', "SERROR\0C25006\0\0"));
+        tracker.discard();
+        assertEquals(0, stats.entries().get(0).calls());
+
+        // and the primary runs it
+        tracker.request(query);
+        out = tracker.tap(OutputStream.nullOutputStream());
+        out.write(tagged('D', "row"));
+        out.write(tagged('C', "SELECT 1\0"));
+        out.write(tagged('Z', "I"));
+        StatementStats.Entry entry = stats.entries().get(0);
+        assertEquals(1, entry.calls());
+        assertEquals(0, entry.errors());
+
+        // an accepted replica reply counts like any other
+        tracker.request(query);
+        tracker.stage();
+        out = tracker.tap(OutputStream.nullOutputStream());
+        out.write(tagged('C', "SELECT 0\0"));
+        out.write(tagged('Z', "I"));
+        assertEquals(1, entry.calls());
+        tracker.commit();
+        assertEquals(2, entry.calls());
+    }
+
+    private static StatementStats.Entry find(List<StatementStats.Entry> entries, String sql) {
+        return entries.stream().filter(e -> e.sql().equals(sql)).findFirst().orElseThrow();
+    }
+
+    private static byte[] tagged(char type, String body) {
+        byte[] b = body.getBytes();
+        return ByteBuffer.allocate(5 + b.length)
+                .put((byte) type)
+                .putInt(4 + b.length)
+                .put(b)
+                .array();
+    }
+}
@@ -0,0 +1,104 @@
+package io.roastedroot.pglite4j.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+public class WireFramerTest {
+
+    @Test
+    public void startupIsItsOwnPipeline() {
+        WireFramer framer = new WireFramer();
+        byte[] startup = untagged(196608, "user\0postgres\0\0");
+        framer.feed(startup, 0, 5);
+        assertNull(framer.poll());
+        framer.feed(startup, 5, startup.length - 5);
+        assertArrayEquals(startup, framer.poll());
+        assertEquals(0, framer.buffered());
+    }
+
+    @Test
+    public void sslRequestKeepsUntaggedMode() {
+        WireFramer framer = new WireFramer();
+        byte[] ssl = untagged(80877103, "");
+        byte[] startup = untagged(196608, "\0");
+        framer.feed(ssl, 0, ssl.length);
+        assertArrayEquals(ssl, framer.poll());
+        framer.feed(startup, 0, startup.length);
+        assertArrayEquals(startup, framer.poll());
+    }
+
+    @Test
+    public void batchSplitAcrossReadsIsOnePipeline() {
+        WireFramer framer = started();
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) {
+            batch.writeBytes(tagged('B', "bind" + i));
+            batch.writeBytes(tagged('E', "exec"));
+        }
+        batch.writeBytes(tagged('S', ""));
+        byte[] bytes = batch.toByteArray();
+
+        int half = bytes.length / 2 + 3;
+        framer.feed(bytes, 0, half);
+        assertNull(framer.poll());
+        framer.feed(bytes, half, bytes.length - half);
+        assertArrayEquals(bytes, framer.poll());
+        assertNull(framer.poll());
+    }
+
+    @Test
+    public void pipelineEndsAtLastSyncPoint() {
+        WireFramer framer = started();
+        byte[] query = tagged('Q', "SELECT 1\0");
+        byte[] parse = tagged('P', "\0SELECT 2\0\0\0");
+        framer.feed(query, 0, query.length);
+        framer.feed(parse, 0, parse.length);
+
+        assertArrayEquals(query, framer.poll());
+        assertNull(framer.poll());
+        assertArrayEquals(parse, framer.drain());
+        assertNull(framer.drain());
+    }
+
+    @Test
+    public void terminateIsRecognizedAlone() {
+        WireFramer framer = started();
+        byte[] terminate = tagged('X', "");
+        framer.feed(terminate, 0, terminate.length);
+        assertTrue(WireFramer.isTerminate(ByteBuffer.wrap(framer.poll())));
+
+        byte[] query = tagged('Q', "SELECT 1\0");
+        framer.feed(query, 0, query.length);
+        framer.feed(terminate, 0, terminate.length);
+        assertFalse(WireFramer.isTerminate(ByteBuffer.wrap(framer.poll())));
+    }
+
+    private static WireFramer started() {
+        WireFramer framer = new WireFramer();
+        byte[] startup = untagged(196608, "\0");
+        framer.feed(startup, 0, startup.length);
+        framer.poll();
+        return framer;
+    }
+
+    private static byte[] untagged(int code, String body) {
+        byte[] b = body.getBytes();
+        return ByteBuffer.allocate(8 + b.length).putInt(8 + b.length).putInt(code).put(b).array();
+    }
+
+    private static byte[] tagged(char type, String body) {
+        byte[] b = body.getBytes();
+        return ByteBuffer.allocate(5 + b.length)
+                .put((byte) type)
+                .putInt(4 + b.length)
+                .put(b)
+                .array();
+    }
+}
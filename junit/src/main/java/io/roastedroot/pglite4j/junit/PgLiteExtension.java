@@ -0,0 +1,177 @@
+package io.roastedroot.pglite4j.junit;
+
+import io.roastedroot.pglite4j.core.PGLite;
+import io.roastedroot.pglite4j.jdbc.PgLiteDataSource;
+import io.roastedroot.pglite4j.jdbc.PgLiteDriver;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.extension.ExtensionConfigurationException;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.jupiter.api.extension.ParameterResolver;
+
+/**
+ * Resolves {@link Connection}, {@link DataSource} and {@link PGLite} parameters to databases no
+ * other test sees, so that tests can run in parallel.
+ *
+ * <p>The databases are forks of a baseline, booted and migrated once per JVM (see {@link
+ * PgLiteTest#migrations()}), and share its memory pages copy-on-write: a test pays for what it
+ * writes, not for booting Postgres. A parameter of a test method, or of a {@code @BeforeEach} or
+ * {@code @AfterEach} method, gets the database of that test; a parameter of a {@code @BeforeAll}
+ * method gets one shared by the class. Within one scope, {@code Connection} and {@code
+ * DataSource} parameters reach the same database, and a {@code PGLite} parameter is a fork of the
+ * baseline of its own. Everything is closed when the scope ends.
+ */
+public final class PgLiteExtension implements ParameterResolver {
+    private static final ExtensionContext.Namespace NAMESPACE =
+            ExtensionContext.Namespace.create(PgLiteExtension.class);
+    private static final String DATA_PATH_PREFIX = "memory://pglite4j-junit/";
+    // data path of the migrated baseline, by list of migrations
+    private static final ConcurrentHashMap<List<String>, String> BASELINES =
+            new ConcurrentHashMap<>();
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    @Override
+    public boolean supportsParameter(ParameterContext parameter, ExtensionContext context) {
+        Class<?> type = parameter.getParameter().getType();
+        return type == Connection.class || type == DataSource.class || type == PGLite.class;
+    }
+
+    @Override
+    public Object resolveParameter(ParameterContext parameter, ExtensionContext context) {
+        // Keyed by scope: a plain key would also find the database of an enclosing scope, and
+        // hand the class's database to every test method.
+        Database database =
+                context.getStore(NAMESPACE.append(context.getUniqueId()))
+                        .getOrComputeIfAbsent(
+                                Database.class,
+                                k -> new Database(baseline(context)),
+                                Database.class);
+        Class<?> type = parameter.getParameter().getType();
+        try {
+            if (type == Connection.class) {
+                return database.connection();
+            } else if (type == DataSource.class) {
+                return database.dataSource;
+            } else {
+                return database.pgLite();
+            }
+        } catch (SQLException e) {
+            throw new ParameterResolutionException(
+                    "Failed to open a PGLite database for " + parameter.getParameter(), e);
+        }
+    }
+
+    // === Baselines ===
+
+    private static String baseline(ExtensionContext context) {
+        List<String> migrations = Arrays.asList(migrations(context.getTestClass()));
+        ClassLoader loader = context.getTestClass().map(Class::getClassLoader).orElse(null);
+        return BASELINES.computeIfAbsent(
+                migrations,
+                k -> {
+                    String dataPath = DATA_PATH_PREFIX + "baseline-" + NEXT_ID.getAndIncrement();
+                    migrate(dataPath, k, loader);
+                    return dataPath;
+                });
+    }
+
+    private static String[] migrations(Optional<Class<?>> testClass) {
+        for (Class<?> c = testClass.orElse(null); c != null; c = c.getEnclosingClass()) {
+            PgLiteTest annotation = c.getAnnotation(PgLiteTest.class);
+            if (annotation != null) {
+                return annotation.migrations();
+            }
+        }
+        return new String[0];
+    }
+
+    private static void migrate(String dataPath, List<String> migrations, ClassLoader loader) {
+        if (migrations.isEmpty()) {
+            return;
+        }
+        try (Connection conn = new PgLiteDataSource(url(dataPath)).getConnection();
+                Statement stmt = conn.createStatement()) {
+            for (String migration : migrations) {
+                stmt.execute(read(migration, loader));
+            }
+        } catch (SQLException e) {
+            throw new ExtensionConfigurationException(
+                    "Failed to migrate the PGLite baseline: " + e.getMessage(), e);
+        }
+    }
+
+    private static String read(String resource, ClassLoader loader) {
+        if (loader == null) {
+            loader = Thread.currentThread().getContextClassLoader();
+        }
+        try (InputStream in = loader.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new ExtensionConfigurationException(
+                        "PGLite migration not found on the classpath: " + resource);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new ExtensionConfigurationException(
+                    "Failed to read the PGLite migration " + resource, e);
+        }
+    }
+
+    private static String url(String dataPath) {
+        return "jdbc:pglite:" + dataPath + "?transport=inprocess";
+    }
+
+    /** The database of one test or class, forked from the baseline on first use. */
+    private static final class Database implements AutoCloseable {
+        private final String baselineUrl;
+        private final String url;
+        final DataSource dataSource;
+        private Connection connection;
+        private PGLite pgLite;
+
+        Database(String baseline) {
+            this.baselineUrl = url(baseline);
+            this.url = url(DATA_PATH_PREFIX + NEXT_ID.getAndIncrement()) + "&template=" + baseline;
+            this.dataSource = new PgLiteDataSource(url);
+        }
+
+        synchronized Connection connection() throws SQLException {
+            if (connection == null) {
+                connection = dataSource.getConnection();
+            }
+            return connection;
+        }
+
+        synchronized PGLite pgLite() throws SQLException {
+            if (pgLite == null) {
+                pgLite = PgLiteDriver.fork(baselineUrl);
+            }
+            return pgLite;
+        }
+
+        @Override
+        public synchronized void close() throws SQLException {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } finally {
+                if (pgLite != null) {
+                    pgLite.close();
+                }
+                PgLiteDriver.close(url);
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package io.roastedroot.pglite4j.junit;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+/**
+ * Gives the tests of the annotated class databases of their own, see {@link PgLiteExtension}.
+ *
+ * <pre>{@code
+ * @PgLiteTest(migrations = "db/schema.sql")
+ * class OrderRepositoryTest {
+ *     @Test
+ *     void insert(Connection conn) throws SQLException { ... }
+ * }
+ * }</pre>
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Inherited
+@ExtendWith(PgLiteExtension.class)
+public @interface PgLiteTest {
+    /**
+     * SQL scripts on the classpath run in order, once per JVM, on the baseline every database is
+     * forked from. Classes listing the same scripts share the baseline.
+     */
+    String[] migrations() default {};
+}
@@ -0,0 +1,72 @@
+package io.roastedroot.pglite4j.junit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.roastedroot.pglite4j.core.PGLite;
+import io.roastedroot.pglite4j.core.QueryResult;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+@PgLiteTest(migrations = "schema.sql")
+public class PgLiteExtensionTest {
+    private static DataSource classDatabase;
+
+    @BeforeAll
+    static void setUp(DataSource dataSource) throws SQLException {
+        classDatabase = dataSource;
+        try (Connection conn = dataSource.getConnection();
+                Statement stmt = conn.createStatement()) {
+            stmt.execute("INSERT INTO accounts VALUES (3, 'carol')");
+        }
+    }
+
+    // runs concurrently with the other repetitions, each on a database of its own
+    @RepeatedTest(8)
+    public void ownDatabase(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            assertEquals(2, count(stmt));
+            stmt.execute("INSERT INTO accounts VALUES (10, 'dave')");
+            assertEquals(3, count(stmt));
+        }
+    }
+
+    @Test
+    public void sameDatabaseWithinTest(Connection conn, DataSource dataSource) throws SQLException {
+        assertNotSame(classDatabase, dataSource);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DELETE FROM accounts");
+        }
+        try (Connection other = dataSource.getConnection();
+                Statement stmt = other.createStatement()) {
+            assertEquals(0, count(stmt));
+        }
+        try (Connection other = classDatabase.getConnection();
+                Statement stmt = other.createStatement()) {
+            assertEquals(3, count(stmt));
+        }
+    }
+
+    @Test
+    public void pgLite(PGLite pg) {
+        pg.execute("INSERT INTO accounts VALUES (4, 'erin')");
+        QueryResult rows = pg.query("SELECT owner FROM accounts ORDER BY id");
+        assertEquals(3, rows.rowCount());
+        assertTrue(rows.next());
+        assertEquals("alice", rows.getString(0));
+    }
+
+    private static int count(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT count(*) FROM accounts")) {
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        }
+    }
+}
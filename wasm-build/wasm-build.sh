@@ -231,7 +231,7 @@ export PGOPTS="\\
  -c exit_on_error=$EOE \\
  -c ignore_invalid_pages=on \\
  -c temp_buffers=8MB -c work_mem=4MB \\
- -c fsync=on -c synchronous_commit=on \\
+ -c fsync=off -c synchronous_commit=off -c full_page_writes=off \\
  -c wal_buffers=4MB -c min_wal_size=80MB \\
  -c shared_buffers=128MB"
 